@@ -1,9 +1,17 @@
 package at.hadl.logstatistics;
 
+import at.hadl.logstatistics.analysis.QueryDeduplicator;
 import at.hadl.logstatistics.analysis.QueryShapeFrequencyCounter;
+import at.hadl.logstatistics.analysis.ResultMerger;
+import at.hadl.logstatistics.utils.Checkpoint;
+import at.hadl.logstatistics.utils.DefaultPrefixes;
 import at.hadl.logstatistics.utils.PredicateMap;
 import at.hadl.logstatistics.utils.io.BatchLogIterator;
+import at.hadl.logstatistics.utils.io.LogPosition;
+import at.hadl.logstatistics.utils.io.QueryCorpus;
 import at.hadl.logstatistics.utils.preprocessing.DBPediaPreprocessor;
+import at.hadl.logstatistics.utils.preprocessing.NoopPreprocessor;
+import at.hadl.logstatistics.utils.preprocessing.Preprocessor;
 import at.hadl.logstatistics.utils.preprocessing.WikidataPreprocessor;
 import org.apache.commons.cli.*;
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -11,13 +19,30 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class Application {
+	private static final String ALL_STAGES = "*";
 
 	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("dedupe")) {
+			dedupe(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		} else if (args.length > 0 && args[0].equals("merge")) {
+			merge(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+
 		Options options = new Options();
 		options.addOption(Option.builder("l").longOpt("logs").hasArgs().desc("The path(s) to one/multiple directory(/ies) of logs or single log file(s).").build());
 		options.addOption(Option.builder("o").longOpt("outFiles").hasArgs().desc("The file to write the results into.").build());
@@ -25,7 +50,27 @@ public class Application {
 		options.addOption("po", "predicateMapOutFile", true, "The file to write the predicate map into.");
 		options.addOption("pi", "predicateMapInFile", true, "The file to read the predicate map from.");
 		options.addOption("pre", "preprocessor", true, "The preprocessor to use");
+		options.addOption("dp", "defaultPrefixes", true, "The prefixes that queries may use without declaring them (none, reduced, dbpedia, wikidata or a mapping file). By default, those of the preprocessor.");
 		options.addOption("skip", true, "Lines to skip in each file.");
+		options.addOption("r", "readers", true, "The number of log files to decompress in parallel.");
+		options.addOption("c", "compression", true, "The compression of the log files (gzip, bzip2 or none).");
+		options.addOption("gzi", "gzipIndex", false, "Decompress each GZIP file with multiple threads, using a seekable index that is built on first use.");
+		options.addOption("cp", "checkpointInterval", true, "Write a checkpoint after every n batches of a dataset.");
+		options.addOption(Option.builder().longOpt("resume").desc("Resume each dataset from its last checkpoint.").build());
+		options.addOption("d", "datasets", true, "The number of datasets to analyse at the same time.");
+		options.addOption("t", "threads", true, "The worker threads per pipeline stage, either one number for all stages or e.g. 4,parse=8,aggregate=2.");
+		options.addOption("dt", "decompressionThreads", true, "The number of threads for the parallel decompression of single BZIP2 or indexed GZIP files.");
+		options.addOption("hl", "heavyLaneThreads", true, "The number of threads for the lane that processes expensive queries.");
+		options.addOption("hc", "heavyQueryCost", true, "The estimated cost from which on a query is processed in the lane for expensive queries.");
+		options.addOption("mc", "maxCombinations", true, "The maximum number of combinations of alternative triple collections that are built for one query.");
+		options.addOption("mt", "maxWalkMillis", true, "The maximum time in milliseconds that the graph building may take for one query (0 does not limit the time).");
+		options.addOption("qc", "queryCacheSize", true, "The number of distinct query strings whose results are cached (0 disables the cache).");
+		options.addOption("hh", "heavyHitters", true, "Count only the approximately most frequent query shapes with this many counters, so that the memory does not grow with the number of distinct query shapes (0 counts all query shapes exactly).");
+		options.addOption("sm", "spillShapes", true, "The number of distinct query shapes to keep in memory; the others are spilled to sorted runs on disk and merged at the end (0 keeps all query shapes in memory).");
+		options.addOption("rf", "resultFile", false, "Also write the exact results to a binary result file, which the merge command can combine with other results.");
+		options.addOption("nt", "normalizeTemplates", false, "Replace the constants in subject and object positions before the cache lookup, so that all queries of a template share one result.");
+		options.addOption("jp", "jenaParser", false, "Parse every query with Apache Jena, without trying the fast parser for simple queries first.");
+		options.addOption("at", "autoTune", false, "Move threads between the pipeline stages towards the bottleneck stage while the analysis runs.");
 
 		CommandLineParser parser = new DefaultParser();
 		CommandLine cmd = parser.parse(options, args);
@@ -34,6 +79,12 @@ public class Application {
 			if (cmd.getOptionValues("l").length != cmd.getOptionValues("o").length) {
 				throw new RuntimeException("You must specify exactly as many output files as you specify log sources.");
 			}
+			if (cmd.hasOption("rf") && cmd.hasOption("hh")) {
+				throw new RuntimeException("The heavy hitters are approximate, so they cannot be written to a result file.");
+			}
+			if (cmd.hasOption("cp") && Integer.parseInt(cmd.getOptionValue("cp")) < 1) {
+				throw new RuntimeException("The checkpoint interval must be at least one batch.");
+			}
 
 			PredicateMap predicateMap;
 			if (cmd.hasOption("pi")) {
@@ -43,50 +94,232 @@ public class Application {
 				predicateMap = new PredicateMap();
 			}
 
+			var compression = BatchLogIterator.Compression.valueOf(cmd.getOptionValue("c", "gzip").toUpperCase());
+			// The queries of a corpus need the default prefixes as well, so they do not depend on the kind of input
+			var defaultPrefixes = cmd.hasOption("dp") ? DefaultPrefixes.named(cmd.getOptionValue("dp")) : preprocessorFor(cmd).getDefaultPrefixes();
+
 			var inputOutputPairs = IntStream.range(0, cmd.getOptionValues("l").length)
 					.mapToObj(i -> new ImmutablePair<>(cmd.getOptionValues("l")[i], cmd.getOptionValues("o")[i]))
 					.collect(Collectors.toList());
 
-			inputOutputPairs.parallelStream()
-					.forEach(inputOutputPair -> {
+			// All datasets share the predicate map, so the snapshots of all checkpoints are merged before any dataset resumes
+			Map<String, Optional<Checkpoint>> checkpoints = inputOutputPairs.stream()
+					.map(ImmutablePair::getRight)
+					.collect(Collectors.toMap(outFile -> outFile, outFile -> cmd.hasOption("resume") ? Checkpoint.fromPath(Checkpoint.checkpointPathFor(outFile)) : Optional.empty()));
+			checkpoints.values().forEach(checkpoint -> checkpoint.ifPresent(c -> predicateMap.putAll(c.getPredicateMap())));
+
+			int cores = Runtime.getRuntime().availableProcessors();
+			int parallelDatasets = Math.min(Integer.parseInt(cmd.getOptionValue("d", String.valueOf(inputOutputPairs.size()))), inputOutputPairs.size());
+			// The cores are shared by the datasets, and the threads of one dataset by its heavy lane and its pipeline stages
+			int datasetThreads = Math.max(1, cores / parallelDatasets);
+			int heavyLaneThreads = Integer.parseInt(cmd.getOptionValue("hl", String.valueOf(QueryShapeFrequencyCounter.defaultHeavyLaneThreads(datasetThreads))));
+			var stageThreads = parseStageThreads(cmd.getOptionValue("t", ""));
+			if (!stageThreads.containsKey(ALL_STAGES)) {
+				QueryShapeFrequencyCounter.splitStageThreads(datasetThreads - heavyLaneThreads).forEach(stageThreads::putIfAbsent);
+			}
+			int defaultStageThreads = stageThreads.getOrDefault(ALL_STAGES, 1);
+			var decompressionPool = new ForkJoinPool(Integer.parseInt(cmd.getOptionValue("dt", String.valueOf(cores))));
+			var datasetPool = Executors.newFixedThreadPool(parallelDatasets);
+
+			var datasetAnalyses = inputOutputPairs.stream()
+					.map(inputOutputPair -> datasetPool.submit(() -> {
 						var logPath = inputOutputPair.getLeft();
 						var outFile = inputOutputPair.getRight();
 						System.out.println("Analysing logs from " + logPath + " and writing results to " + outFile);
 
-						try (var logBatches = new BatchLogIterator(Paths.get(logPath), BatchLogIterator.Compression.GZIP, Integer.parseInt(cmd.getOptionValue("b", "10000")), Integer.parseInt(cmd.getOptionValue("skip", "0")))) {
-							var counter = new QueryShapeFrequencyCounter(logBatches, outFile)
-									.withPredicateMap(predicateMap);
-
-							if (cmd.hasOption("pre")) {
-								if (cmd.getOptionValue("pre").equals("wikidata")) {
-									counter = counter.withPreprocessor(new WikidataPreprocessor());
-								} else if (cmd.getOptionValue("pre").equals("dbpedia")) {
-									counter = counter.withPreprocessor(new DBPediaPreprocessor());
-								} else {
-									throw new RuntimeException("Option pre has an invalid/unknown value");
+						var checkpoint = checkpoints.get(outFile);
+						checkpoint.ifPresent(c -> System.out.println("Resuming " + logPath + " from its last checkpoint"));
+
+						// The settings that do not depend on the kind of input
+						UnaryOperator<QueryShapeFrequencyCounter> configure = counter -> counter
+								.withPredicateMap(predicateMap)
+								.withDefaultPrefixes(defaultPrefixes)
+								.withStageThreads(defaultStageThreads, stageThreads)
+								.withAutoTuning(cmd.hasOption("at"))
+								.withHeavyLane(heavyLaneThreads, Integer.parseInt(cmd.getOptionValue("hc", "10")))
+								.withExpansionBudget(Long.parseLong(cmd.getOptionValue("mc", "100000")), Long.parseLong(cmd.getOptionValue("mt", "0")))
+								.withQueryResultCache(Integer.parseInt(cmd.getOptionValue("qc", "100000")))
+								.withHeavyHitters(Integer.parseInt(cmd.getOptionValue("hh", "0")))
+								.withSpilling(Long.parseLong(cmd.getOptionValue("sm", "0")))
+								.withResultFile(cmd.hasOption("rf"))
+								.withTemplateNormalization(cmd.hasOption("nt"))
+								.withFastParsing(!cmd.hasOption("jp"));
+
+						try {
+							if (QueryCorpus.isCorpus(Paths.get(logPath))) {
+								// The queries of a corpus have already been preprocessed when it was built
+								try (var corpus = QueryCorpus.reader(Paths.get(logPath), Integer.parseInt(cmd.getOptionValue("b", "10000")))) {
+									checkpoint.ifPresent(c -> corpus.withResumePosition(c.getLogPosition()));
+									var counter = configure.apply(new QueryShapeFrequencyCounter(corpus, outFile));
+									runAnalysis(counter, cmd, checkpoint, outFile, corpus::getPosition);
+								}
+							} else {
+								try (var logBatches = new BatchLogIterator(Paths.get(logPath), compression, Integer.parseInt(cmd.getOptionValue("b", "10000")), Integer.parseInt(cmd.getOptionValue("skip", "0")))
+										.withReaderThreads(Integer.parseInt(cmd.getOptionValue("r", "1")))
+										.withGzipIndex(cmd.hasOption("gzi"))
+										.withDecompressionPool(decompressionPool)) {
+									checkpoint.ifPresent(c -> logBatches.withResumePosition(c.getLogPosition()));
+									var counter = configure.apply(new QueryShapeFrequencyCounter(logBatches, outFile)).withPreprocessor(preprocessorFor(cmd));
+									runAnalysis(counter, cmd, checkpoint, outFile, logBatches::getPosition);
 								}
 							}
-
-							counter.startAnalysis();
 						} catch (Exception e) {
 							throw new RuntimeException(e);
 						}
-					});
+					}))
+					.collect(Collectors.toList());
 
-			// Write the final predicate map to a file
-			try (var fileWriter = new FileWriter(Paths.get(cmd.getOptionValue("po")).toFile())) {
-				predicateMap.getPredicateMap().entrySet().stream()
-						.sorted(Map.Entry.comparingByValue())
-						.forEach(entry -> {
-							try {
-								fileWriter.write(entry.getKey() + "\t" + entry.getValue() + "\n");
-							} catch (IOException e) {
-								e.printStackTrace();
-							}
-						});
+			try {
+				for (var datasetAnalysis : datasetAnalyses) {
+					datasetAnalysis.get();
+				}
+			} catch (ExecutionException e) {
+				throw new RuntimeException("The analysis of a dataset failed: ", e.getCause());
+			} finally {
+				datasetPool.shutdownNow();
+				decompressionPool.shutdownNow();
 			}
+
+			// Write the final predicate map to a file
+			writePredicateMap(predicateMap, cmd.getOptionValue("po"));
 		} else {
 			throw new RuntimeException("l, o, and po are mandatory parameters!");
 		}
 	}
+
+	private static void runAnalysis(QueryShapeFrequencyCounter counter, CommandLine cmd, Optional<Checkpoint> checkpoint, String outFile, Supplier<LogPosition> logPosition) throws IOException {
+		if (checkpoint.isPresent()) {
+			counter = counter.resumeFrom(checkpoint.get());
+		}
+
+		if (cmd.hasOption("cp")) {
+			counter = counter.withCheckpoints(Checkpoint.checkpointPathFor(outFile), Integer.parseInt(cmd.getOptionValue("cp")), logPosition);
+		}
+
+		counter.startAnalysis();
+	}
+
+	/*
+	Reduces logs to query corpora (see QueryDeduplicator), which can then be analyzed like logs: "dedupe -l <logs> -o <corpus>".
+	 */
+	private static void dedupe(String[] args) throws Exception {
+		Options options = new Options();
+		options.addOption(Option.builder("l").longOpt("logs").hasArgs().desc("The path(s) to one/multiple directory(/ies) of logs or single log file(s).").build());
+		options.addOption(Option.builder("o").longOpt("outFiles").hasArgs().desc("The corpus file to write for each log path.").build());
+		options.addOption("b", "batchSize", true, "The batch size for log processing.");
+		options.addOption("pre", "preprocessor", true, "The preprocessor to use");
+		options.addOption("skip", true, "Lines to skip in each file.");
+		options.addOption("r", "readers", true, "The number of log files to decompress in parallel.");
+		options.addOption("c", "compression", true, "The compression of the log files (gzip, bzip2 or none).");
+		options.addOption("gzi", "gzipIndex", false, "Decompress each GZIP file with multiple threads, using a seekable index that is built on first use.");
+		options.addOption("dt", "decompressionThreads", true, "The number of threads for the parallel decompression of single BZIP2 or indexed GZIP files.");
+		options.addOption("smb", "spillMegabytes", true, "The memory in MB for distinct queries, above which they are spilled to disk.");
+
+		CommandLineParser parser = new DefaultParser();
+		CommandLine cmd = parser.parse(options, args);
+
+		if (!cmd.hasOption("l") || !cmd.hasOption("o")) {
+			throw new RuntimeException("l and o are mandatory parameters!");
+		}
+		if (cmd.getOptionValues("l").length != cmd.getOptionValues("o").length) {
+			throw new RuntimeException("You must specify exactly as many output files as you specify log sources.");
+		}
+
+		var compression = BatchLogIterator.Compression.valueOf(cmd.getOptionValue("c", "gzip").toUpperCase());
+		var decompressionPool = new ForkJoinPool(Integer.parseInt(cmd.getOptionValue("dt", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+		try {
+			for (int i = 0; i < cmd.getOptionValues("l").length; i++) {
+				var logPath = cmd.getOptionValues("l")[i];
+				var corpusFile = Paths.get(cmd.getOptionValues("o")[i]);
+				System.out.println("Deduplicating the queries of " + logPath + " into " + corpusFile.toString());
+
+				try (var logBatches = new BatchLogIterator(Paths.get(logPath), compression, Integer.parseInt(cmd.getOptionValue("b", "10000")), Integer.parseInt(cmd.getOptionValue("skip", "0")))
+						.withReaderThreads(Integer.parseInt(cmd.getOptionValue("r", "1")))
+						.withGzipIndex(cmd.hasOption("gzi"))
+						.withDecompressionPool(decompressionPool)) {
+					new QueryDeduplicator(logBatches, corpusFile)
+							.withPreprocessor(preprocessorFor(cmd))
+							.withSpillThreshold(Long.parseLong(cmd.getOptionValue("smb", "256")) << 20)
+							.deduplicate();
+				}
+			}
+		} finally {
+			decompressionPool.shutdownNow();
+		}
+	}
+
+	/*
+	Merges the result files of analyses that were run with -rf (see ResultMerger): "merge -i <result files> -o <out> -po <predicate map>".
+	 */
+	private static void merge(String[] args) throws Exception {
+		Options options = new Options();
+		options.addOption(Option.builder("i").longOpt("resultFiles").hasArgs().desc("The result files to merge.").build());
+		options.addOption("o", "outFile", true, "The name of the merged output files.");
+		options.addOption("po", "predicateMapOutFile", true, "The file to write the merged predicate map into.");
+		options.addOption("pi", "predicateMapInFile", true, "The file to read a predicate map from, whose ids are kept.");
+		options.addOption("t", "threads", true, "The number of result files to read at the same time.");
+		options.addOption("sm", "spillShapes", true, "The number of distinct query shapes to keep in memory; the others are spilled to sorted runs on disk.");
+
+		CommandLineParser parser = new DefaultParser();
+		CommandLine cmd = parser.parse(options, args);
+
+		if (!cmd.hasOption("i") || !cmd.hasOption("o") || !cmd.hasOption("po")) {
+			throw new RuntimeException("i, o, and po are mandatory parameters!");
+		}
+
+		var merger = new ResultMerger(Arrays.stream(cmd.getOptionValues("i")).map(Paths::get).collect(Collectors.toList()), cmd.getOptionValue("o"))
+				.withThreads(Integer.parseInt(cmd.getOptionValue("t", String.valueOf(Runtime.getRuntime().availableProcessors()))))
+				.withSpilling(Long.parseLong(cmd.getOptionValue("sm", "0")));
+		if (cmd.hasOption("pi")) {
+			merger = merger.withPredicateMap(PredicateMap.fromPath(Paths.get(cmd.getOptionValue("pi"))).orElseThrow());
+		}
+		merger.merge();
+
+		writePredicateMap(merger.getPredicateMap(), cmd.getOptionValue("po"));
+	}
+
+	private static void writePredicateMap(PredicateMap predicateMap, String predicateMapFile) throws IOException {
+		try (var fileWriter = new FileWriter(Paths.get(predicateMapFile).toFile())) {
+			predicateMap.getPredicateMap().entrySet().stream()
+					.sorted(Map.Entry.comparingByValue())
+					.forEach(entry -> {
+						try {
+							fileWriter.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					});
+		}
+	}
+
+	private static Preprocessor preprocessorFor(CommandLine cmd) {
+		if (!cmd.hasOption("pre")) {
+			return new NoopPreprocessor();
+		} else if (cmd.getOptionValue("pre").equals("wikidata")) {
+			return new WikidataPreprocessor();
+		} else if (cmd.getOptionValue("pre").equals("dbpedia")) {
+			return new DBPediaPreprocessor();
+		} else {
+			throw new RuntimeException("Option pre has an invalid/unknown value");
+		}
+	}
+
+	/*
+	Parses values like "4,parse=8,aggregate=2". A plain number applies to all stages without their own value (key ALL_STAGES).
+	 */
+	private static Map<String, Integer> parseStageThreads(String value) {
+		var stageThreads = new HashMap<String, Integer>();
+		for (var part : value.split(",")) {
+			if (part.isBlank()) {
+				continue;
+			}
+			var keyValue = part.split("=");
+			if (keyValue.length == 1) {
+				stageThreads.put(ALL_STAGES, Integer.parseInt(keyValue[0].trim()));
+			} else {
+				stageThreads.put(keyValue[0].trim(), Integer.parseInt(keyValue[1].trim()));
+			}
+		}
+		return stageThreads;
+	}
 }
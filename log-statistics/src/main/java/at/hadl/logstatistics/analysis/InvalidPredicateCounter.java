@@ -1,11 +1,14 @@
 package at.hadl.logstatistics.analysis;
 
-import at.hadl.logstatistics.utils.QueryParser;
 import at.hadl.logstatistics.utils.preprocessing.DBPediaPreprocessor;
 import at.hadl.logstatistics.utils.preprocessing.NoopPreprocessor;
 import at.hadl.logstatistics.utils.preprocessing.Preprocessor;
 import com.google.common.base.CharMatcher;
+import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryException;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.Syntax;
+import org.apache.jena.shared.impl.PrefixMappingImpl;
 
 import java.io.FileWriter;
 import java.io.IOException;
@@ -71,27 +74,29 @@ public class InvalidPredicateCounter {
         }
     }
 
+    /*
+    Parses the query once, with a prologue that records every undefined (ASCII) prefix and resolves it to a dummy namespace,
+    so the parsing continues up to the next undefined prefix or syntax error.
+     */
     private Stream<String> getUndefinedPrefixes(String queryString) {
-        var undefinedPrefixes = new ArrayList<String>();
-        var noMoreUndefinedPrefixes = false;
-
-        while (!noMoreUndefinedPrefixes) {
-            try {
-                QueryParser.parseQueryFailing(queryString);
-                noMoreUndefinedPrefixes = true;
-            } catch (QueryException e) {
-                if (e.getMessage().contains("Unresolved prefixed name:")) {
-                    var prefix = e.getMessage().split("Unresolved prefixed name:")[1].split(":")[0].trim();
-                    if (ascii.matchesAllOf(prefix)) {
-                        undefinedPrefixes.add(prefix);
-                        queryString = "PREFIX " + prefix + ": <http://xmlns.com/foaf/0.1/> \n" + queryString;
-                    } else {
-                        noMoreUndefinedPrefixes = true;
-                    }
-                } else {
-                    noMoreUndefinedPrefixes = true;
+        var undefinedPrefixes = new LinkedHashSet<String>();
+        var query = new Query();
+        query.setPrefixMapping(new PrefixMappingImpl() {
+            @Override
+            public String getNsPrefixURI(String prefix) {
+                var namespace = super.getNsPrefixURI(prefix);
+                if (namespace == null && ascii.matchesAllOf(prefix)) {
+                    undefinedPrefixes.add(prefix);
+                    namespace = "http://xmlns.com/foaf/0.1/";
                 }
+                return namespace;
             }
+        });
+
+        try {
+            QueryFactory.parse(query, queryString, null, Syntax.syntaxSPARQL_11);
+        } catch (QueryException e) {
+            // The undefined prefixes before the error have been recorded
         }
 
         return undefinedPrefixes.stream();
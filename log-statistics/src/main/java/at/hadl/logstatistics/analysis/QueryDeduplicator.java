@@ -0,0 +1,220 @@
+package at.hadl.logstatistics.analysis;
+
+import at.hadl.logstatistics.utils.io.LogBatch;
+import at.hadl.logstatistics.utils.io.QueryCorpus;
+import at.hadl.logstatistics.utils.preprocessing.NoopPreprocessor;
+import at.hadl.logstatistics.utils.preprocessing.Preprocessor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/*
+This class reduces a series of log lines to a QueryCorpus of their distinct query strings and how often each one occurred.
+It uses a "Preprocessor" to extract and preprocess the query strings, exactly like a QueryShapeFrequencyCounter does, so that
+analyzing the corpus later on gives the same counts as analyzing the log lines.
+
+The distinct queries are counted in memory until they take more than the spill threshold. Then they are sorted and written
+to a temporary run file (itself a QueryCorpus) next to the corpus. At the end, all runs are merged into the corpus, adding up
+the counts of the queries that occur in several runs, so the memory use does not depend on the number of distinct queries.
+At most MAX_MERGE_WIDTH runs are read at once; more runs are first merged in passes into intermediate runs.
+ */
+public class QueryDeduplicator {
+    private static final int MERGE_BATCH_SIZE = 1024;
+    private static final int MAX_MERGE_WIDTH = 128;
+    // A rough estimate of the heap used by one map entry besides the characters of its query
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final Iterator<LogBatch> logBatches;
+    private final Path corpusFile;
+    private Preprocessor preprocessor = new NoopPreprocessor();
+    private long spillThresholdBytes = 256L << 20;
+
+    private ConcurrentHashMap<String, LongAdder> queryCounts = new ConcurrentHashMap<>();
+    private final AtomicLong queryCountsBytes = new AtomicLong();
+    private final List<Path> runs = new ArrayList<>();
+    private long totalLines = 0;
+
+    public QueryDeduplicator(Iterator<LogBatch> logBatches, Path corpusFile) {
+        this.logBatches = logBatches;
+        this.corpusFile = corpusFile;
+    }
+
+    public QueryDeduplicator withPreprocessor(Preprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+        return this;
+    }
+
+    /*
+    The estimated heap size of the distinct queries in memory above which they are spilled to a run file.
+     */
+    public QueryDeduplicator withSpillThreshold(long spillThresholdBytes) {
+        this.spillThresholdBytes = spillThresholdBytes;
+        return this;
+    }
+
+    public void deduplicate() throws IOException {
+        ZonedDateTime start = ZonedDateTime.now();
+        var runDirectory = Files.createTempDirectory(corpusFile.toAbsolutePath().getParent(), corpusFile.getFileName() + ".runs");
+
+        try {
+            while (logBatches.hasNext()) {
+                var batch = logBatches.next();
+                IntStream.range(0, batch.size()).parallel().forEach(line -> countQuery(batch, line));
+                totalLines += batch.size();
+                batch.release();
+
+                if (queryCountsBytes.get() > spillThresholdBytes) {
+                    spill(runDirectory);
+                }
+
+                System.out.println("Batch deduplicated! Distinct queries in memory: " + queryCounts.size() + ", runs: " + runs.size());
+                System.out.println("Total duration: " + Duration.between(start, ZonedDateTime.now()).toString());
+            }
+
+            if (runs.isEmpty()) {
+                try (var writer = QueryCorpus.writer(corpusFile)) {
+                    for (var query : sortedQueries()) {
+                        writer.write(query, queryCounts.get(query).sum());
+                    }
+                    writer.finish(totalLines);
+                }
+            } else {
+                if (!queryCounts.isEmpty()) {
+                    spill(runDirectory);
+                }
+                mergeRuns(mergePasses(runDirectory), corpusFile, totalLines);
+            }
+        } finally {
+            for (var run : runs) {
+                Files.deleteIfExists(run);
+            }
+            Files.deleteIfExists(runDirectory);
+        }
+
+        System.out.println("Corpus written to " + corpusFile.toString());
+    }
+
+    private void countQuery(LogBatch batch, int line) {
+        preprocessor.extractQueryString(batch.getBuffer(), batch.lineStart(line), batch.lineEnd(line))
+                .map(preprocessor::preprocessQueryString)
+                .ifPresent(queryString -> queryCounts.computeIfAbsent(queryString, query -> {
+                    queryCountsBytes.addAndGet(2L * query.length() + ENTRY_OVERHEAD_BYTES);
+                    return new LongAdder();
+                }).increment());
+    }
+
+    private List<String> sortedQueries() {
+        var queries = new ArrayList<>(queryCounts.keySet());
+        queries.sort(null);
+        return queries;
+    }
+
+    private void spill(Path runDirectory) throws IOException {
+        var run = runDirectory.resolve("run-" + runs.size());
+        try (var writer = QueryCorpus.writer(run)) {
+            for (var query : sortedQueries()) {
+                writer.write(query, queryCounts.get(query).sum());
+            }
+            writer.finish(0);
+        }
+        runs.add(run);
+        queryCounts = new ConcurrentHashMap<>();
+        queryCountsBytes.set(0);
+    }
+
+    // Merges groups of MAX_MERGE_WIDTH runs into intermediate runs until at most that many are left
+    private List<Path> mergePasses(Path runDirectory) throws IOException {
+        List<Path> pending = new ArrayList<>(runs);
+        while (pending.size() > MAX_MERGE_WIDTH) {
+            var merged = new ArrayList<Path>();
+            for (int from = 0; from < pending.size(); from += MAX_MERGE_WIDTH) {
+                var group = pending.subList(from, Math.min(from + MAX_MERGE_WIDTH, pending.size()));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                var run = runDirectory.resolve("run-" + runs.size());
+                runs.add(run);
+                mergeRuns(group, run, 0);
+                merged.add(run);
+            }
+            pending = merged;
+        }
+        return pending;
+    }
+
+    private static void mergeRuns(List<Path> runs, Path target, long totalLines) throws IOException {
+        var readers = new ArrayList<QueryCorpus.Reader>();
+        try (var writer = QueryCorpus.writer(target)) {
+            var heads = new PriorityQueue<RunHead>((a, b) -> a.query().compareTo(b.query()));
+            for (var run : runs) {
+                var reader = QueryCorpus.reader(run, MERGE_BATCH_SIZE);
+                readers.add(reader);
+                new RunHead(reader).advance(heads);
+            }
+
+            while (!heads.isEmpty()) {
+                var head = heads.poll();
+                var query = head.query();
+                long count = head.count();
+                head.advance(heads);
+                while (!heads.isEmpty() && heads.peek().query().equals(query)) {
+                    var sameQuery = heads.poll();
+                    count += sameQuery.count();
+                    sameQuery.advance(heads);
+                }
+                writer.write(query, count);
+            }
+            writer.finish(totalLines);
+        } finally {
+            for (var reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /*
+    The current record of a run during the merge.
+     */
+    private static class RunHead {
+        private final QueryCorpus.Reader reader;
+        private QueryCorpus.Batch batch;
+        private int record = -1;
+
+        private RunHead(QueryCorpus.Reader reader) {
+            this.reader = reader;
+        }
+
+        private String query() {
+            return batch.getQuery(record);
+        }
+
+        private long count() {
+            return batch.getCount(record);
+        }
+
+        // Moves to the next record and puts the run back into the queue, unless it is exhausted
+        private void advance(PriorityQueue<RunHead> heads) {
+            record++;
+            while (batch == null || record == batch.size()) {
+                if (!reader.hasNext()) {
+                    return;
+                }
+                batch = reader.next();
+                record = 0;
+            }
+            heads.add(this);
+        }
+    }
+}
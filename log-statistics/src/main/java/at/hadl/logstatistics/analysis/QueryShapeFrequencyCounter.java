@@ -1,46 +1,121 @@
 package at.hadl.logstatistics.analysis;
 
+import at.hadl.logstatistics.utils.Checkpoint;
+import at.hadl.logstatistics.utils.DefaultPrefixes;
+import at.hadl.logstatistics.utils.FastQueryParser;
+import at.hadl.logstatistics.utils.HeavyHitterTable;
+import at.hadl.logstatistics.utils.LongCountMap;
+import at.hadl.logstatistics.utils.MetaInformationCounters;
+import at.hadl.logstatistics.utils.MetaInformationCounters.Counter;
 import at.hadl.logstatistics.utils.PredicateMap;
+import at.hadl.logstatistics.utils.QueryCostEstimator;
 import at.hadl.logstatistics.utils.QueryParser;
+import at.hadl.logstatistics.utils.QueryResultCache;
+import at.hadl.logstatistics.utils.QueryShapeTable;
+import at.hadl.logstatistics.utils.QueryTemplateNormalizer;
+import at.hadl.logstatistics.utils.RequiredPartitionsExtractor;
+import at.hadl.logstatistics.utils.ResultFile;
+import at.hadl.logstatistics.utils.SpillingQueryShapeTable;
+import at.hadl.logstatistics.utils.SpillingQueryShapeTable.SortedShapeCountConsumer;
+import at.hadl.logstatistics.utils.graphbuilding.FeatureMask;
 import at.hadl.logstatistics.utils.graphbuilding.GraphBuilder;
+import at.hadl.logstatistics.utils.graphbuilding.GraphBuildingResult;
 import at.hadl.logstatistics.utils.graphbuilding.TriplesElementWalkerFactory;
 import at.hadl.logstatistics.utils.graphbuilding.UUIDGenerator;
+import at.hadl.logstatistics.utils.io.LogBatch;
+import at.hadl.logstatistics.utils.io.LogPosition;
+import at.hadl.logstatistics.utils.io.QueryCorpus;
+import at.hadl.logstatistics.utils.pipeline.Pipeline;
+import at.hadl.logstatistics.utils.pipeline.PipelineTuner;
 import at.hadl.logstatistics.utils.preprocessing.NoopPreprocessor;
 import at.hadl.logstatistics.utils.preprocessing.Preprocessor;
+import org.apache.jena.sparql.syntax.Element;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static at.hadl.logstatistics.utils.RequiredPartitionsExtractor.decodeStarShapes;
+import static at.hadl.logstatistics.utils.RequiredPartitionsExtractor.formatStarShapes;
 
-import static at.hadl.logstatistics.utils.RequiredPartitionsExtractor.extractStarShapes;
 
 /*
 This class counts the shapes of the query graphs of a series of log lines.
-It uses a "Preprocessor" to extract the query string form each log line.
-Apache Jena ARQ's "QueryParser" transforms this query string into a "Query".
-A "GraphBuilder" is used to transform this Apache Jena ARQ "Query" into a collection of "Query Graphs".
-Finally, a "RequiredPartitionsExtractor" is used to get the required partitions to cover these query graphs.
+The log lines flow through a "Pipeline" whose stages run concurrently, so no stage waits for the slowest query of a batch.
+Queries that are expected to be expensive are diverted to a separate pipeline lane with a limited number of threads.
+Optionally, the results of repeated query strings are taken from a "QueryResultCache" instead of analyzing the query again.
+It uses a "Preprocessor" to extract the query string form the raw bytes of each log line.
+Instead of log lines, the counter can also read a deduplicated "QueryCorpus", where every distinct query is analyzed once and
+counted as often as it occurred in the logs.
+The "FastQueryParser" transforms simple query strings into their query pattern, all others are left to Apache Jena ARQ's "QueryParser".
+A "GraphBuilder" is used to transform this query pattern into a collection of "Query Graphs" and their star shapes.
+Finally, a "RequiredPartitionsExtractor" is used to format the required partitions to cover these query graphs.
 
-The results of the analysis are written to two TSV files, one for the query shape counts and the other for collected meta-information.
+The results of the analysis are written to three TSV files: the query shape counts, the collected meta-information and the counts of
+every combination of features that the queries use.
+The meta-information (features as a "FeatureMask" and a few fixed counters) is counted per thread by "MetaInformationCounters".
+The query shapes are counted exactly in a "QueryShapeTable", exactly with bounded memory in a "SpillingQueryShapeTable", or
+approximately in a "HeavyHitterTable".
+Optionally, the exact results are also written to a binary "ResultFile", which a "ResultMerger" can merge with other results.
+Optionally, a "Checkpoint" is written after every n batches, from which an interrupted analysis can be resumed.
 */
 public class QueryShapeFrequencyCounter {
-    private Iterator<List<String>> logBatches;
+    private static final int PIPELINE_CHUNK_SIZE = 64;
+    private static final int LINE_RANGE_SIZE = 256;
+    private static final long TUNING_INTERVAL_MILLIS = 1000;
+
+    private Iterator<List<QueryChunk>> queryChunks;
     private String outFile;
     private PredicateMap predicateMap;
-    private ConcurrentHashMap<String, LongAdder> metaInformationCounters;
+    private MetaInformationCounters metaInformationCounters;
+    private QueryShapeTable totalFrequencies;
+    private HeavyHitterTable heavyHitters;
+    private SpillingQueryShapeTable spillingFrequencies;
     private Preprocessor preprocessor = new NoopPreprocessor();
+    private DefaultPrefixes defaultPrefixes = DefaultPrefixes.NONE;
     private GraphBuilder graphBuilder = new GraphBuilder(new TriplesElementWalkerFactory(new UUIDGenerator()));
+    private Path checkpointFile;
+    private int checkpointInterval;
+    private Supplier<LogPosition> logPosition;
+    private int heavyLaneThreads = defaultHeavyLaneThreads(Runtime.getRuntime().availableProcessors());
+    private int defaultStageThreads = 1;
+    private Map<String, Integer> stageThreads = splitStageThreads(Runtime.getRuntime().availableProcessors() - heavyLaneThreads);
+    private boolean autoTuning = false;
+    private int heavyQueryCost = 10;
+    private final LongAdder heavyLaneQueries = new LongAdder();
+    private QueryResultCache queryResultCache;
+    private boolean templateNormalization = false;
+    private boolean fastParsing = true;
+    private boolean writingResultFile = false;
+
+    public QueryShapeFrequencyCounter(Iterator<LogBatch> logBatches, String outFile) {
+        this(outFile);
+        this.queryChunks = chunks(logBatches, this::lineRanges);
+    }
+
+    /*
+    Counts the queries of a deduplicated corpus, each one weighted by the number of times it occurred in the logs.
+    The queries of a corpus have already been preprocessed, so the counter should use a NoopPreprocessor.
+     */
+    public QueryShapeFrequencyCounter(QueryCorpus.Reader corpus, String outFile) {
+        this(outFile);
+        this.queryChunks = chunks(corpus, this::corpusChunks);
+    }
 
-    public QueryShapeFrequencyCounter(Iterator<List<String>> logBatches, String outFile) {
-        this.logBatches = logBatches;
+    private QueryShapeFrequencyCounter(String outFile) {
         this.outFile = outFile;
         this.predicateMap = new PredicateMap();
-        this.metaInformationCounters = new ConcurrentHashMap<>();
+        this.metaInformationCounters = new MetaInformationCounters();
+        this.totalFrequencies = new QueryShapeTable();
     }
 
     public QueryShapeFrequencyCounter withPreprocessor(Preprocessor preprocessor) {
@@ -48,67 +123,545 @@ public class QueryShapeFrequencyCounter {
         return this;
     }
 
+    /*
+    The prefixes that the queries may use without declaring them; the parsers resolve them from a shared prologue.
+     */
+    public QueryShapeFrequencyCounter withDefaultPrefixes(DefaultPrefixes defaultPrefixes) {
+        this.defaultPrefixes = defaultPrefixes;
+        return this;
+    }
+
     public QueryShapeFrequencyCounter withPredicateMap(PredicateMap predicateMap) {
         this.predicateMap = predicateMap;
         return this;
     }
 
+    /*
+    The number of worker threads of the pipeline stages (extract, preprocess, parse, build-graphs, extract-shapes and aggregate).
+    Stages that are not contained in stageThreads get defaultThreads threads.
+     */
+    public QueryShapeFrequencyCounter withStageThreads(int defaultThreads, Map<String, Integer> stageThreads) {
+        this.defaultStageThreads = defaultThreads;
+        this.stageThreads = stageThreads;
+        return this;
+    }
+
+    /*
+    Splits a number of threads across the pipeline stages. The extract, preprocess and aggregate stages only move and count the
+    queries, so they get one thread each; the CPU-bound parse, build-graphs and extract-shapes stages share the rest (at least
+    one thread each). With auto tuning, threads are moved from there to whichever stage turns out to be the bottleneck.
+     */
+    public static Map<String, Integer> splitStageThreads(int threads) {
+        int cpuBoundThreads = Math.max(3, threads - 3);
+        return Map.of(
+                "extract", 1,
+                "preprocess", 1,
+                "parse", cpuBoundThreads / 3 + (cpuBoundThreads % 3 > 0 ? 1 : 0),
+                "build-graphs", cpuBoundThreads / 3 + (cpuBoundThreads % 3 > 1 ? 1 : 0),
+                "extract-shapes", cpuBoundThreads / 3,
+                "aggregate", 1);
+    }
+
+    /*
+    The threads of the lane for expensive queries out of a budget of threads for one analysis.
+     */
+    public static int defaultHeavyLaneThreads(int threads) {
+        return Math.max(1, threads / 8);
+    }
+
+    /*
+    Moves threads between the pipeline stages while the analysis runs, towards whichever stage is the bottleneck.
+     */
+    public QueryShapeFrequencyCounter withAutoTuning(boolean autoTuning) {
+        this.autoTuning = autoTuning;
+        return this;
+    }
+
+    /*
+    Queries with an estimated cost (see QueryCostEstimator) of at least heavyQueryCost are not processed by the main pipeline,
+    but by a separate lane with heavyLaneThreads threads. While the heavy lane is full, they stay in the main pipeline. They are
+    counted as HEAVY_QUERIES either way, so the count does not depend on the timing of the threads.
+     */
+    public QueryShapeFrequencyCounter withHeavyLane(int heavyLaneThreads, int heavyQueryCost) {
+        this.heavyLaneThreads = heavyLaneThreads;
+        this.heavyQueryCost = heavyQueryCost;
+        return this;
+    }
+
+    /*
+    Gives up on a query (counted as EXPANSION_LIMIT) once the graph building has created more than maxCombinations
+    combinations of alternative triple collections or has taken longer than maxWalkMillis (0 does not limit the time).
+     */
+    public QueryShapeFrequencyCounter withExpansionBudget(long maxCombinations, long maxWalkMillis) {
+        this.graphBuilder = new GraphBuilder(new TriplesElementWalkerFactory(new UUIDGenerator(), maxCombinations, maxWalkMillis));
+        return this;
+    }
+
+    /*
+    Remembers the results of up to maxEntries distinct query strings, so that repeated queries skip parsing and graph building.
+    A maxEntries of 0 disables the cache.
+     */
+    public QueryShapeFrequencyCounter withQueryResultCache(int maxEntries) {
+        this.queryResultCache = maxEntries > 0 ? new QueryResultCache(maxEntries) : null;
+        return this;
+    }
+
+    /*
+    Analyzes the template of each query (see QueryTemplateNormalizer) instead of the query itself, so that the queries of one
+    template share their cached result.
+     */
+    public QueryShapeFrequencyCounter withTemplateNormalization(boolean templateNormalization) {
+        this.templateNormalization = templateNormalization;
+        return this;
+    }
+
+    /*
+    Tries the FastQueryParser before parsing a query with Apache Jena ARQ (enabled by default).
+     */
+    public QueryShapeFrequencyCounter withFastParsing(boolean fastParsing) {
+        this.fastParsing = fastParsing;
+        return this;
+    }
+
+    /*
+    Counts only the approximately most frequent query shapes in a HeavyHitterTable with the given number of counters, instead of
+    counting every distinct query shape exactly, so that the memory of the counts does not grow with the size of the logs.
+    The query shape file then lists the error bound of each count, and the meta-information the largest count that a query
+    shape without a counter may have had. A capacity of 0 counts all query shapes exactly (the default).
+     */
+    public QueryShapeFrequencyCounter withHeavyHitters(int capacity) {
+        this.heavyHitters = capacity > 0 ? new HeavyHitterTable(capacity) : null;
+        return this;
+    }
+
+    /*
+    Counts the query shapes exactly, but keeps at most maxShapesInMemory distinct query shapes in memory and spills the others
+    to sorted runs in the directory "<outFile>.spill" (see SpillingQueryShapeTable). A maxShapesInMemory of 0 keeps all query
+    shapes in memory (the default). Heavy hitters take precedence over spilling.
+     */
+    public QueryShapeFrequencyCounter withSpilling(long maxShapesInMemory) {
+        this.spillingFrequencies = maxShapesInMemory > 0 ? new SpillingQueryShapeTable(Paths.get(outFile + ".spill"), maxShapesInMemory) : null;
+        return this;
+    }
+
+    /*
+    Additionally writes the exact results to a ResultFile "<outFile>.result", which can be merged with the results of other
+    analyses (see ResultMerger). Heavy hitters are never written to a result file.
+     */
+    public QueryShapeFrequencyCounter withResultFile(boolean writingResultFile) {
+        this.writingResultFile = writingResultFile;
+        return this;
+    }
+
+    /*
+    Writes a checkpoint to the given file after every checkpointInterval batches and at the end of the analysis.
+    The log position supplier must return the position after the last batch taken from the log batch iterator.
+     */
+    public QueryShapeFrequencyCounter withCheckpoints(Path checkpointFile, int checkpointInterval, Supplier<LogPosition> logPosition) {
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = checkpointInterval;
+        this.logPosition = logPosition;
+        return this;
+    }
+
+    /*
+    Continues counting from the state of a checkpoint. The log batches must continue at the log position of the checkpoint and
+    the predicate map must contain the predicate mappings of the checkpoint. A checkpoint with approximate counts can only be
+    continued with heavy hitters, one with spilled runs only with spilling.
+     */
+    public QueryShapeFrequencyCounter resumeFrom(Checkpoint checkpoint) {
+        var checkpointHeavyHitters = checkpoint.getHeavyHitterCounts();
+        if (checkpointHeavyHitters.isPresent() && heavyHitters == null) {
+            throw new IllegalStateException("The checkpoint only has approximate query shape counts, it must be resumed with heavy hitters");
+        }
+        if (!checkpoint.getSpilledRuns().isEmpty() && (spillingFrequencies == null || heavyHitters != null)) {
+            throw new IllegalStateException("The checkpoint has spilled query shape counts, it must be resumed with spilling");
+        }
+
+        metaInformationCounters.addAll(checkpoint.getMetaInformationCounts());
+        metaInformationCounters.addFeatureCombinations(checkpoint.getFeatureCombinationCounts());
+        if (!checkpoint.getSpilledRuns().isEmpty()) {
+            spillingFrequencies.resumeRuns(checkpoint.getSpilledRuns());
+        }
+        checkpoint.getQueryShapeCounts().forEach(this::countShape);
+        checkpointHeavyHitters.ifPresent(counts -> counts.forEach(heavyHitters::add));
+        return this;
+    }
+
     public void startAnalysis() throws IOException {
         ZonedDateTime start = ZonedDateTime.now();
-        final ConcurrentHashMap<String, LongAdder> totalFrequencies = new ConcurrentHashMap<>();
-
-        while (logBatches.hasNext()) {
-            var batch = logBatches.next();
-            Collections.shuffle(batch);
-
-            batch.parallelStream()
-                    .peek(line -> metaInformationCounters.computeIfAbsent("TOTAL_LINES", k -> new LongAdder()).increment())
-                    .flatMap(line -> preprocessor.extractQueryString(line).stream())
-                    .peek(line -> metaInformationCounters.computeIfAbsent("TOTAL_QUERIES", k -> new LongAdder()).increment())
-                    .map(preprocessor::preprocessQueryString)
-                    .flatMap(queryString -> QueryParser.parseQuery(queryString).stream())
-                    .peek(query -> metaInformationCounters.computeIfAbsent("VALID_QUERIES", k -> new LongAdder()).increment())
-                    .map(queryGraph -> graphBuilder.constructGraphsFromQuery(queryGraph, predicateMap))
-                    .map(graphBuildingResult -> {
-                        graphBuildingResult.getEncounteredFeatures()
-                                .forEach(featureKey -> metaInformationCounters.computeIfAbsent(featureKey, k -> new LongAdder()).increment());
-
-                        return extractStarShapes(graphBuildingResult.getConstructedGraphs());
-                    })
-                    .forEach(queryShapeOptional -> queryShapeOptional.ifPresent(queryShape -> totalFrequencies.computeIfAbsent(queryShape, k -> new LongAdder()).increment()));
+        int processedBatches = 0;
+
+        // Expensive queries take a separate lane with few threads, so they never occupy all workers of the main pipeline.
+        // The preprocess workers must not wait for the heavy lane, as that would stall the main pipeline, too.
+        Pipeline<QueryAnalysis> heavyLane = Pipeline.<QueryAnalysis>builder(1)
+                .sink("heavy", heavyLaneThreads, analysis -> parse(analysis, parsed -> buildGraphs(parsed, built -> extractShapes(built, this::aggregate))));
+
+        Pipeline<QueryChunk> pipeline = Pipeline.<QueryChunk>builder(PIPELINE_CHUNK_SIZE)
+                .then("extract", threads("extract"), QueryChunk::extract)
+                .then("preprocess", threads("preprocess"), (QueryAnalysis analysis, Consumer<QueryAnalysis> emitter) -> {
+                    var preprocessedQueryString = preprocessor.preprocessQueryString(analysis.queryString);
+                    analysis.queryString = templateNormalization ? QueryTemplateNormalizer.normalize(preprocessedQueryString, defaultPrefixes) : preprocessedQueryString;
+                    if (queryResultCache != null) {
+                        analysis.cacheKey = QueryResultCache.keyFor(analysis.queryString);
+                        var cachedResult = queryResultCache.get(analysis.cacheKey);
+                        if (cachedResult != null) {
+                            countCachedResult(cachedResult, analysis.count);
+                            return;
+                        }
+                    }
+
+                    analysis.heavy = QueryCostEstimator.estimateCost(analysis.queryString) >= heavyQueryCost;
+                    if (analysis.heavy) {
+                        metaInformationCounters.add(Counter.HEAVY_QUERIES, analysis.count);
+                        if (heavyLane.offer(analysis)) {
+                            heavyLaneQueries.increment();
+                            return;
+                        }
+                    }
+                    emitter.accept(analysis);
+                })
+                .then("parse", threads("parse"), this::parse)
+                .then("build-graphs", threads("build-graphs"), this::buildGraphs)
+                .then("extract-shapes", threads("extract-shapes"), this::extractShapes)
+                .sink("aggregate", threads("aggregate"), this::aggregate);
+
+        var tuner = autoTuning ? Optional.of(pipeline.startTuner(TUNING_INTERVAL_MILLIS)) : Optional.<PipelineTuner>empty();
+
+        while (queryChunks.hasNext()) {
+            queryChunks.next().forEach(pipeline::submit);
+            processedBatches++;
+
+            if (checkpointFile != null && processedBatches % checkpointInterval == 0) {
+                pipeline.awaitQuiescence();
+                heavyLane.awaitQuiescence();
+                writeCheckpoint();
+            }
 
             Duration executionDuration = Duration.between(start, ZonedDateTime.now());
-            System.out.println("Batch complete!");
+            System.out.println("Batch submitted!");
             System.out.println("Total duration: " + executionDuration.toString());
             System.out.println();
         }
 
-        var sortedTotalFrequencies = totalFrequencies.entrySet().stream()
-                .map(e -> Map.entry(e.getKey(), e.getValue().sum()))
-                .sorted(Comparator.comparing(Map.Entry::getValue, Comparator.reverseOrder()))
-                .collect(Collectors.toList());
+        pipeline.finish();
+        heavyLane.finish();
+        tuner.ifPresent(PipelineTuner::close);
 
         System.out.println("PredicateMap size: " + predicateMap.size());
+        // Unlike HEAVY_QUERIES, this depends on how busy the heavy lane was
+        System.out.println("Queries processed in the heavy lane: " + heavyLaneQueries.sum());
+
+        if (checkpointFile != null) {
+            writeCheckpoint();
+        }
+
+        writeResults();
+    }
+
+    private int threads(String stage) {
+        return stageThreads.getOrDefault(stage, defaultStageThreads);
+    }
+
+    private List<QueryChunk> lineRanges(LogBatch batch) {
+        var remainingRanges = new AtomicInteger((batch.size() + LINE_RANGE_SIZE - 1) / LINE_RANGE_SIZE);
+        var lineRanges = new ArrayList<QueryChunk>(remainingRanges.get());
+        for (int from = 0; from < batch.size(); from += LINE_RANGE_SIZE) {
+            lineRanges.add(new LineRange(batch, from, Math.min(from + LINE_RANGE_SIZE, batch.size()), remainingRanges));
+        }
+        return lineRanges;
+    }
+
+    private List<QueryChunk> corpusChunks(QueryCorpus.Batch batch) {
+        // Lines without a query only have to be counted once, the last batch of a corpus carries them
+        metaInformationCounters.add(Counter.TOTAL_LINES, batch.getLinesWithoutQuery());
+        var corpusChunks = new ArrayList<QueryChunk>();
+        for (int from = 0; from < batch.size(); from += LINE_RANGE_SIZE) {
+            corpusChunks.add(new CorpusChunk(batch, from, Math.min(from + LINE_RANGE_SIZE, batch.size())));
+        }
+        return corpusChunks;
+    }
+
+    private static <T> Iterator<List<QueryChunk>> chunks(Iterator<T> batches, Function<T, List<QueryChunk>> toChunks) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return batches.hasNext();
+            }
+
+            @Override
+            public List<QueryChunk> next() {
+                return toChunks.apply(batches.next());
+            }
+        };
+    }
+
+    private void parse(QueryAnalysis analysis, Consumer<QueryAnalysis> emitter) {
+        // The fast path only accepts queries that Jena accepts as well
+        var queryPattern = fastParsing ? FastQueryParser.parseQueryPattern(analysis.queryString, defaultPrefixes) : Optional.<Element>empty();
+        if (queryPattern.isPresent()) {
+            metaInformationCounters.add(Counter.FAST_PARSED_QUERIES, analysis.count);
+            metaInformationCounters.add(Counter.VALID_QUERIES, analysis.count);
+            analysis.fastParsed = true;
+            analysis.queryPattern = queryPattern.get();
+            emitter.accept(analysis);
+            return;
+        }
+
+        var query = QueryParser.parseQuery(analysis.queryString, defaultPrefixes);
+        if (query.isPresent()) {
+            metaInformationCounters.add(Counter.VALID_QUERIES, analysis.count);
+            analysis.queryPattern = query.get().getQueryPattern();
+            emitter.accept(analysis);
+        } else if (queryResultCache != null) {
+            queryResultCache.put(analysis.cacheKey, new QueryResultCache.Result(false, false, analysis.heavy, 0, null));
+        }
+    }
+
+    private void buildGraphs(QueryAnalysis analysis, Consumer<QueryAnalysis> emitter) {
+        analysis.graphBuildingResult = graphBuilder.constructGraphsFromPattern(analysis.queryPattern, predicateMap);
+        analysis.queryPattern = null;
+        emitter.accept(analysis);
+    }
+
+    private void extractShapes(QueryAnalysis analysis, Consumer<QueryAnalysis> emitter) {
+        var graphBuildingResult = analysis.graphBuildingResult;
+        metaInformationCounters.addFeatures(graphBuildingResult.getFeatureMask(), analysis.count);
+
+        analysis.queryShape = graphBuildingResult.getStarShapes().map(RequiredPartitionsExtractor::encodeStarShapes).orElse(null);
+        analysis.graphBuildingResult = null;
+        // A result that ran out of time is not cached, a repeat of the query may well finish in time
+        if (queryResultCache != null && !graphBuildingResult.isTimeLimited()) {
+            queryResultCache.put(analysis.cacheKey, new QueryResultCache.Result(true, analysis.fastParsed, analysis.heavy, graphBuildingResult.getFeatureMask(), analysis.queryShape));
+        }
+        if (analysis.queryShape != null) {
+            emitter.accept(analysis);
+        }
+    }
+
+    // Counts a repeated query exactly like preprocess, parse, extractShapes and aggregate counted it the first time
+    private void countCachedResult(QueryResultCache.Result cachedResult, long count) {
+        if (cachedResult.isHeavy()) {
+            metaInformationCounters.add(Counter.HEAVY_QUERIES, count);
+        }
+        if (!cachedResult.isValid()) {
+            return;
+        }
+        metaInformationCounters.add(Counter.VALID_QUERIES, count);
+        if (cachedResult.isFastParsed()) {
+            metaInformationCounters.add(Counter.FAST_PARSED_QUERIES, count);
+        }
+        metaInformationCounters.addFeatures(cachedResult.getEncounteredFeatures(), count);
+        if (cachedResult.getQueryShape() != null) {
+            countShape(cachedResult.getQueryShape(), count);
+        }
+    }
 
-        writeResults(sortedTotalFrequencies);
+    private void aggregate(QueryAnalysis analysis) {
+        countShape(analysis.queryShape, analysis.count);
     }
 
-    private void writeResults(List<Map.Entry<String, Long>> sortedTotalFrequencies) throws IOException {
+    private void countShape(byte[] queryShape, long count) {
+        if (heavyHitters != null) {
+            heavyHitters.add(queryShape, count);
+        } else if (spillingFrequencies != null) {
+            spillingFrequencies.add(queryShape, count);
+        } else {
+            totalFrequencies.add(queryShape, count);
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        // The runs stay as they are, so with all counts spilled to runs, the checkpoint only needs their names
+        var spilledRuns = List.<String>of();
+        if (spillingFrequencies != null && heavyHitters == null) {
+            spillingFrequencies.spill();
+            spilledRuns = spillingFrequencies.getRuns();
+        }
+        new Checkpoint(logPosition.get(), metaInformationCounters.sum(), metaInformationCounters.sumFeatureCombinations(), totalFrequencies,
+                heavyHitters, spilledRuns, new HashMap<>(predicateMap.getPredicateMap()))
+                .write(checkpointFile);
+        System.out.println("Checkpoint written to " + checkpointFile.toString());
+    }
+
+    // The query shapes are only rendered as strings here, once per distinct shape
+    private void writeResults() throws IOException {
+        var metaInformationCounts = metaInformationCounters.sum();
+        var featureCombinationCounts = metaInformationCounters.sumFeatureCombinations();
+
         try (var fileWriter = new FileWriter(outFile + "_meta.tsv")) {
-            for (var entry : metaInformationCounters.entrySet()) {
-                fileWriter.write(entry.getKey() + "\t" + entry.getValue().sum() + "\n");
+            for (var entry : metaInformationCounts.entrySet()) {
+                fileWriter.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+            }
+            if (heavyHitters != null) {
+                fileWriter.write("UNMONITORED_SHAPES_MAX_COUNT\t" + heavyHitters.getUnmonitoredCountBound() + "\n");
+            }
+            // The cache statistics only cover this run, they are not part of the checkpoints
+            if (queryResultCache != null) {
+                fileWriter.write("QUERY_CACHE_HITS\t" + queryResultCache.getHits() + "\n");
+                fileWriter.write("QUERY_CACHE_MISSES\t" + queryResultCache.getMisses() + "\n");
+                fileWriter.write("QUERY_CACHE_EVICTIONS\t" + queryResultCache.getEvictions() + "\n");
+            }
+        }
+
+        writeFeatureCombinations(outFile, featureCombinationCounts);
+
+        if (heavyHitters != null) {
+            writeHeavyHitters();
+            return;
+        }
+
+        // Heavy hitters are approximate, so only exact counts are written to a result file that can be merged
+        try (var resultWriter = writingResultFile ? ResultFile.writer(ResultFile.resultPathFor(outFile), metaInformationCounts, featureCombinationCounts, predicateMap.getPredicateMap()) : null) {
+            if (spillingFrequencies != null) {
+                writeQueryShapes(outFile, spillingFrequencies::forEachByCountDescending, resultWriter);
+                // The runs are still needed by the last checkpoint, if there is one
+                if (checkpointFile == null) {
+                    spillingFrequencies.deleteRuns();
+                }
+            } else {
+                writeQueryShapes(outFile, consumer -> forEachByCountDescending(totalFrequencies, consumer), resultWriter);
+            }
+            if (resultWriter != null) {
+                resultWriter.finish();
+            }
+        }
+    }
+
+    static void writeFeatureCombinations(String outFile, LongCountMap featureCombinationCounts) throws IOException {
+        var sortedFeatureCombinations = new ArrayList<Map.Entry<Long, Long>>();
+        featureCombinationCounts.forEach((featureMask, count) -> sortedFeatureCombinations.add(Map.entry(featureMask, count)));
+        sortedFeatureCombinations.sort(Comparator.comparing(Map.Entry::getValue, Comparator.reverseOrder()));
+
+        try (var fileWriter = new FileWriter(outFile + "_features.tsv")) {
+            fileWriter.write("features\tcount\n");
+            for (var entry : sortedFeatureCombinations) {
+                fileWriter.write(FeatureMask.format(entry.getKey()) + "\t" + entry.getValue() + "\n");
             }
         }
+    }
 
+    /*
+    Writes the exact query shape counts, the most frequent first, and adds them to the result file writer unless it is null.
+     */
+    static void writeQueryShapes(String outFile, SortedQueryShapes queryShapes, ResultFile.Writer resultWriter) throws IOException {
         try (var fileWriter = new FileWriter(outFile + ".tsv")) {
             fileWriter.write("query_shape\tcount\n");
-            sortedTotalFrequencies.forEach(entry -> {
-                try {
-                    fileWriter.write(entry.getKey() + "\t" + entry.getValue() + "\n");
-                } catch (IOException e) {
-                    e.printStackTrace();
+            queryShapes.forEachByCountDescending((queryShape, count) -> {
+                fileWriter.write(formatStarShapes(decodeStarShapes(queryShape)) + "\t" + count + "\n");
+                if (resultWriter != null) {
+                    resultWriter.addShape(queryShape, count);
                 }
             });
         }
     }
+
+    static void forEachByCountDescending(QueryShapeTable queryShapes, SortedShapeCountConsumer consumer) throws IOException {
+        var sortedQueryShapes = new ArrayList<Map.Entry<byte[], Long>>();
+        queryShapes.forEach((queryShape, count) -> sortedQueryShapes.add(Map.entry(queryShape, count)));
+        sortedQueryShapes.sort(Comparator.comparing(Map.Entry::getValue, Comparator.reverseOrder()));
+        for (var entry : sortedQueryShapes) {
+            consumer.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    interface SortedQueryShapes {
+        void forEachByCountDescending(SortedShapeCountConsumer consumer) throws IOException;
+    }
+
+    // The true count of a query shape is between count - error and count
+    private void writeHeavyHitters() throws IOException {
+        var sortedHeavyHitters = new ArrayList<Map.Entry<byte[], long[]>>();
+        heavyHitters.forEach((queryShape, count, error) -> sortedHeavyHitters.add(Map.entry(queryShape, new long[]{count, error})));
+        sortedHeavyHitters.sort(Comparator.comparingLong((Map.Entry<byte[], long[]> entry) -> entry.getValue()[0]).reversed());
+
+        try (var fileWriter = new FileWriter(outFile + ".tsv")) {
+            fileWriter.write("query_shape\tcount\terror\n");
+            for (var entry : sortedHeavyHitters) {
+                fileWriter.write(formatStarShapes(decodeStarShapes(entry.getKey())) + "\t" + entry.getValue()[0] + "\t" + entry.getValue()[1] + "\n");
+            }
+        }
+    }
+
+    /*
+    A query on its way through the pipeline stages, which fill in the results step by step.
+     */
+    private static class QueryAnalysis {
+        private final long count;
+        private String queryString;
+        private long cacheKey;
+        private boolean heavy;
+        private boolean fastParsed;
+        private Element queryPattern;
+        private GraphBuildingResult graphBuildingResult;
+        private byte[] queryShape;
+
+        private QueryAnalysis(String queryString, long count) {
+            this.queryString = queryString;
+            this.count = count;
+        }
+    }
+
+    /*
+    The unit of work of the extract stage, which emits the queries of a part of the input.
+     */
+    private interface QueryChunk {
+        void extract(Consumer<QueryAnalysis> emitter);
+    }
+
+    private class LineRange implements QueryChunk {
+        private final LogBatch batch;
+        private final int from;
+        private final int to;
+        private final AtomicInteger remainingRanges;
+
+        private LineRange(LogBatch batch, int from, int to, AtomicInteger remainingRanges) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+            this.remainingRanges = remainingRanges;
+        }
+
+        @Override
+        public void extract(Consumer<QueryAnalysis> emitter) {
+            int queries = 0;
+            for (int line = from; line < to; line++) {
+                var queryString = preprocessor.extractQueryString(batch.getBuffer(), batch.lineStart(line), batch.lineEnd(line));
+                if (queryString.isPresent()) {
+                    queries++;
+                    emitter.accept(new QueryAnalysis(queryString.get(), 1));
+                }
+            }
+            metaInformationCounters.add(Counter.TOTAL_LINES, to - from);
+            metaInformationCounters.add(Counter.TOTAL_QUERIES, queries);
+
+            // The bytes of the batch are no longer needed once all of its lines have been extracted
+            if (remainingRanges.decrementAndGet() == 0) {
+                batch.release();
+            }
+        }
+    }
+
+    private class CorpusChunk implements QueryChunk {
+        private final QueryCorpus.Batch batch;
+        private final int from;
+        private final int to;
+
+        private CorpusChunk(QueryCorpus.Batch batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void extract(Consumer<QueryAnalysis> emitter) {
+            long queries = 0;
+            for (int record = from; record < to; record++) {
+                queries += batch.getCount(record);
+                emitter.accept(new QueryAnalysis(batch.getQuery(record), batch.getCount(record)));
+            }
+            metaInformationCounters.add(Counter.TOTAL_LINES, queries);
+            metaInformationCounters.add(Counter.TOTAL_QUERIES, queries);
+        }
+    }
 }
@@ -0,0 +1,157 @@
+package at.hadl.logstatistics.analysis;
+
+import at.hadl.logstatistics.utils.MetaInformationCounters;
+import at.hadl.logstatistics.utils.PredicateMap;
+import at.hadl.logstatistics.utils.QueryShapeTable;
+import at.hadl.logstatistics.utils.RequiredPartitionsExtractor;
+import at.hadl.logstatistics.utils.ResultFile;
+import at.hadl.logstatistics.utils.SpillingQueryShapeTable;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+Merges the ResultFiles of several analyses (e.g. of the yearly or monthly logs of a dataset) into the results of one analysis
+over all of their logs, without analyzing the logs again.
+
+Every result file refers to its own predicate map, so the predicate ids of each file are remapped to the ids of one merged
+PredicateMap first. The dictionaries are merged in the order of the result files, so the ids of the first file stay the same
+(and so do those of all files that were analyzed with the same predicate map). Then the query shapes of all files are read in
+parallel, one thread per file, remapped and summed up in one QueryShapeTable (or a SpillingQueryShapeTable), together with the
+meta-information and feature combination counts. The merged results are written like those of a QueryShapeFrequencyCounter,
+including a result file, so merged results can be merged again.
+ */
+public class ResultMerger {
+    private final List<Path> resultFiles;
+    private final String outFile;
+    private PredicateMap predicateMap = new PredicateMap();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long maxShapesInMemory = 0;
+
+    public ResultMerger(List<Path> resultFiles, String outFile) {
+        this.resultFiles = resultFiles;
+        this.outFile = outFile;
+    }
+
+    /*
+    The predicate map to remap the predicate ids to, e.g. an existing predicate map whose ids should be kept.
+     */
+    public ResultMerger withPredicateMap(PredicateMap predicateMap) {
+        this.predicateMap = predicateMap;
+        return this;
+    }
+
+    public ResultMerger withThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /*
+    Keeps at most maxShapesInMemory distinct query shapes in memory (see QueryShapeFrequencyCounter.withSpilling).
+     */
+    public ResultMerger withSpilling(long maxShapesInMemory) {
+        this.maxShapesInMemory = maxShapesInMemory;
+        return this;
+    }
+
+    public PredicateMap getPredicateMap() {
+        return predicateMap;
+    }
+
+    public void merge() throws IOException {
+        var metaInformationCounters = new MetaInformationCounters();
+        var queryShapes = new QueryShapeTable();
+        var spillingQueryShapes = maxShapesInMemory > 0 ? new SpillingQueryShapeTable(Paths.get(outFile + ".spill"), maxShapesInMemory) : null;
+
+        var readers = new ArrayList<ResultFile.Reader>();
+        var pool = Executors.newFixedThreadPool(threads);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (var resultFile : resultFiles) {
+                var reader = ResultFile.reader(resultFile);
+                readers.add(reader);
+                var predicateIds = remapPredicates(reader.getPredicateMap());
+
+                futures.add(pool.submit(() -> {
+                    metaInformationCounters.addAll(reader.getMetaInformationCounts());
+                    metaInformationCounters.addFeatureCombinations(reader.getFeatureCombinationCounts());
+                    reader.forEachShape((queryShape, count) -> {
+                        var remappedQueryShape = predicateIds != null ? remapQueryShape(queryShape, predicateIds) : queryShape;
+                        if (spillingQueryShapes != null) {
+                            spillingQueryShapes.add(remappedQueryShape, count);
+                        } else {
+                            queryShapes.add(remappedQueryShape, count);
+                        }
+                    });
+                    System.out.println("Merged " + resultFile.toString());
+                    return null;
+                }));
+            }
+
+            for (var future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Could not merge the result files: ", e);
+        } finally {
+            pool.shutdownNow();
+            for (var reader : readers) {
+                reader.close();
+            }
+        }
+
+        var metaInformationCounts = metaInformationCounters.sum();
+        var featureCombinationCounts = metaInformationCounters.sumFeatureCombinations();
+        try (var fileWriter = new FileWriter(outFile + "_meta.tsv")) {
+            for (var entry : metaInformationCounts.entrySet()) {
+                fileWriter.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+            }
+        }
+        QueryShapeFrequencyCounter.writeFeatureCombinations(outFile, featureCombinationCounts);
+
+        try (var resultWriter = ResultFile.writer(ResultFile.resultPathFor(outFile), metaInformationCounts, featureCombinationCounts, predicateMap.getPredicateMap())) {
+            if (spillingQueryShapes != null) {
+                QueryShapeFrequencyCounter.writeQueryShapes(outFile, spillingQueryShapes::forEachByCountDescending, resultWriter);
+                spillingQueryShapes.deleteRuns();
+            } else {
+                QueryShapeFrequencyCounter.writeQueryShapes(outFile, consumer -> QueryShapeFrequencyCounter.forEachByCountDescending(queryShapes, consumer), resultWriter);
+            }
+            resultWriter.finish();
+        }
+    }
+
+    // The merged id of every predicate id of a result file, or null if all ids stay the same
+    private int[] remapPredicates(Map<String, Integer> resultPredicateMap) {
+        var sortedPredicates = new ArrayList<>(resultPredicateMap.entrySet());
+        sortedPredicates.sort(Map.Entry.comparingByValue());
+
+        var predicateIds = new int[sortedPredicates.isEmpty() ? 1 : sortedPredicates.get(sortedPredicates.size() - 1).getValue() + 1];
+        boolean unchanged = true;
+        for (var predicate : sortedPredicates) {
+            predicateIds[predicate.getValue()] = predicateMap.getIntForPredicate(predicate.getKey());
+            unchanged &= predicateIds[predicate.getValue()] == predicate.getValue();
+        }
+        return unchanged ? null : predicateIds;
+    }
+
+    // The predicate ids of a star shape are sorted, which the remapped ids need to be again
+    private static byte[] remapQueryShape(byte[] queryShape, int[] predicateIds) {
+        var starShapes = RequiredPartitionsExtractor.decodeStarShapes(queryShape);
+        for (var starShape : starShapes) {
+            for (int i = 0; i < starShape.length; i++) {
+                starShape[i] = predicateIds[starShape[i]];
+            }
+            Arrays.sort(starShape);
+        }
+        return RequiredPartitionsExtractor.encodeStarShapes(starShapes);
+    }
+}
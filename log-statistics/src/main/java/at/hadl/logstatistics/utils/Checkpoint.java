@@ -0,0 +1,180 @@
+package at.hadl.logstatistics.utils;
+
+import at.hadl.logstatistics.utils.io.LogPosition;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+The intermediate state of a QueryShapeFrequencyCounter run: how far the logs have been read, the query shape and meta-information
+counts up to this point (the query shapes by their binary keys, the feature combinations by their FeatureMasks, the approximate
+query shape counts if the counter only counts heavy hitters, and the names of the runs if the counter spills them to disk), and
+a snapshot of the predicate map that the query shapes refer to.
+The query shape counts are written directly from the table of the counter, so no counts may be added while a checkpoint is written.
+
+Checkpoints are stored as GZIP-compressed binary files. A new checkpoint is first written to a temporary file and then moved over
+the old one, so a crash during writing never destroys the last consistent checkpoint.
+ */
+public class Checkpoint {
+	private static final int MAGIC = 0x4c534350;
+	private static final int VERSION = 5;
+
+	private final LogPosition logPosition;
+	private final Map<String, Long> metaInformationCounts;
+	private final LongCountMap featureCombinationCounts;
+	private final QueryShapeTable queryShapeCounts;
+	private final HeavyHitterTable heavyHitterCounts;
+	private final List<String> spilledRuns;
+	private final Map<String, Integer> predicateMap;
+
+	public Checkpoint(LogPosition logPosition, Map<String, Long> metaInformationCounts, LongCountMap featureCombinationCounts, QueryShapeTable queryShapeCounts,
+			HeavyHitterTable heavyHitterCounts, List<String> spilledRuns, Map<String, Integer> predicateMap) {
+		this.logPosition = logPosition;
+		this.metaInformationCounts = metaInformationCounts;
+		this.featureCombinationCounts = featureCombinationCounts;
+		this.queryShapeCounts = queryShapeCounts;
+		this.heavyHitterCounts = heavyHitterCounts;
+		this.spilledRuns = spilledRuns;
+		this.predicateMap = predicateMap;
+	}
+
+	public static Path checkpointPathFor(String outFile) {
+		return Paths.get(outFile + ".checkpoint");
+	}
+
+	public static Optional<Checkpoint> fromPath(Path path) {
+		if (!Files.isRegularFile(path)) {
+			return Optional.empty();
+		}
+
+		try (var input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path), 65536)))) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException("Not a checkpoint file of a supported version");
+			}
+
+			var logPosition = LogPosition.read(input);
+			var metaInformationCounts = readCounts(input);
+			var featureCombinationCounts = LongCountMap.read(input);
+			var queryShapeCounts = QueryShapeTable.read(input);
+			var heavyHitterCounts = input.readBoolean() ? HeavyHitterTable.read(input) : null;
+
+			int runs = input.readInt();
+			var spilledRuns = new ArrayList<String>(runs);
+			for (int i = 0; i < runs; i++) {
+				spilledRuns.add(readString(input));
+			}
+
+			int predicates = input.readInt();
+			var predicateMap = new HashMap<String, Integer>(predicates * 2);
+			for (int i = 0; i < predicates; i++) {
+				predicateMap.put(readString(input), input.readInt());
+			}
+
+			return Optional.of(new Checkpoint(logPosition, metaInformationCounts, featureCombinationCounts, queryShapeCounts, heavyHitterCounts, spilledRuns, predicateMap));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read the checkpoint " + path.toString(), e);
+		}
+	}
+
+	public void write(Path path) throws IOException {
+		var tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+
+		try (var output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tempFile), 65536)))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			logPosition.write(output);
+			writeCounts(output, metaInformationCounts);
+			featureCombinationCounts.write(output);
+			queryShapeCounts.write(output);
+			output.writeBoolean(heavyHitterCounts != null);
+			if (heavyHitterCounts != null) {
+				heavyHitterCounts.write(output);
+			}
+
+			output.writeInt(spilledRuns.size());
+			for (var run : spilledRuns) {
+				writeString(output, run);
+			}
+
+			output.writeInt(predicateMap.size());
+			for (var entry : predicateMap.entrySet()) {
+				writeString(output, entry.getKey());
+				output.writeInt(entry.getValue());
+			}
+		}
+
+		Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static Map<String, Long> readCounts(DataInput input) throws IOException {
+		int entries = input.readInt();
+		var counts = new HashMap<String, Long>(entries * 2);
+		for (int i = 0; i < entries; i++) {
+			counts.put(readString(input), input.readLong());
+		}
+		return counts;
+	}
+
+	static void writeCounts(DataOutput output, Map<String, Long> counts) throws IOException {
+		output.writeInt(counts.size());
+		for (var entry : counts.entrySet()) {
+			writeString(output, entry.getKey());
+			output.writeLong(entry.getValue());
+		}
+	}
+
+	// DataOutput.writeUTF is limited to 64 KB, which is not enough for the shapes of very large queries
+	static String readString(DataInput input) throws IOException {
+		var bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeString(DataOutput output, String value) throws IOException {
+		var bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	public LogPosition getLogPosition() {
+		return logPosition;
+	}
+
+	public Map<String, Long> getMetaInformationCounts() {
+		return metaInformationCounts;
+	}
+
+	public LongCountMap getFeatureCombinationCounts() {
+		return featureCombinationCounts;
+	}
+
+	public QueryShapeTable getQueryShapeCounts() {
+		return queryShapeCounts;
+	}
+
+	public Optional<HeavyHitterTable> getHeavyHitterCounts() {
+		return Optional.ofNullable(heavyHitterCounts);
+	}
+
+	/*
+	The names of the runs in the spill directory that hold the query shape counts besides getQueryShapeCounts.
+	 */
+	public List<String> getSpilledRuns() {
+		return spilledRuns;
+	}
+
+	public Map<String, Integer> getPredicateMap() {
+		return predicateMap;
+	}
+}
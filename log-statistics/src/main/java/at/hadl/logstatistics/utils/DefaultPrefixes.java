@@ -0,0 +1,103 @@
+package at.hadl.logstatistics.utils;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.shared.impl.PrefixMappingImpl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+The prefixes that every query of a log may use without declaring them (e.g. the prefixes that the DBpedia or Wikidata endpoint
+predefines). They are loaded once and consulted by the parsers whenever a query uses a prefix that it does not declare itself,
+so the query strings stay as they are instead of being prepended with a PREFIX declaration for every default prefix.
+Like with prepended declarations, a prefix that a query declares itself takes precedence over the default prefix.
+
+A mapping file has one prefix per line, separated from its namespace by a tab or by "=".
+ */
+public class DefaultPrefixes {
+	public static final DefaultPrefixes NONE = new DefaultPrefixes(Map.of());
+
+	private static final Map<String, String> RESOURCES = Map.of(
+			"reduced", "prefix-mappings-reduced.txt",
+			"dbpedia", "dbpedia-prefix-mappings.txt",
+			"wikidata", "wikidata-prefix-mappings.txt");
+
+	private final Map<String, String> namespaces;
+
+	private DefaultPrefixes(Map<String, String> namespaces) {
+		this.namespaces = namespaces;
+	}
+
+	/*
+	The default prefixes "none", "reduced" (the reduced DBpedia prefixes), "dbpedia" (all DBpedia prefixes), "wikidata"
+	(the prefixes of the Wikidata Query Service), or the prefixes of the given mapping file.
+	 */
+	public static DefaultPrefixes named(String name) {
+		try {
+			if (name.equals("none")) {
+				return NONE;
+			} else if (RESOURCES.containsKey(name)) {
+				try (var mappings = ClassLoader.getSystemResourceAsStream(RESOURCES.get(name))) {
+					return fromStream(mappings);
+				}
+			} else {
+				try (var mappings = Files.newInputStream(Paths.get(name))) {
+					return fromStream(mappings);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not load the default prefixes " + name, e);
+		}
+	}
+
+	private static DefaultPrefixes fromStream(InputStream mappings) throws IOException {
+		var namespaces = new HashMap<String, String>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(mappings, StandardCharsets.UTF_8))) {
+			reader.lines()
+					.filter(line -> !line.isBlank())
+					.forEach(line -> {
+						int separator = line.indexOf('\t');
+						if (separator < 0) {
+							separator = line.indexOf('=');
+						}
+						namespaces.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+					});
+		}
+		return new DefaultPrefixes(Map.copyOf(namespaces));
+	}
+
+	/*
+	The namespace of a default prefix, or null if there is no such default prefix.
+	 */
+	public String getNamespace(String prefix) {
+		return namespaces.get(prefix);
+	}
+
+	public int size() {
+		return namespaces.size();
+	}
+
+	/*
+	An empty query for Jena's parser to parse into, whose prologue resolves the default prefixes.
+	 */
+	public Query newQuery() {
+		var query = new Query();
+		if (!namespaces.isEmpty()) {
+			query.setPrefixMapping(new PrefixMappingImpl() {
+				@Override
+				public String getNsPrefixURI(String prefix) {
+					var namespace = super.getNsPrefixURI(prefix);
+					return namespace != null ? namespace : namespaces.get(prefix);
+				}
+			});
+		}
+		return query;
+	}
+}
@@ -0,0 +1,856 @@
+package at.hadl.logstatistics.utils;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.path.*;
+import org.apache.jena.sparql.syntax.*;
+import org.apache.jena.vocabulary.RDF;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/*
+A hand-written parser for the common subset of SPARQL queries, which builds the query pattern directly instead of going through
+Apache Jena ARQ's full query parser (expression trees, prologue resolution, solution modifiers). It handles SELECT and ASK queries
+with prefix declarations, triple patterns (with ; and , and simple property paths), nested groups, OPTIONAL, UNION and FILTERs
+with plain expressions, followed by ORDER BY, LIMIT and OFFSET.
+
+The query pattern consists of the same elements (ElementGroup, ElementPathBlock, ...) that Jena's parser would build, so the
+GraphBuilder treats both alike. The expressions of FILTERs and ORDER BY are only checked, not built: a FILTER element carries
+a constant placeholder expression.
+The parser only accepts queries that Jena accepts as well. Whenever it meets anything else (sub-queries, EXISTS, blank nodes,
+BIND, VALUES, relative IRIs, ...) or anything that Jena might reject, it gives up and the query has to be parsed by Jena.
+ */
+public class FastQueryParser {
+	private static final Map<String, Integer> BUILT_IN_ARITIES = Map.ofEntries(
+			Map.entry("STR", 1), Map.entry("LANG", 1), Map.entry("LANGMATCHES", 2), Map.entry("DATATYPE", 1),
+			Map.entry("ISIRI", 1), Map.entry("ISURI", 1), Map.entry("ISBLANK", 1), Map.entry("ISLITERAL", 1),
+			Map.entry("ISNUMERIC", 1), Map.entry("CONTAINS", 2), Map.entry("STRSTARTS", 2), Map.entry("STRENDS", 2),
+			Map.entry("STRLEN", 1), Map.entry("LCASE", 1), Map.entry("UCASE", 1), Map.entry("YEAR", 1),
+			Map.entry("MONTH", 1), Map.entry("DAY", 1), Map.entry("SAMETERM", 2), Map.entry("ABS", 1));
+
+	/*
+	Returns the query pattern of the query, or an empty Optional if the query has to be parsed by Jena.
+	 */
+	public static Optional<Element> parseQueryPattern(String queryString) {
+		return parseQueryPattern(queryString, DefaultPrefixes.NONE);
+	}
+
+	/*
+	Like parseQueryPattern(String), but prefixes that the query does not declare are taken from the default prefixes.
+	 */
+	public static Optional<Element> parseQueryPattern(String queryString, DefaultPrefixes defaultPrefixes) {
+		try {
+			return Optional.of(new Parser(queryString, defaultPrefixes).parseQuery());
+		} catch (UnsupportedSyntaxException e) {
+			return Optional.empty();
+		}
+	}
+
+	private enum TokenType {IRI, PREFIXED_NAME, VARIABLE, STRING, INTEGER, DECIMAL, DOUBLE, WORD, PUNCTUATION, END}
+
+	// What the last item of a group was, to check where the dots between the items may go
+	private enum GroupItem {START, TRIPLES, DOT, NOT_TRIPLES}
+
+	private static class Parser {
+		private final String query;
+		private final DefaultPrefixes defaultPrefixes;
+		private final Map<String, String> namespaces = new HashMap<>();
+		private int position = 0;
+		private TokenType type;
+		// The IRI, the local part of a prefixed name, the variable name, the lexical form of a literal, the word or the punctuation
+		private String text;
+		private String prefix;
+		private String language;
+		private int tokenEnd;
+
+		private Parser(String query, DefaultPrefixes defaultPrefixes) {
+			this.query = query;
+			this.defaultPrefixes = defaultPrefixes;
+		}
+
+		private Element parseQuery() {
+			// Jena decodes Unicode escapes before tokenizing the query
+			if (query.contains("\\u") || query.contains("\\U")) {
+				throw new UnsupportedSyntaxException();
+			}
+			next();
+			while (isWord("PREFIX")) {
+				next();
+				if (type != TokenType.PREFIXED_NAME || !text.isEmpty()) {
+					throw new UnsupportedSyntaxException();
+				}
+				var declaredPrefix = prefix;
+				next();
+				if (type != TokenType.IRI) {
+					throw new UnsupportedSyntaxException();
+				}
+				namespaces.put(declaredPrefix, checkIri(text));
+				next();
+			}
+
+			if (isWord("SELECT")) {
+				next();
+				if (isWord("DISTINCT") || isWord("REDUCED")) {
+					next();
+				}
+				if (isPunctuation("*")) {
+					next();
+				} else if (type == TokenType.VARIABLE) {
+					while (type == TokenType.VARIABLE) {
+						next();
+					}
+				} else {
+					throw new UnsupportedSyntaxException();
+				}
+			} else if (isWord("ASK")) {
+				next();
+			} else {
+				throw new UnsupportedSyntaxException();
+			}
+
+			if (isWord("WHERE")) {
+				next();
+			}
+			expectPunctuation("{");
+			var queryPattern = parseGroup();
+			parseSolutionModifiers();
+			if (type != TokenType.END) {
+				throw new UnsupportedSyntaxException();
+			}
+			return queryPattern;
+		}
+
+		// Parses the group after its opening brace, up to and including its closing brace
+		private ElementGroup parseGroup() {
+			if (isWord("SELECT")) {
+				throw new UnsupportedSyntaxException();
+			}
+
+			var group = new ElementGroup();
+			ElementPathBlock triplesBlock = null;
+			var previous = GroupItem.START;
+			while (!isPunctuation("}")) {
+				if (isPunctuation(".")) {
+					if (previous != GroupItem.TRIPLES && previous != GroupItem.NOT_TRIPLES) {
+						throw new UnsupportedSyntaxException();
+					}
+					next();
+					previous = GroupItem.DOT;
+					continue;
+				}
+
+				if (isPunctuation("{")) {
+					next();
+					Element element = parseGroup();
+					if (isWord("UNION")) {
+						var union = new ElementUnion(element);
+						while (isWord("UNION")) {
+							next();
+							expectPunctuation("{");
+							union.addElement(parseGroup());
+						}
+						element = union;
+					}
+					group.addElement(element);
+				} else if (isWord("OPTIONAL")) {
+					next();
+					expectPunctuation("{");
+					group.addElement(new ElementOptional(parseGroup()));
+				} else if (isWord("FILTER")) {
+					next();
+					parseConstraint();
+					group.addElement(new ElementFilter(NodeValue.TRUE));
+				} else {
+					// Consecutive triples form one block, like in Jena's parser
+					if (previous == GroupItem.TRIPLES) {
+						throw new UnsupportedSyntaxException();
+					}
+					if (triplesBlock == null) {
+						triplesBlock = new ElementPathBlock();
+						group.addElement(triplesBlock);
+					}
+					parseTriples(triplesBlock);
+					previous = GroupItem.TRIPLES;
+					continue;
+				}
+				triplesBlock = null;
+				previous = GroupItem.NOT_TRIPLES;
+			}
+			next();
+			return group;
+		}
+
+		private void parseTriples(ElementPathBlock triplesBlock) {
+			var subject = parseTerm();
+			parsePredicateAndObjects(triplesBlock, subject);
+			while (isPunctuation(";")) {
+				next();
+				if (type == TokenType.VARIABLE || type == TokenType.IRI || type == TokenType.PREFIXED_NAME
+						|| isA() || isPunctuation("^") || isPunctuation("(")) {
+					parsePredicateAndObjects(triplesBlock, subject);
+				}
+			}
+		}
+
+		private void parsePredicateAndObjects(ElementPathBlock triplesBlock, Node subject) {
+			Node predicate = null;
+			Path path = null;
+			if (type == TokenType.VARIABLE) {
+				predicate = Var.alloc(text);
+				next();
+			} else {
+				path = parsePath();
+				// Jena turns a path that is a single predicate into a plain triple
+				if (path instanceof P_Link) {
+					predicate = ((P_Link) path).getNode();
+				}
+			}
+
+			addTriple(triplesBlock, subject, predicate, path, parseTerm());
+			while (isPunctuation(",")) {
+				next();
+				addTriple(triplesBlock, subject, predicate, path, parseTerm());
+			}
+		}
+
+		private static void addTriple(ElementPathBlock triplesBlock, Node subject, Node predicate, Path path, Node object) {
+			if (predicate != null) {
+				triplesBlock.addTriple(new Triple(subject, predicate, object));
+			} else {
+				triplesBlock.addTriplePath(new TriplePath(subject, path, object));
+			}
+		}
+
+		private Path parsePath() {
+			var path = parsePathSequence();
+			while (isPunctuation("|")) {
+				next();
+				path = new P_Alt(path, parsePathSequence());
+			}
+			return path;
+		}
+
+		private Path parsePathSequence() {
+			var path = parsePathElementOrInverse();
+			while (isPunctuation("/")) {
+				next();
+				path = new P_Seq(path, parsePathElementOrInverse());
+			}
+			return path;
+		}
+
+		private Path parsePathElementOrInverse() {
+			if (isPunctuation("^")) {
+				next();
+				return new P_Inverse(parsePathElement());
+			}
+			return parsePathElement();
+		}
+
+		private Path parsePathElement() {
+			Path path;
+			if (type == TokenType.IRI || type == TokenType.PREFIXED_NAME) {
+				path = new P_Link(NodeFactory.createURI(iri()));
+				next();
+			} else if (isA()) {
+				path = new P_Link(RDF.type.asNode());
+				next();
+			} else if (isPunctuation("(")) {
+				next();
+				path = parsePath();
+				expectPunctuation(")");
+			} else {
+				throw new UnsupportedSyntaxException();
+			}
+
+			if (isPunctuation("?")) {
+				next();
+				return new P_ZeroOrOne(path);
+			} else if (isPunctuation("*")) {
+				next();
+				return new P_ZeroOrMore1(path);
+			} else if (isPunctuation("+")) {
+				// For Jena, a + right before a number is the sign of the number
+				if (tokenEnd < query.length() && isDigit(query.charAt(tokenEnd))) {
+					throw new UnsupportedSyntaxException();
+				}
+				next();
+				return new P_OneOrMore1(path);
+			}
+			return path;
+		}
+
+		private Node parseTerm() {
+			Node node;
+			switch (type) {
+				case VARIABLE:
+					node = Var.alloc(text);
+					break;
+				case IRI:
+				case PREFIXED_NAME:
+					node = NodeFactory.createURI(iri());
+					break;
+				case STRING:
+					node = language != null ? NodeFactory.createLiteral(text, language) : NodeFactory.createLiteral(text);
+					break;
+				case INTEGER:
+				case DECIMAL:
+				case DOUBLE:
+					node = NodeFactory.createLiteral(text, numberDatatype());
+					break;
+				case WORD:
+					if (!text.equals("true") && !text.equals("false")) {
+						throw new UnsupportedSyntaxException();
+					}
+					node = NodeFactory.createLiteral(text, XSDDatatype.XSDboolean);
+					break;
+				case PUNCTUATION:
+					// A sign is only part of a number that follows it immediately
+					if (!isPunctuation("+") && !isPunctuation("-")) {
+						throw new UnsupportedSyntaxException();
+					}
+					var sign = text;
+					int signEnd = tokenEnd;
+					next();
+					if (type != TokenType.INTEGER && type != TokenType.DECIMAL && type != TokenType.DOUBLE || tokenEnd - text.length() != signEnd) {
+						throw new UnsupportedSyntaxException();
+					}
+					node = NodeFactory.createLiteral(sign + text, numberDatatype());
+					break;
+				default:
+					throw new UnsupportedSyntaxException();
+			}
+			next();
+			if (isPunctuation("^^")) {
+				throw new UnsupportedSyntaxException();
+			}
+			return node;
+		}
+
+		private XSDDatatype numberDatatype() {
+			return type == TokenType.INTEGER ? XSDDatatype.XSDinteger : type == TokenType.DECIMAL ? XSDDatatype.XSDdecimal : XSDDatatype.XSDdouble;
+		}
+
+		private void parseSolutionModifiers() {
+			if (isWord("ORDER")) {
+				next();
+				expectWord("BY");
+				int conditions = 0;
+				while (parseOrderCondition()) {
+					conditions++;
+				}
+				if (conditions == 0) {
+					throw new UnsupportedSyntaxException();
+				}
+			}
+
+			if (isWord("LIMIT")) {
+				parseLimitOrOffset();
+				if (isWord("OFFSET")) {
+					parseLimitOrOffset();
+				}
+			} else if (isWord("OFFSET")) {
+				parseLimitOrOffset();
+				if (isWord("LIMIT")) {
+					parseLimitOrOffset();
+				}
+			}
+		}
+
+		private boolean parseOrderCondition() {
+			if (isWord("ASC") || isWord("DESC")) {
+				next();
+				expectPunctuation("(");
+				parseExpression();
+				expectPunctuation(")");
+			} else if (type == TokenType.VARIABLE) {
+				next();
+			} else if (isPunctuation("(") || isBuiltIn() || type == TokenType.IRI || type == TokenType.PREFIXED_NAME) {
+				parseConstraint();
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		private void parseLimitOrOffset() {
+			next();
+			// Larger values do not fit into the long of Jena's query
+			if (type != TokenType.INTEGER || text.length() > 18) {
+				throw new UnsupportedSyntaxException();
+			}
+			next();
+		}
+
+		/*
+		The expressions are only checked against the grammar, without building them.
+		 */
+		private void parseConstraint() {
+			if (isPunctuation("(")) {
+				next();
+				parseExpression();
+				expectPunctuation(")");
+			} else if (isBuiltIn()) {
+				parseBuiltInCall();
+			} else if (type == TokenType.IRI || type == TokenType.PREFIXED_NAME) {
+				iri();
+				next();
+				parseArguments(-1);
+			} else {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private void parseExpression() {
+			parseConjunction();
+			while (isPunctuation("||")) {
+				next();
+				parseConjunction();
+			}
+		}
+
+		private void parseConjunction() {
+			parseRelationalExpression();
+			while (isPunctuation("&&")) {
+				next();
+				parseRelationalExpression();
+			}
+		}
+
+		private void parseRelationalExpression() {
+			parseAdditiveExpression();
+			if (isPunctuation("=") || isPunctuation("!=") || isPunctuation("<") || isPunctuation(">") || isPunctuation("<=") || isPunctuation(">=")) {
+				next();
+				parseAdditiveExpression();
+			} else if (isWord("IN")) {
+				next();
+				parseArguments(-1);
+			} else if (isWord("NOT")) {
+				next();
+				expectWord("IN");
+				parseArguments(-1);
+			}
+		}
+
+		private void parseAdditiveExpression() {
+			parseMultiplicativeExpression();
+			while (isPunctuation("+") || isPunctuation("-")) {
+				next();
+				parseMultiplicativeExpression();
+			}
+		}
+
+		private void parseMultiplicativeExpression() {
+			parseUnaryExpression();
+			while (isPunctuation("*") || isPunctuation("/")) {
+				next();
+				parseUnaryExpression();
+			}
+		}
+
+		private void parseUnaryExpression() {
+			if (isPunctuation("!") || isPunctuation("+") || isPunctuation("-")) {
+				next();
+			}
+
+			switch (type) {
+				case VARIABLE:
+				case INTEGER:
+				case DECIMAL:
+				case DOUBLE:
+					next();
+					break;
+				case STRING:
+					next();
+					if (isPunctuation("^^")) {
+						next();
+						if (type != TokenType.IRI && type != TokenType.PREFIXED_NAME) {
+							throw new UnsupportedSyntaxException();
+						}
+						iri();
+						next();
+					}
+					break;
+				case IRI:
+				case PREFIXED_NAME:
+					iri();
+					next();
+					if (isPunctuation("(")) {
+						parseArguments(-1);
+					}
+					break;
+				case WORD:
+					if (text.equals("true") || text.equals("false")) {
+						next();
+					} else if (isBuiltIn()) {
+						parseBuiltInCall();
+					} else {
+						throw new UnsupportedSyntaxException();
+					}
+					break;
+				default:
+					if (!isPunctuation("(")) {
+						throw new UnsupportedSyntaxException();
+					}
+					next();
+					parseExpression();
+					expectPunctuation(")");
+			}
+		}
+
+		private boolean isBuiltIn() {
+			return type == TokenType.WORD && (isWord("BOUND") || BUILT_IN_ARITIES.containsKey(text.toUpperCase(Locale.ROOT)));
+		}
+
+		private void parseBuiltInCall() {
+			if (isWord("BOUND")) {
+				next();
+				expectPunctuation("(");
+				if (type != TokenType.VARIABLE) {
+					throw new UnsupportedSyntaxException();
+				}
+				next();
+				expectPunctuation(")");
+			} else {
+				int arity = BUILT_IN_ARITIES.get(text.toUpperCase(Locale.ROOT));
+				next();
+				parseArguments(arity);
+			}
+		}
+
+		// Parses a parenthesized list of expressions, which must have the given number of expressions unless it is -1
+		private void parseArguments(int arity) {
+			expectPunctuation("(");
+			int arguments = 0;
+			if (!isPunctuation(")")) {
+				parseExpression();
+				arguments++;
+				while (isPunctuation(",")) {
+					next();
+					parseExpression();
+					arguments++;
+				}
+			}
+			expectPunctuation(")");
+			if (arity != -1 && arguments != arity) {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		// The IRI of the current IRI or prefixed name token
+		private String iri() {
+			if (type == TokenType.IRI) {
+				return checkIri(text);
+			}
+			var namespace = namespaces.get(prefix);
+			if (namespace == null) {
+				namespace = defaultPrefixes.getNamespace(prefix);
+			}
+			if (namespace == null) {
+				throw new UnsupportedSyntaxException();
+			}
+			return checkIri(namespace + text);
+		}
+
+		/*
+		Jena resolves IRIs against the base IRI of the query, which changes relative IRIs, file IRIs and IRIs with dot segments.
+		All other IRIs are kept as they are.
+		 */
+		private static String checkIri(String iri) {
+			int colon = iri.indexOf(':');
+			if (colon < 1 || !isLetter(iri.charAt(0))) {
+				throw new UnsupportedSyntaxException();
+			}
+			for (int i = 1; i < colon; i++) {
+				char c = iri.charAt(i);
+				if (!isLetter(c) && !isDigit(c) && c != '+' && c != '-' && c != '.') {
+					throw new UnsupportedSyntaxException();
+				}
+			}
+			var hierarchicalPart = iri.substring(colon + 1);
+			if (iri.substring(0, colon).equalsIgnoreCase("file")
+					|| hierarchicalPart.startsWith(".") || iri.contains("/./") || iri.contains("/../") || iri.endsWith("/.") || iri.endsWith("/..")) {
+				throw new UnsupportedSyntaxException();
+			}
+			return iri;
+		}
+
+		private boolean isA() {
+			return type == TokenType.WORD && text.equals("a");
+		}
+
+		private boolean isWord(String keyword) {
+			return type == TokenType.WORD && text.equalsIgnoreCase(keyword);
+		}
+
+		private boolean isPunctuation(String punctuation) {
+			return type == TokenType.PUNCTUATION && text.equals(punctuation);
+		}
+
+		private void expectWord(String keyword) {
+			if (!isWord(keyword)) {
+				throw new UnsupportedSyntaxException();
+			}
+			next();
+		}
+
+		private void expectPunctuation(String punctuation) {
+			if (!isPunctuation(punctuation)) {
+				throw new UnsupportedSyntaxException();
+			}
+			next();
+		}
+
+		private void next() {
+			skipWhitespaceAndComments();
+			language = null;
+			if (position == query.length()) {
+				type = TokenType.END;
+				text = null;
+			} else {
+				char c = query.charAt(position);
+				if (c == '<' && scanIri()) {
+					type = TokenType.IRI;
+				} else if (c == '"' || c == '\'') {
+					scanString(c);
+					type = TokenType.STRING;
+				} else if (isDigit(c)) {
+					scanNumber();
+				} else if ((c == '?' || c == '$') && position + 1 < query.length() && isNameCharacter(query.charAt(position + 1))) {
+					position++;
+					text = scanName();
+					type = TokenType.VARIABLE;
+				} else if (isLetter(c) || c == ':') {
+					scanWordOrPrefixedName();
+				} else {
+					scanPunctuation();
+					type = TokenType.PUNCTUATION;
+				}
+			}
+			tokenEnd = position;
+		}
+
+		private void skipWhitespaceAndComments() {
+			while (position < query.length()) {
+				char c = query.charAt(position);
+				if (c == '#') {
+					while (position < query.length() && query.charAt(position) != '\n' && query.charAt(position) != '\r') {
+						position++;
+					}
+				} else if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+					position++;
+				} else {
+					return;
+				}
+			}
+		}
+
+		// Otherwise the < is a comparison
+		private boolean scanIri() {
+			for (int i = position + 1; i < query.length(); i++) {
+				char c = query.charAt(i);
+				if (c == '>') {
+					text = query.substring(position + 1, i);
+					position = i + 1;
+					return true;
+				} else if (c <= ' ' || c == '<' || c == '"' || c == '{' || c == '}' || c == '|' || c == '^' || c == '`' || c == '\\') {
+					return false;
+				}
+			}
+			return false;
+		}
+
+		private void scanString(char quote) {
+			if (query.startsWith(String.valueOf(quote).repeat(3), position)) {
+				throw new UnsupportedSyntaxException();
+			}
+
+			var lexicalForm = new StringBuilder();
+			position++;
+			while (true) {
+				if (position == query.length()) {
+					throw new UnsupportedSyntaxException();
+				}
+				char c = query.charAt(position++);
+				if (c == quote) {
+					break;
+				} else if (c == '\n' || c == '\r') {
+					throw new UnsupportedSyntaxException();
+				} else if (c == '\\') {
+					lexicalForm.append(unescape(position < query.length() ? query.charAt(position++) : ' '));
+				} else {
+					lexicalForm.append(c);
+				}
+			}
+			text = lexicalForm.toString();
+
+			if (position < query.length() && query.charAt(position) == '@') {
+				int start = ++position;
+				scanLanguageTagPart(false);
+				while (position < query.length() && query.charAt(position) == '-') {
+					position++;
+					scanLanguageTagPart(true);
+				}
+				if (position < query.length() && (isNameCharacter(query.charAt(position)) || query.charAt(position) >= 0x80)) {
+					throw new UnsupportedSyntaxException();
+				}
+				language = query.substring(start, position);
+			}
+		}
+
+		private void scanLanguageTagPart(boolean digits) {
+			int start = position;
+			while (position < query.length() && (isLetter(query.charAt(position)) || digits && isDigit(query.charAt(position)))) {
+				position++;
+			}
+			if (position == start) {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private static char unescape(char c) {
+			switch (c) {
+				case 't':
+					return '\t';
+				case 'b':
+					return '\b';
+				case 'n':
+					return '\n';
+				case 'r':
+					return '\r';
+				case 'f':
+					return '\f';
+				case '"':
+				case '\'':
+				case '\\':
+					return c;
+				default:
+					throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private void scanNumber() {
+			int start = position;
+			skipDigits();
+			type = TokenType.INTEGER;
+			if (position + 1 < query.length() && query.charAt(position) == '.') {
+				char next = query.charAt(position + 1);
+				if (isDigit(next)) {
+					position++;
+					skipDigits();
+					type = TokenType.DECIMAL;
+				} else if (next == 'e' || next == 'E') {
+					throw new UnsupportedSyntaxException();
+				}
+			}
+			if (position < query.length() && (query.charAt(position) == 'e' || query.charAt(position) == 'E')) {
+				position++;
+				if (position < query.length() && (query.charAt(position) == '+' || query.charAt(position) == '-')) {
+					position++;
+				}
+				if (position == query.length() || !isDigit(query.charAt(position))) {
+					throw new UnsupportedSyntaxException();
+				}
+				skipDigits();
+				type = TokenType.DOUBLE;
+			}
+			text = query.substring(start, position);
+		}
+
+		private void skipDigits() {
+			while (position < query.length() && isDigit(query.charAt(position))) {
+				position++;
+			}
+		}
+
+		private String scanName() {
+			int start = position;
+			while (position < query.length() && isNameCharacter(query.charAt(position))) {
+				position++;
+			}
+			if (position < query.length() && query.charAt(position) >= 0x80) {
+				throw new UnsupportedSyntaxException();
+			}
+			return query.substring(start, position);
+		}
+
+		/*
+		Only ASCII names without escapes are supported. The local part of a prefixed name may contain dots, but not end with one.
+		 */
+		private void scanWordOrPrefixedName() {
+			int start = position;
+			while (position < query.length() && (isNameCharacter(query.charAt(position)) || query.charAt(position) == '-' || query.charAt(position) == '.')) {
+				position++;
+			}
+			if (position == query.length() || query.charAt(position) != ':') {
+				position = start;
+				text = scanName();
+				type = TokenType.WORD;
+				return;
+			}
+
+			prefix = query.substring(start, position);
+			if (!prefix.isEmpty() && (!isLetter(prefix.charAt(0)) || prefix.endsWith("."))) {
+				throw new UnsupportedSyntaxException();
+			}
+			int localStart = ++position;
+			while (position < query.length() && (isNameCharacter(query.charAt(position)) || "-.:".indexOf(query.charAt(position)) != -1)) {
+				position++;
+			}
+			while (position > localStart && query.charAt(position - 1) == '.') {
+				position--;
+			}
+			text = query.substring(localStart, position);
+			if (!text.isEmpty() && (text.charAt(0) == '-' || text.charAt(0) == '.')) {
+				throw new UnsupportedSyntaxException();
+			}
+			if (position < query.length() && (query.charAt(position) == '%' || query.charAt(position) == '\\' || query.charAt(position) >= 0x80)) {
+				throw new UnsupportedSyntaxException();
+			}
+			type = TokenType.PREFIXED_NAME;
+		}
+
+		private void scanPunctuation() {
+			for (var punctuation : new String[]{"^^", "!=", "<=", ">=", "&&", "||"}) {
+				if (query.startsWith(punctuation, position)) {
+					text = punctuation;
+					position += 2;
+					return;
+				}
+			}
+			char c = query.charAt(position);
+			// For Jena, a dot right before a digit starts a number
+			if ("{}().,;*/|^!=<>+-?".indexOf(c) == -1 || c == '.' && position + 1 < query.length() && isDigit(query.charAt(position + 1))) {
+				throw new UnsupportedSyntaxException();
+			}
+			text = String.valueOf(c);
+			position++;
+		}
+
+		private static boolean isLetter(char c) {
+			return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+		}
+
+		private static boolean isDigit(char c) {
+			return c >= '0' && c <= '9';
+		}
+
+		private static boolean isNameCharacter(char c) {
+			return isLetter(c) || isDigit(c) || c == '_';
+		}
+	}
+
+	private static class UnsupportedSyntaxException extends RuntimeException {
+		private UnsupportedSyntaxException() {
+			super(null, null, false, false);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package at.hadl.logstatistics.utils;
+
+/*
+64-bit hashes in the style of MurmurHash3: eight bytes (or four chars) at a time are mixed into the state, which is finalized
+with fmix64. Strong enough to use the hash of a query string or query shape as its identity in the counting tables.
+ */
+public class Hashing {
+	private static final long SEED = 0x9e3779b97f4a7c15L;
+
+	public static long hash64(byte[] bytes) {
+		long hash = SEED ^ bytes.length;
+		int i = 0;
+		for (; i + 8 <= bytes.length; i += 8) {
+			long block = (bytes[i] & 0xffL)
+					| (bytes[i + 1] & 0xffL) << 8
+					| (bytes[i + 2] & 0xffL) << 16
+					| (bytes[i + 3] & 0xffL) << 24
+					| (bytes[i + 4] & 0xffL) << 32
+					| (bytes[i + 5] & 0xffL) << 40
+					| (bytes[i + 6] & 0xffL) << 48
+					| (bytes[i + 7] & 0xffL) << 56;
+			hash = mixIntoState(hash, block);
+		}
+		long tail = 0;
+		for (int shift = 0; i < bytes.length; i++, shift += 8) {
+			tail |= (bytes[i] & 0xffL) << shift;
+		}
+		hash ^= mixBlock(tail);
+		return fmix64(hash);
+	}
+
+	public static long hash64(CharSequence chars) {
+		int length = chars.length();
+		long hash = SEED ^ length;
+		int i = 0;
+		for (; i + 4 <= length; i += 4) {
+			long block = chars.charAt(i)
+					| (long) chars.charAt(i + 1) << 16
+					| (long) chars.charAt(i + 2) << 32
+					| (long) chars.charAt(i + 3) << 48;
+			hash = mixIntoState(hash, block);
+		}
+		long tail = 0;
+		for (int shift = 0; i < length; i++, shift += 16) {
+			tail |= (long) chars.charAt(i) << shift;
+		}
+		hash ^= mixBlock(tail);
+		return fmix64(hash);
+	}
+
+	private static long mixIntoState(long hash, long block) {
+		hash ^= mixBlock(block);
+		return Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+	}
+
+	private static long mixBlock(long block) {
+		block *= 0x87c37b91114253d5L;
+		block = Long.rotateLeft(block, 31);
+		return block * 0x4cf5ad432745937fL;
+	}
+
+	private static long fmix64(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		return hash ^ hash >>> 33;
+	}
+}
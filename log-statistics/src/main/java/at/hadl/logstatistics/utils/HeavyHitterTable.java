@@ -0,0 +1,256 @@
+package at.hadl.logstatistics.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+Approximately counts query shapes by their binary keys with a fixed number of counters, no matter how many distinct shapes occur
+(the Space-Saving algorithm). While there is a free counter, a new shape takes it. Otherwise, it takes over the counter with the
+smallest count m: its count becomes m + its own count and its error becomes m, because up to m of the counted occurrences may have
+belonged to the evicted shapes. So the count of a shape is never too small and at most error too large, and a shape without
+a counter occurred at most as often as the smallest count of its shard (see getUnmonitoredCountBound).
+
+Like in QueryShapeTable, the counters are split into shards by the hash of the key, each with its own lock. Every shard runs
+its own Space-Saving over its part of the shapes, so its error bound is the count of its part divided by its counters. Small
+tables have fewer shards, so that each shard keeps at least MIN_SHARD_CAPACITY counters (or all of them, below that).
+Reading the whole table (forEach, write) is only consistent while no counts are added.
+ */
+public class HeavyHitterTable {
+	private static final int SHARD_BITS = 6;
+	private static final int MIN_SHARD_CAPACITY = 16;
+
+	private final int capacity;
+	private final Shard[] shards;
+
+	/*
+	A table with exactly capacity counters (at least one).
+	 */
+	public HeavyHitterTable(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		shards = new Shard[Math.min(1 << SHARD_BITS, Math.max(1, Integer.highestOneBit(this.capacity / MIN_SHARD_CAPACITY)))];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new Shard(this.capacity / shards.length + (i < this.capacity % shards.length ? 1 : 0));
+		}
+	}
+
+	public void add(byte[] key, long count) {
+		add(key, count, 0);
+	}
+
+	/*
+	Adds a count that may already be too large by up to error, e.g. a count of another HeavyHitterTable.
+	 */
+	public void add(byte[] key, long count, long error) {
+		long hash = Hashing.hash64(key);
+		var shard = shards[(int) (hash >>> (64 - SHARD_BITS)) & (shards.length - 1)];
+		synchronized (shard) {
+			shard.add(key, hash, count, error);
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long size() {
+		long size = 0;
+		for (var shard : shards) {
+			synchronized (shard) {
+				size += shard.size;
+			}
+		}
+		return size;
+	}
+
+	/*
+	The largest number of occurrences that a shape without a counter may have had.
+	 */
+	public long getUnmonitoredCountBound() {
+		long bound = 0;
+		for (var shard : shards) {
+			synchronized (shard) {
+				bound = Math.max(bound, shard.minCount());
+			}
+		}
+		return bound;
+	}
+
+	public void forEach(HeavyHitterConsumer consumer) {
+		for (var shard : shards) {
+			synchronized (shard) {
+				for (int entry = 0; entry < shard.size; entry++) {
+					consumer.accept(shard.keys[entry], shard.counts[entry], shard.errors[entry]);
+				}
+			}
+		}
+	}
+
+	public void write(DataOutput output) throws IOException {
+		output.writeInt(capacity);
+		output.writeLong(size());
+		forEach((key, count, error) -> {
+			try {
+				output.writeInt(key.length);
+				output.write(key);
+				output.writeLong(count);
+				output.writeLong(error);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+	public static HeavyHitterTable read(DataInput input) throws IOException {
+		var table = new HeavyHitterTable(input.readInt());
+		long entries = input.readLong();
+		for (long i = 0; i < entries; i++) {
+			var key = new byte[input.readInt()];
+			input.readFully(key);
+			table.add(key, input.readLong(), input.readLong());
+		}
+		return table;
+	}
+
+	public interface HeavyHitterConsumer {
+		void accept(byte[] key, long count, long error);
+	}
+
+	/*
+	The counters of a shard are entries 0 to size - 1 of the parallel arrays. An open-addressing index finds the entry of a key
+	and a binary min-heap of the entries by their counts finds the counter to take over.
+	 */
+	private static class Shard {
+		private final byte[][] keys;
+		private final long[] hashes;
+		private final long[] counts;
+		private final long[] errors;
+		private final int[] heap;
+		private final int[] heapPositions;
+		// Entry + 1, 0 marks a free slot
+		private final int[] index;
+		private int size = 0;
+
+		private Shard(int capacity) {
+			keys = new byte[capacity][];
+			hashes = new long[capacity];
+			counts = new long[capacity];
+			errors = new long[capacity];
+			heap = new int[capacity];
+			heapPositions = new int[capacity];
+			index = new int[Integer.highestOneBit(capacity) * 4];
+		}
+
+		private long minCount() {
+			return size < keys.length ? 0 : counts[heap[0]];
+		}
+
+		private void add(byte[] key, long hash, long count, long error) {
+			int mask = index.length - 1;
+			int slot = (int) hash & mask;
+			while (index[slot] != 0) {
+				int entry = index[slot] - 1;
+				if (hashes[entry] == hash && Arrays.equals(keys[entry], key)) {
+					counts[entry] += count;
+					errors[entry] += error;
+					siftDown(heapPositions[entry]);
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			if (size < keys.length) {
+				int entry = size++;
+				keys[entry] = key;
+				hashes[entry] = hash;
+				counts[entry] = count;
+				errors[entry] = error;
+				index[slot] = entry + 1;
+				heap[entry] = entry;
+				heapPositions[entry] = entry;
+				siftUp(entry);
+			} else {
+				int entry = heap[0];
+				long minCount = counts[entry];
+				removeFromIndex(entry);
+				keys[entry] = key;
+				hashes[entry] = hash;
+				counts[entry] = minCount + count;
+				errors[entry] = minCount + error;
+				addToIndex(entry);
+				siftDown(0);
+			}
+		}
+
+		private void addToIndex(int entry) {
+			int mask = index.length - 1;
+			int slot = (int) hashes[entry] & mask;
+			while (index[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			index[slot] = entry + 1;
+		}
+
+		// Shifts the following entries of the probe sequence back, so that no lookup stops early at the freed slot
+		private void removeFromIndex(int entry) {
+			int mask = index.length - 1;
+			int free = (int) hashes[entry] & mask;
+			while (index[free] != entry + 1) {
+				free = (free + 1) & mask;
+			}
+
+			int slot = free;
+			while (true) {
+				slot = (slot + 1) & mask;
+				if (index[slot] == 0) {
+					break;
+				}
+				int home = (int) hashes[index[slot] - 1] & mask;
+				boolean homeBetween = free <= slot ? free < home && home <= slot : free < home || home <= slot;
+				if (!homeBetween) {
+					index[free] = index[slot];
+					free = slot;
+				}
+			}
+			index[free] = 0;
+		}
+
+		private void siftUp(int position) {
+			int entry = heap[position];
+			while (position > 0) {
+				int parent = (position - 1) / 2;
+				if (counts[heap[parent]] <= counts[entry]) {
+					break;
+				}
+				moveInHeap(heap[parent], position);
+				position = parent;
+			}
+			moveInHeap(entry, position);
+		}
+
+		private void siftDown(int position) {
+			int entry = heap[position];
+			while (true) {
+				int child = 2 * position + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+					child++;
+				}
+				if (counts[entry] <= counts[heap[child]]) {
+					break;
+				}
+				moveInHeap(heap[child], position);
+				position = child;
+			}
+			moveInHeap(entry, position);
+		}
+
+		private void moveInHeap(int entry, int position) {
+			heap[position] = entry;
+			heapPositions[entry] = position;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package at.hadl.logstatistics.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+Counts by long keys (e.g. FeatureMasks) in an open-addressing table of primitive arrays, so counting neither boxes the key nor
+the count. A slot is free while its count is 0, which is why adding a count of 0 is ignored. Not thread-safe: every thread counts
+into its own map, and the maps are merged with addAll once counting is done.
+ */
+public class LongCountMap {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] keys = new long[INITIAL_CAPACITY];
+	private long[] counts = new long[INITIAL_CAPACITY];
+	private int size = 0;
+
+	public void add(long key, long count) {
+		if (count == 0) {
+			return;
+		}
+
+		int mask = keys.length - 1;
+		int slot = slotOf(key, mask);
+		while (counts[slot] != 0) {
+			if (keys[slot] == key) {
+				counts[slot] += count;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		counts[slot] = count;
+		size++;
+		if (size * 2 > keys.length) {
+			grow();
+		}
+	}
+
+	public void addAll(LongCountMap other) {
+		other.forEach(this::add);
+	}
+
+	public long get(long key) {
+		int mask = keys.length - 1;
+		int slot = slotOf(key, mask);
+		while (counts[slot] != 0) {
+			if (keys[slot] == key) {
+				return counts[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void forEach(LongCountConsumer consumer) {
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (counts[slot] != 0) {
+				consumer.accept(keys[slot], counts[slot]);
+			}
+		}
+	}
+
+	public void write(DataOutput output) throws IOException {
+		output.writeInt(size);
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (counts[slot] != 0) {
+				output.writeLong(keys[slot]);
+				output.writeLong(counts[slot]);
+			}
+		}
+	}
+
+	public static LongCountMap read(DataInput input) throws IOException {
+		var map = new LongCountMap();
+		int entries = input.readInt();
+		for (int i = 0; i < entries; i++) {
+			map.add(input.readLong(), input.readLong());
+		}
+		return map;
+	}
+
+	// Feature masks differ in a few low bits only, so the bits are spread before they pick a slot
+	private static int slotOf(long key, int mask) {
+		return (int) ((key * 0x9e3779b97f4a7c15L) >>> 32) & mask;
+	}
+
+	private void grow() {
+		var oldKeys = keys;
+		var oldCounts = counts;
+		keys = new long[oldKeys.length * 2];
+		counts = new long[oldKeys.length * 2];
+
+		int mask = keys.length - 1;
+		for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+			if (oldCounts[oldSlot] != 0) {
+				int slot = slotOf(oldKeys[oldSlot], mask);
+				while (counts[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[oldSlot];
+				counts[slot] = oldCounts[oldSlot];
+			}
+		}
+	}
+
+	public interface LongCountConsumer {
+		void accept(long key, long count);
+	}
+}
@@ -0,0 +1,128 @@
+package at.hadl.logstatistics.utils;
+
+import at.hadl.logstatistics.utils.graphbuilding.FeatureMask;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+The meta-information counts of an analysis: the encountered features (by the bits of their FeatureMask) and a few fixed counters.
+Every thread counts into its own long[], indexed by the feature bit or by FEATURE_BITS + the ordinal of the counter, so counting
+neither looks up a key nor contends with other threads. Next to it, every thread counts the FeatureMasks themselves in its own
+LongCountMap, which gives the exact count of every combination of features. The counts of all threads are only summed up by sum()
+and sumFeatureCombinations(), which must not run concurrently with counting (e.g. only once the pipeline is quiescent).
+ */
+public class MetaInformationCounters {
+	public enum Counter {TOTAL_LINES, TOTAL_QUERIES, VALID_QUERIES, FAST_PARSED_QUERIES, HEAVY_QUERIES}
+
+	private static final int FEATURE_BITS = FeatureMask.BITS;
+	private static final int SLOTS = FEATURE_BITS + Counter.values().length;
+	private static final String[] NAMES = new String[SLOTS];
+	private static final Map<String, Integer> SLOTS_BY_NAME = new HashMap<>();
+
+	static {
+		for (int bit = 0; bit < FEATURE_BITS; bit++) {
+			NAMES[bit] = FeatureMask.name(bit);
+		}
+		for (var counter : Counter.values()) {
+			NAMES[FEATURE_BITS + counter.ordinal()] = counter.name();
+		}
+		for (int slot = 0; slot < SLOTS; slot++) {
+			if (NAMES[slot] != null) {
+				SLOTS_BY_NAME.put(NAMES[slot], slot);
+			}
+		}
+	}
+
+	private final List<ThreadCounts> threadCounts = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<ThreadCounts> counts = ThreadLocal.withInitial(() -> {
+		var counts = new ThreadCounts();
+		threadCounts.add(counts);
+		return counts;
+	});
+	// Counts of a checkpoint under names that this version does not count anymore
+	private final Map<String, Long> otherCounts = new ConcurrentHashMap<>();
+
+	public void add(Counter counter, long count) {
+		counts.get().slots[FEATURE_BITS + counter.ordinal()] += count;
+	}
+
+	public void increment(Counter counter) {
+		add(counter, 1);
+	}
+
+	/*
+	Adds the count to every feature of the FeatureMask and to the combination of features that it stands for.
+	 */
+	public void addFeatures(long featureMask, long count) {
+		var threadCount = counts.get();
+		threadCount.featureCombinations.add(featureMask, count);
+		var slots = threadCount.slots;
+		for (long remaining = featureMask; remaining != 0; remaining &= remaining - 1) {
+			slots[Long.numberOfTrailingZeros(remaining)] += count;
+		}
+	}
+
+	/*
+	Adds counts by their names, e.g. from a checkpoint.
+	 */
+	public void addAll(Map<String, Long> namedCounts) {
+		var slots = counts.get().slots;
+		namedCounts.forEach((name, count) -> {
+			var slot = SLOTS_BY_NAME.get(name);
+			if (slot != null) {
+				slots[slot] += count;
+			} else {
+				otherCounts.merge(name, count, Long::sum);
+			}
+		});
+	}
+
+	/*
+	The counts by their names, in the order of the features and counters; counters that were never counted are left out.
+	 */
+	public Map<String, Long> sum() {
+		var totals = new long[SLOTS];
+		for (var threadCount : threadCounts) {
+			for (int slot = 0; slot < SLOTS; slot++) {
+				totals[slot] += threadCount.slots[slot];
+			}
+		}
+
+		var sums = new LinkedHashMap<String, Long>();
+		for (int slot = 0; slot < SLOTS; slot++) {
+			if (totals[slot] != 0) {
+				sums.put(NAMES[slot], totals[slot]);
+			}
+		}
+		sums.putAll(otherCounts);
+		return sums;
+	}
+
+	/*
+	Adds counts of feature combinations, e.g. from a checkpoint.
+	 */
+	public void addFeatureCombinations(LongCountMap featureCombinations) {
+		counts.get().featureCombinations.addAll(featureCombinations);
+	}
+
+	/*
+	The counts of the combinations of features by their FeatureMask.
+	 */
+	public LongCountMap sumFeatureCombinations() {
+		var totals = new LongCountMap();
+		for (var threadCount : threadCounts) {
+			totals.addAll(threadCount.featureCombinations);
+		}
+		return totals;
+	}
+
+	private static class ThreadCounts {
+		private final long[] slots = new long[SLOTS];
+		private final LongCountMap featureCombinations = new LongCountMap();
+	}
+}
@@ -3,6 +3,7 @@ package at.hadl.logstatistics.utils;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -45,11 +46,20 @@ public class PredicateMap {
 		if (predicateMapping != null) {
 			return predicateMapping;
 		} else {
-			predicateMap.computeIfAbsent(predicate, (key) -> predicateMappingSequence.incrementAndGet());
-			return predicateMap.get(predicate);
+			return predicateMap.computeIfAbsent(predicate, (key) -> predicateMappingSequence.incrementAndGet());
 		}
 	}
 
+	/*
+	Adds the mappings of another snapshot of the same predicate map, e.g. from a checkpoint.
+	 */
+	public void putAll(Map<String, Integer> mappings) {
+		predicateMap.putAll(mappings);
+		mappings.values().stream()
+				.max(Integer::compare)
+				.ifPresent(maxMapping -> predicateMappingSequence.accumulateAndGet(maxMapping, Math::max));
+	}
+
 	public int size() {
 		return predicateMap.size();
 	}
@@ -0,0 +1,60 @@
+package at.hadl.logstatistics.utils;
+
+/*
+A cheap estimate of how expensive the graph building of a query will be, computed from the query string before it is parsed.
+Every OPTIONAL and UNION can double the number of alternative query graphs, and property paths with * or + add alternatives
+of their own, so the estimate is roughly the binary logarithm of the number of alternatives, plus a term for very long queries.
+ */
+public class QueryCostEstimator {
+	private static final int CHARACTERS_PER_COST_UNIT = 2000;
+
+	public static int estimateCost(String queryString) {
+		int cost = queryString.length() / CHARACTERS_PER_COST_UNIT;
+		int length = queryString.length();
+
+		for (int i = 0; i < length; i++) {
+			char c = queryString.charAt(i);
+			if ((c == 'O' || c == 'o') && regionMatches(queryString, i, "OPTIONAL")) {
+				cost++;
+			} else if ((c == 'U' || c == 'u') && regionMatches(queryString, i, "UNION")) {
+				cost++;
+			} else if ((c == '*' || c == '+') && isPathOperand(queryString, i)) {
+				cost += 2;
+			}
+		}
+
+		return cost;
+	}
+
+	private static boolean regionMatches(String queryString, int offset, String keyword) {
+		return queryString.regionMatches(true, offset, keyword, 0, keyword.length())
+				&& (offset == 0 || !Character.isLetterOrDigit(queryString.charAt(offset - 1)))
+				&& (offset + keyword.length() == queryString.length() || !Character.isLetterOrDigit(queryString.charAt(offset + keyword.length())));
+	}
+
+	// A path operator directly follows an IRI, a prefixed name, the keyword a or a group (unlike SELECT *, COUNT(*) or arithmetic)
+	private static boolean isPathOperand(String queryString, int operator) {
+		if (operator == 0) {
+			return false;
+		}
+		char previous = queryString.charAt(operator - 1);
+		if (previous == '>' || previous == ')') {
+			return true;
+		}
+
+		// Variables and numbers are names, too, but only prefixed names contain a colon
+		int start = operator;
+		while (start > 0 && isNameCharacter(queryString.charAt(start - 1))) {
+			start--;
+		}
+		if (start == operator || (start > 0 && (queryString.charAt(start - 1) == '?' || queryString.charAt(start - 1) == '$'))) {
+			return false;
+		}
+		var name = queryString.substring(start, operator);
+		return name.indexOf(':') >= 0 || name.equals("a");
+	}
+
+	private static boolean isNameCharacter(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':';
+	}
+}
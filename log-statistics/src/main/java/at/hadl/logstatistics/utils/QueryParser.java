@@ -1,22 +1,33 @@
-package at.hadl.logstatistics.utils;
-
-import org.apache.jena.query.Query;
-import org.apache.jena.query.QueryException;
-import org.apache.jena.query.QueryFactory;
-import org.apache.jena.query.Syntax;
-
-import java.util.Optional;
-
-public class QueryParser {
-	public static Optional<Query> parseQuery(String queryString) {
-		try {
-			return Optional.of(QueryFactory.create(queryString, Syntax.syntaxSPARQL_11));
-		} catch (QueryException e) {
-			return Optional.empty();
-		}
-	}
-
-	public static Query parseQueryFailing(String queryString) {
-		return QueryFactory.create(queryString, Syntax.syntaxSPARQL_11);
-	}
-}
+package at.hadl.logstatistics.utils;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryException;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.Syntax;
+
+import java.util.Optional;
+
+public class QueryParser {
+	public static Optional<Query> parseQuery(String queryString) {
+		try {
+			return Optional.of(QueryFactory.create(queryString, Syntax.syntaxSPARQL_11));
+		} catch (QueryException e) {
+			return Optional.empty();
+		}
+	}
+
+	/*
+	Parses the query with the default prefixes in its prologue, instead of declaring them in the query string.
+	 */
+	public static Optional<Query> parseQuery(String queryString, DefaultPrefixes defaultPrefixes) {
+		try {
+			return Optional.of(QueryFactory.parse(defaultPrefixes.newQuery(), queryString, null, Syntax.syntaxSPARQL_11));
+		} catch (QueryException e) {
+			return Optional.empty();
+		}
+	}
+
+	public static Query parseQueryFailing(String queryString) {
+		return QueryFactory.create(queryString, Syntax.syntaxSPARQL_11);
+	}
+}
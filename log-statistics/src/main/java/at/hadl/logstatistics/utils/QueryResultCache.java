@@ -0,0 +1,161 @@
+package at.hadl.logstatistics.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+A size-bounded cache for the analysis results of query strings, keyed by the 64-bit hash of the (preprocessed) query string.
+Logs are dominated by bots that send the same query over and over, which can then skip parsing and graph building.
+
+The cache is split into segments by hash, each with its own lock. Every segment is a segmented LRU: new entries go to a
+probation segment, entries that are hit again are promoted to a protected segment (80 % of the capacity), whose least recently
+used entries are demoted back to probation. Entries are evicted from the probation segment only, so a burst of queries that
+are seen once cannot flush the queries that are repeated all the time.
+ */
+public class QueryResultCache {
+	private static final int SEGMENT_BITS = 4;
+	private static final double PROTECTED_SHARE = 0.8;
+
+	private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public QueryResultCache(int maxEntries) {
+		int segmentCapacity = Math.max(1, maxEntries / segments.length);
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+
+	public static long keyFor(String queryString) {
+		return Hashing.hash64(queryString);
+	}
+
+	public Result get(long key) {
+		var segment = segmentFor(key);
+		Result result;
+		synchronized (segment) {
+			result = segment.get(key);
+		}
+		(result != null ? hits : misses).increment();
+		return result;
+	}
+
+	public void put(long key, Result result) {
+		var segment = segmentFor(key);
+		synchronized (segment) {
+			evictions.add(segment.put(key, result));
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	private Segment segmentFor(long key) {
+		return segments[(int) (key >>> (64 - SEGMENT_BITS))];
+	}
+
+	/*
+	The analysis result of a query: whether it could be parsed (and by the fast parser), whether it counted as expensive, its
+	features (a FeatureMask) and its query shape key (null if it has no shape).
+	 */
+	public static class Result {
+		private final boolean valid;
+		private final boolean fastParsed;
+		private final boolean heavy;
+		private final long encounteredFeatures;
+		private final byte[] queryShape;
+
+		public Result(boolean valid, boolean fastParsed, boolean heavy, long encounteredFeatures, byte[] queryShape) {
+			this.valid = valid;
+			this.fastParsed = fastParsed;
+			this.heavy = heavy;
+			this.encounteredFeatures = encounteredFeatures;
+			this.queryShape = queryShape;
+		}
+
+		public boolean isValid() {
+			return valid;
+		}
+
+		public boolean isFastParsed() {
+			return fastParsed;
+		}
+
+		public boolean isHeavy() {
+			return heavy;
+		}
+
+		public long getEncounteredFeatures() {
+			return encounteredFeatures;
+		}
+
+		public byte[] getQueryShape() {
+			return queryShape;
+		}
+	}
+
+	private static class Segment {
+		private final int capacity;
+		private final int protectedCapacity;
+		// Both maps are ordered from the least to the most recently used entry
+		private final LinkedHashMap<Long, Result> probation = new LinkedHashMap<>();
+		private final LinkedHashMap<Long, Result> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+		private Segment(int capacity) {
+			this.capacity = capacity;
+			this.protectedCapacity = (int) (capacity * PROTECTED_SHARE);
+		}
+
+		private Result get(long key) {
+			var result = protectedEntries.get(key);
+			if (result != null) {
+				return result;
+			}
+
+			result = probation.remove(key);
+			if (result != null) {
+				protectedEntries.put(key, result);
+				if (protectedEntries.size() > protectedCapacity) {
+					var demoted = removeEldest(protectedEntries);
+					probation.put(demoted.getKey(), demoted.getValue());
+				}
+			}
+			return result;
+		}
+
+		// Returns the number of evicted entries
+		private int put(long key, Result result) {
+			if (protectedEntries.containsKey(key) || probation.containsKey(key)) {
+				return 0;
+			}
+
+			probation.put(key, result);
+			int evicted = 0;
+			while (probation.size() + protectedEntries.size() > capacity && !probation.isEmpty()) {
+				removeEldest(probation);
+				evicted++;
+			}
+			return evicted;
+		}
+
+		private static Map.Entry<Long, Result> removeEldest(LinkedHashMap<Long, Result> entries) {
+			Iterator<Map.Entry<Long, Result>> iterator = entries.entrySet().iterator();
+			var eldest = iterator.next();
+			iterator.remove();
+			return eldest;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package at.hadl.logstatistics.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+Counts query shapes by their binary keys (see RequiredPartitionsExtractor.encodeStarShapes).
+
+The counts are kept in open-addressing tables of primitive arrays that are keyed by a 64-bit hash (see Hashing) of the key;
+the key bytes are only compared when two hashes are equal. The table is split into shards by hash, each with its own lock, so
+that the threads of the aggregation stage rarely wait for each other. Reading the whole table (forEach, write) is only consistent while no
+counts are added.
+ */
+public class QueryShapeTable {
+	private static final int SHARD_BITS = 6;
+	private static final int INITIAL_SHARD_CAPACITY = 64;
+
+	private final Shard[] shards = new Shard[1 << SHARD_BITS];
+
+	public QueryShapeTable() {
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new Shard();
+		}
+	}
+
+	public void increment(byte[] key) {
+		add(key, 1);
+	}
+
+	/*
+	Adds the count to the query shape and returns whether the table did not contain the query shape before.
+	 */
+	public boolean add(byte[] key, long count) {
+		long hash = Hashing.hash64(key);
+		var shard = shards[(int) (hash >>> (64 - SHARD_BITS))];
+		synchronized (shard) {
+			return shard.add(key, hash, count);
+		}
+	}
+
+	public long size() {
+		long size = 0;
+		for (var shard : shards) {
+			synchronized (shard) {
+				size += shard.size;
+			}
+		}
+		return size;
+	}
+
+	public void forEach(ShapeCountConsumer consumer) {
+		for (var shard : shards) {
+			synchronized (shard) {
+				for (int slot = 0; slot < shard.keys.length; slot++) {
+					if (shard.keys[slot] != null) {
+						consumer.accept(shard.keys[slot], shard.counts[slot]);
+					}
+				}
+			}
+		}
+	}
+
+	public void write(DataOutput output) throws IOException {
+		output.writeLong(size());
+		for (var shard : shards) {
+			synchronized (shard) {
+				for (int slot = 0; slot < shard.keys.length; slot++) {
+					if (shard.keys[slot] != null) {
+						output.writeInt(shard.keys[slot].length);
+						output.write(shard.keys[slot]);
+						output.writeLong(shard.counts[slot]);
+					}
+				}
+			}
+		}
+	}
+
+	public static QueryShapeTable read(DataInput input) throws IOException {
+		var table = new QueryShapeTable();
+		long entries = input.readLong();
+		for (long i = 0; i < entries; i++) {
+			var key = new byte[input.readInt()];
+			input.readFully(key);
+			table.add(key, input.readLong());
+		}
+		return table;
+	}
+
+	public interface ShapeCountConsumer {
+		void accept(byte[] key, long count);
+	}
+
+	private static class Shard {
+		private long[] hashes = new long[INITIAL_SHARD_CAPACITY];
+		private long[] counts = new long[INITIAL_SHARD_CAPACITY];
+		private byte[][] keys = new byte[INITIAL_SHARD_CAPACITY][];
+		private int size = 0;
+
+		private boolean add(byte[] key, long hash, long count) {
+			int mask = keys.length - 1;
+			int slot = (int) hash & mask;
+			while (keys[slot] != null) {
+				if (hashes[slot] == hash && Arrays.equals(keys[slot], key)) {
+					counts[slot] += count;
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			hashes[slot] = hash;
+			counts[slot] = count;
+			keys[slot] = key;
+			size++;
+			if (size * 2 > keys.length) {
+				grow();
+			}
+			return true;
+		}
+
+		private void grow() {
+			var oldHashes = hashes;
+			var oldCounts = counts;
+			var oldKeys = keys;
+			hashes = new long[oldKeys.length * 2];
+			counts = new long[oldKeys.length * 2];
+			keys = new byte[oldKeys.length * 2][];
+
+			int mask = keys.length - 1;
+			for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+				if (oldKeys[oldSlot] != null) {
+					int slot = (int) oldHashes[oldSlot] & mask;
+					while (keys[slot] != null) {
+						slot = (slot + 1) & mask;
+					}
+					hashes[slot] = oldHashes[oldSlot];
+					counts[slot] = oldCounts[oldSlot];
+					keys[slot] = oldKeys[oldSlot];
+				}
+			}
+		}
+	}
+}
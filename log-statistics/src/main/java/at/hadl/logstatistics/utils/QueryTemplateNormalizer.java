@@ -0,0 +1,634 @@
+package at.hadl.logstatistics.utils;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+Reduces a query string to its template, so that queries which only differ in their constants (e.g. wd:Q42 vs. wd:Q64) share
+one cached analysis result. A single lexer pass replaces the IRIs, prefixed names and literals (including true and false) in the
+subject and object positions of triple patterns, as well as the values of LIMIT and OFFSET, with placeholders. The predicates
+(and property paths) are kept, as are all constants in the prologue, in FILTER and BIND expressions, in VALUES blocks and in
+GRAPH/SERVICE names.
+
+Every distinct constant gets its own numbered placeholder, so two vertices of the query graph stay two vertices and the template
+has the same query shapes and features as the query. The placeholders are keyed by the RDF term that Jena makes of a constant,
+so different spellings of one term share a placeholder: a prefixed name and the full IRI, IRIs relative to the BASE and absolute
+ones, 1 and "1"^^xsd:integer, or "x", 'x' and "x"^^xsd:string. Whenever the lexer meets something that it does not know how to
+track, like an RDF collection, the query string is returned unchanged.
+ */
+public class QueryTemplateNormalizer {
+	private static final String IRI_PLACEHOLDER = "urn:x-template:";
+	private static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+	public static String normalize(String queryString) {
+		return normalize(queryString, DefaultPrefixes.NONE);
+	}
+
+	/*
+	Like normalize(String), but prefixes that the query does not declare are taken from the default prefixes.
+	 */
+	public static String normalize(String queryString, DefaultPrefixes defaultPrefixes) {
+		try {
+			return new Normalization(queryString, defaultPrefixes).run();
+		} catch (UnsupportedSyntaxException e) {
+			return queryString;
+		}
+	}
+
+	private enum TokenType {IRI, PREFIXED_NAME, VARIABLE, BLANK_NODE, STRING, NUMBER, KEYWORD, PUNCTUATION, END}
+
+	private enum FrameKind {QUERY, GROUP, BLANK_NODE_PROPERTIES, PATH, EXPRESSION, DATA}
+
+	private enum State {SUBJECT, PREDICATE, PATH_END, OBJECT, OBJECT_END, GRAPH_NAME, FILTER}
+
+	private static class Frame {
+		private final FrameKind kind;
+		private State state = State.SUBJECT;
+		private int depth = 0;
+		private boolean subjectContext = false;
+		private boolean replaceNextNumber = false;
+		private boolean declaresPrefix = false;
+		private boolean declaresBase = false;
+
+		private Frame(FrameKind kind) {
+			this.kind = kind;
+		}
+	}
+
+	private static class Normalization {
+		private final String query;
+		private final DefaultPrefixes defaultPrefixes;
+		private final StringBuilder template;
+		private final Map<String, String> placeholders = new HashMap<>();
+		private final Map<String, String> namespaces = new HashMap<>();
+		private String declaredPrefix;
+		private String base;
+		private final Deque<Frame> frames = new ArrayDeque<>();
+		private int position = 0;
+		private int copied = 0;
+		private TokenType type;
+		private int tokenStart;
+		private int prefixedDatatypeStart;
+		private int literalEnd;
+
+		private Normalization(String query, DefaultPrefixes defaultPrefixes) {
+			this.query = query;
+			this.defaultPrefixes = defaultPrefixes;
+			this.template = new StringBuilder(query.length());
+		}
+
+		private String run() {
+			frames.push(new Frame(FrameKind.QUERY));
+			while (nextToken() != TokenType.END) {
+				accept();
+			}
+			if (frames.size() != 1) {
+				throw new UnsupportedSyntaxException();
+			}
+			return template.append(query, copied, query.length()).toString();
+		}
+
+		private void accept() {
+			var frame = frames.peek();
+			switch (frame.kind) {
+				case QUERY:
+					acceptInQuery(frame);
+					break;
+				case EXPRESSION:
+					acceptInExpression(frame);
+					break;
+				case DATA:
+					acceptInData(frame);
+					break;
+				case PATH:
+					acceptInPath(frame);
+					break;
+				default:
+					acceptInTriples(frame);
+			}
+		}
+
+		private void acceptInQuery(Frame frame) {
+			if (isPunctuation('{')) {
+				frames.push(new Frame(FrameKind.GROUP));
+			} else if (isPunctuation('}')) {
+				// The end of a sub-select also ends the group that contains it
+				frames.pop();
+				closeGroup();
+			} else if (type == TokenType.KEYWORD && isKeyword("VALUES")) {
+				frames.push(new Frame(FrameKind.DATA));
+			} else if (type == TokenType.NUMBER && frame.replaceNextNumber) {
+				replace();
+			} else if (type == TokenType.IRI && declaredPrefix != null) {
+				namespaces.put(declaredPrefix, resolve(query.substring(tokenStart + 1, position - 1)));
+			} else if (type == TokenType.IRI && frame.declaresBase) {
+				base = resolve(query.substring(tokenStart + 1, position - 1));
+			}
+			declaredPrefix = type == TokenType.PREFIXED_NAME && frame.declaresPrefix ? query.substring(tokenStart, position - 1) : null;
+			frame.declaresPrefix = isKeyword("PREFIX");
+			frame.declaresBase = isKeyword("BASE");
+			frame.replaceNextNumber = type == TokenType.KEYWORD && (isKeyword("LIMIT") || isKeyword("OFFSET"));
+		}
+
+		private void acceptInExpression(Frame frame) {
+			if (isPunctuation('(')) {
+				frame.depth++;
+			} else if (isPunctuation(')')) {
+				frame.depth--;
+				if (frame.depth == 0) {
+					frames.pop();
+					frames.peek().state = State.SUBJECT;
+				}
+			} else if (isPunctuation('{')) {
+				// EXISTS and NOT EXISTS
+				frames.push(new Frame(FrameKind.GROUP));
+			} else if (isPunctuation('}')) {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private void acceptInData(Frame frame) {
+			if (isPunctuation('{')) {
+				frame.depth++;
+			} else if (isPunctuation('}')) {
+				frame.depth--;
+				if (frame.depth == 0) {
+					frames.pop();
+					frames.peek().state = State.SUBJECT;
+				}
+			}
+		}
+
+		private void acceptInPath(Frame frame) {
+			if (isPunctuation('(')) {
+				frame.depth++;
+			} else if (isPunctuation(')')) {
+				frame.depth--;
+				if (frame.depth == 0) {
+					frames.pop();
+					frames.peek().state = State.PATH_END;
+				}
+			} else if (!(type == TokenType.IRI || type == TokenType.PREFIXED_NAME || isKeyword("a") || isPathOperator())) {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private void acceptInTriples(Frame frame) {
+			switch (frame.state) {
+				case SUBJECT:
+					acceptSubject(frame);
+					break;
+				case GRAPH_NAME:
+					if (isKeyword("SILENT")) {
+						return;
+					} else if (type != TokenType.IRI && type != TokenType.PREFIXED_NAME && type != TokenType.VARIABLE) {
+						throw new UnsupportedSyntaxException();
+					}
+					frame.state = State.SUBJECT;
+					break;
+				case FILTER:
+					if (isPunctuation('(')) {
+						frame.state = State.SUBJECT;
+						var expression = new Frame(FrameKind.EXPRESSION);
+						expression.depth = 1;
+						frames.push(expression);
+					} else if (isKeyword("EXISTS")) {
+						frame.state = State.SUBJECT;
+					} else if (type != TokenType.KEYWORD && type != TokenType.IRI && type != TokenType.PREFIXED_NAME) {
+						// Anything but NOT, a built-in function or a custom function followed by its arguments
+						throw new UnsupportedSyntaxException();
+					}
+					break;
+				case PREDICATE:
+					acceptPredicate(frame);
+					break;
+				case PATH_END:
+					if (isPunctuation('/') || isPunctuation('|')) {
+						frame.state = State.PREDICATE;
+					} else if (isPunctuation('*') || isPunctuation('+') || isPunctuation('?')) {
+						frame.state = State.PATH_END;
+					} else if (type == TokenType.NUMBER && query.charAt(tokenStart) == '+') {
+						throw new UnsupportedSyntaxException();
+					} else {
+						acceptObject(frame);
+					}
+					break;
+				case OBJECT:
+					acceptObject(frame);
+					break;
+				case OBJECT_END:
+					acceptObjectEnd(frame);
+					break;
+			}
+		}
+
+		private void acceptSubject(Frame frame) {
+			if (isTerm()) {
+				replaceConstant();
+				frame.state = State.PREDICATE;
+			} else if (isPunctuation('[')) {
+				openBlankNode(true);
+			} else if (isPunctuation('{')) {
+				frames.push(new Frame(FrameKind.GROUP));
+			} else if (isPunctuation('}')) {
+				closeGroup();
+			} else if (isPunctuation('.') && frame.kind == FrameKind.GROUP) {
+				frame.state = State.SUBJECT;
+			} else if (type == TokenType.KEYWORD && frame.kind == FrameKind.GROUP) {
+				acceptGroupKeyword(frame);
+			} else {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private void acceptGroupKeyword(Frame frame) {
+			if (isKeyword("OPTIONAL") || isKeyword("MINUS") || isKeyword("UNION")) {
+				frame.state = State.SUBJECT;
+			} else if (isKeyword("GRAPH") || isKeyword("SERVICE")) {
+				frame.state = State.GRAPH_NAME;
+			} else if (isKeyword("FILTER") || isKeyword("BIND")) {
+				frame.state = State.FILTER;
+			} else if (isKeyword("VALUES")) {
+				frames.push(new Frame(FrameKind.DATA));
+			} else if (isKeyword("SELECT")) {
+				frames.push(new Frame(FrameKind.QUERY));
+			} else {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private void acceptPredicate(Frame frame) {
+			if (isKeyword("a") || type == TokenType.VARIABLE) {
+				frame.state = State.OBJECT;
+			} else if (type == TokenType.IRI || type == TokenType.PREFIXED_NAME) {
+				frame.state = State.PATH_END;
+			} else if (isPunctuation('^') || isPunctuation('!')) {
+				frame.state = State.PREDICATE;
+			} else if (isPunctuation('(')) {
+				var path = new Frame(FrameKind.PATH);
+				path.depth = 1;
+				frames.push(path);
+			} else if (isPunctuation('.') || isPunctuation('}') || isPunctuation(']')) {
+				// A trailing semicolon
+				acceptObjectEnd(frame);
+			} else {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private void acceptObject(Frame frame) {
+			if (isTerm()) {
+				replaceConstant();
+				frame.state = State.OBJECT_END;
+			} else if (isPunctuation('[')) {
+				openBlankNode(false);
+			} else {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private void acceptObjectEnd(Frame frame) {
+			if (isPunctuation(',')) {
+				frame.state = State.OBJECT;
+			} else if (isPunctuation(';')) {
+				frame.state = State.PREDICATE;
+			} else if (isPunctuation(']') && frame.kind == FrameKind.BLANK_NODE_PROPERTIES) {
+				frames.pop();
+				frames.peek().state = frame.subjectContext ? State.PREDICATE : State.OBJECT_END;
+			} else if (frame.kind == FrameKind.GROUP && (isPunctuation('.') || isPunctuation('}') || isPunctuation('{') || type == TokenType.KEYWORD)) {
+				// FILTER, OPTIONAL etc. may directly follow a triple pattern
+				frame.state = State.SUBJECT;
+				acceptSubject(frame);
+			} else {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private void openBlankNode(boolean subjectContext) {
+			var blankNode = new Frame(FrameKind.BLANK_NODE_PROPERTIES);
+			blankNode.state = State.PREDICATE;
+			blankNode.subjectContext = subjectContext;
+			frames.push(blankNode);
+		}
+
+		private void closeGroup() {
+			if (frames.isEmpty() || frames.peek().kind != FrameKind.GROUP) {
+				throw new UnsupportedSyntaxException();
+			}
+			frames.pop();
+			if (frames.isEmpty()) {
+				throw new UnsupportedSyntaxException();
+			}
+			if (frames.peek().kind == FrameKind.GROUP) {
+				frames.peek().state = State.SUBJECT;
+			}
+		}
+
+		private boolean isTerm() {
+			return type == TokenType.IRI || type == TokenType.PREFIXED_NAME || type == TokenType.VARIABLE || type == TokenType.BLANK_NODE
+					|| type == TokenType.STRING || type == TokenType.NUMBER || isKeyword("true") || isKeyword("false");
+		}
+
+		private boolean isPathOperator() {
+			return isPunctuation('/') || isPunctuation('|') || isPunctuation('^') || isPunctuation('!')
+					|| isPunctuation('*') || isPunctuation('+') || isPunctuation('?');
+		}
+
+		private void replaceConstant() {
+			if (type == TokenType.IRI || type == TokenType.PREFIXED_NAME || type == TokenType.STRING || type == TokenType.NUMBER
+					|| isKeyword("true") || isKeyword("false")) {
+				replace();
+			}
+		}
+
+		private void replace() {
+			checkPrefixDeclared();
+			var term = term();
+			var placeholder = placeholders.get(term);
+			if (placeholder == null) {
+				int number = placeholders.size() + 1;
+				if (type == TokenType.STRING || type == TokenType.KEYWORD) {
+					placeholder = "\"" + number + "\"";
+				} else if (type == TokenType.NUMBER) {
+					placeholder = String.valueOf(number);
+				} else {
+					placeholder = "<" + IRI_PLACEHOLDER + number + ">";
+				}
+				placeholders.put(term, placeholder);
+			}
+			template.append(query, copied, tokenStart).append(placeholder);
+			copied = position;
+		}
+
+		// A query with an undeclared prefix must not turn into a valid template
+		private void checkPrefixDeclared() {
+			int prefixedName = type == TokenType.PREFIXED_NAME ? tokenStart : type == TokenType.STRING ? prefixedDatatypeStart : -1;
+			if (prefixedName >= 0 && namespace(query.substring(prefixedName, query.indexOf(':', prefixedName))) == null) {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		// The RDF term of the current constant, which is the same for all of its spellings
+		private String term() {
+			switch (type) {
+				case IRI:
+					return "<" + resolve(query.substring(tokenStart + 1, position - 1)) + ">";
+				case PREFIXED_NAME:
+					return expand(tokenStart, position);
+				case NUMBER:
+					var number = query.substring(tokenStart, position);
+					var datatype = number.indexOf('e') >= 0 || number.indexOf('E') >= 0 ? "double" : number.indexOf('.') >= 0 ? "decimal" : "integer";
+					return literal(number, "<" + XSD + datatype + ">");
+				case STRING:
+					return stringTerm();
+				default:
+					return literal(query.substring(tokenStart, position).toLowerCase(), "<" + XSD + "boolean>");
+			}
+		}
+
+		private String stringTerm() {
+			int quoteLength = query.startsWith(query.substring(tokenStart, tokenStart + 1).repeat(3), tokenStart) ? 3 : 1;
+			var lexicalForm = unescape(query.substring(tokenStart + quoteLength, literalEnd - quoteLength));
+			if (literalEnd == position) {
+				return literal(lexicalForm, "<" + XSD + "string>");
+			} else if (query.charAt(literalEnd) == '@') {
+				// Jena keeps the case of language tags, so "x"@en and "x"@EN stay two terms
+				return "\"" + lexicalForm + "\"" + query.substring(literalEnd, position);
+			} else if (prefixedDatatypeStart >= 0) {
+				return literal(lexicalForm, expand(prefixedDatatypeStart, position));
+			} else {
+				return literal(lexicalForm, "<" + resolve(query.substring(literalEnd + 3, position - 1)) + ">");
+			}
+		}
+
+		private static String literal(String lexicalForm, String datatype) {
+			return "\"" + lexicalForm + "\"^^" + datatype;
+		}
+
+		private String unescape(String escaped) {
+			if (escaped.indexOf('\\') < 0) {
+				return escaped;
+			}
+			var unescaped = new StringBuilder(escaped.length());
+			for (int i = 0; i < escaped.length(); i++) {
+				char c = escaped.charAt(i);
+				if (c != '\\') {
+					unescaped.append(c);
+					continue;
+				}
+				char escape = escaped.charAt(++i);
+				if (escape == 'u' || escape == 'U') {
+					int digits = escape == 'u' ? 4 : 8;
+					try {
+						unescaped.appendCodePoint(Integer.parseInt(escaped.substring(i + 1, i + 1 + digits), 16));
+					} catch (RuntimeException e) {
+						throw new UnsupportedSyntaxException();
+					}
+					i += digits;
+				} else {
+					unescaped.append("\t\b\n\r\f\"'\\".charAt("tbnrf\"'\\".indexOf(escape)));
+				}
+			}
+			return unescaped.toString();
+		}
+
+		// A prefixed name and the full IRI of the same constant share their placeholder
+		private String expand(int start, int end) {
+			int colon = query.indexOf(':', start);
+			var localName = query.substring(colon + 1, end).replace("\\", "");
+			return "<" + namespace(query.substring(start, colon)) + localName + ">";
+		}
+
+		// Like Jena, relative IRIs are resolved against the BASE of the query
+		private String resolve(String iri) {
+			if (base == null || iri.matches("[A-Za-z][A-Za-z0-9+.-]*:.*")) {
+				return iri;
+			}
+			try {
+				return URI.create(base).resolve(iri).toString();
+			} catch (IllegalArgumentException e) {
+				throw new UnsupportedSyntaxException();
+			}
+		}
+
+		private String namespace(String prefix) {
+			var namespace = namespaces.get(prefix);
+			return namespace != null ? namespace : defaultPrefixes.getNamespace(prefix);
+		}
+
+		private boolean isPunctuation(char c) {
+			return type == TokenType.PUNCTUATION && position - tokenStart == 1 && query.charAt(tokenStart) == c;
+		}
+
+		private boolean isKeyword(String keyword) {
+			return type == TokenType.KEYWORD && position - tokenStart == keyword.length()
+					&& query.regionMatches(keyword.length() > 1, tokenStart, keyword, 0, keyword.length());
+		}
+
+		private TokenType nextToken() {
+			skipWhitespaceAndComments();
+			tokenStart = position;
+			if (position == query.length()) {
+				return type = TokenType.END;
+			}
+
+			char c = query.charAt(position);
+			if (c == '<' && scanIri()) {
+				return type = TokenType.IRI;
+			} else if (c == '"' || c == '\'') {
+				scanString(c);
+				return type = TokenType.STRING;
+			} else if (isDigit(c) || (c == '+' || c == '-') && position + 1 < query.length() && isDigit(query.charAt(position + 1))) {
+				scanNumber();
+				return type = TokenType.NUMBER;
+			} else if ((c == '?' || c == '$') && position + 1 < query.length() && isNameCharacter(query.charAt(position + 1))) {
+				position++;
+				scanName();
+				return type = TokenType.VARIABLE;
+			} else if (c == '_' && position + 1 < query.length() && query.charAt(position + 1) == ':') {
+				position += 2;
+				scanName();
+				return type = TokenType.BLANK_NODE;
+			} else if (Character.isLetter(c) || c == ':') {
+				boolean prefixed = scanName();
+				return type = prefixed ? TokenType.PREFIXED_NAME : TokenType.KEYWORD;
+			} else {
+				position++;
+				return type = TokenType.PUNCTUATION;
+			}
+		}
+
+		private void skipWhitespaceAndComments() {
+			while (position < query.length()) {
+				char c = query.charAt(position);
+				if (c == '#') {
+					while (position < query.length() && query.charAt(position) != '\n') {
+						position++;
+					}
+				} else if (Character.isWhitespace(c)) {
+					position++;
+				} else {
+					return;
+				}
+			}
+		}
+
+		// Otherwise the < is a comparison
+		private boolean scanIri() {
+			for (int i = position + 1; i < query.length(); i++) {
+				char c = query.charAt(i);
+				if (c == '>') {
+					position = i + 1;
+					return true;
+				} else if (c <= ' ' || c == '<' || c == '"' || c == '{' || c == '}' || c == '|' || c == '^' || c == '`' || c == '\\') {
+					return false;
+				}
+			}
+			return false;
+		}
+
+		private void scanString(char quote) {
+			prefixedDatatypeStart = -1;
+			boolean isLong = query.startsWith(String.valueOf(quote).repeat(3), position);
+			position += isLong ? 3 : 1;
+			while (true) {
+				if (position >= query.length()) {
+					throw new UnsupportedSyntaxException();
+				}
+				char c = query.charAt(position);
+				if (c == '\\') {
+					// Likewise, a query with an invalid escape sequence must not turn into a valid template
+					if (position + 1 >= query.length() || "tbnrf\"'\\uU".indexOf(query.charAt(position + 1)) < 0) {
+						throw new UnsupportedSyntaxException();
+					}
+					position += 2;
+				} else if (c == quote && (!isLong || query.startsWith(String.valueOf(quote).repeat(3), position))) {
+					position += isLong ? 3 : 1;
+					literalEnd = position;
+					break;
+				} else {
+					position++;
+				}
+			}
+
+			// A language tag or a datatype belongs to the literal
+			if (position < query.length() && query.charAt(position) == '@') {
+				position++;
+				while (position < query.length() && (Character.isLetterOrDigit(query.charAt(position)) || query.charAt(position) == '-')) {
+					position++;
+				}
+			} else if (query.startsWith("^^", position)) {
+				position += 2;
+				if (position < query.length() && query.charAt(position) == '<') {
+					if (!scanIri()) {
+						throw new UnsupportedSyntaxException();
+					}
+				} else {
+					prefixedDatatypeStart = position;
+					if (!scanName()) {
+						throw new UnsupportedSyntaxException();
+					}
+				}
+			}
+		}
+
+		private void scanNumber() {
+			position++;
+			while (position < query.length() && isDigit(query.charAt(position))) {
+				position++;
+			}
+			if (position + 1 < query.length() && query.charAt(position) == '.' && isDigit(query.charAt(position + 1))) {
+				position++;
+				while (position < query.length() && isDigit(query.charAt(position))) {
+					position++;
+				}
+			}
+			if (position < query.length() && (query.charAt(position) == 'e' || query.charAt(position) == 'E')) {
+				position++;
+				if (position < query.length() && (query.charAt(position) == '+' || query.charAt(position) == '-')) {
+					position++;
+				}
+				while (position < query.length() && isDigit(query.charAt(position))) {
+					position++;
+				}
+			}
+		}
+
+		// Scans a keyword or a prefixed name and tells whether it was a prefixed name; names never end with a dot
+		private boolean scanName() {
+			boolean prefixed = false;
+			while (position < query.length()) {
+				char c = query.charAt(position);
+				if (c == '\\' || c == '%') {
+					position += c == '\\' ? 2 : 3;
+				} else if (c == ':') {
+					prefixed = true;
+					position++;
+				} else if (isNameCharacter(c) || c == '-' || c == '.' && position + 1 < query.length() && isNameCharacter(query.charAt(position + 1))) {
+					position++;
+				} else {
+					break;
+				}
+			}
+			position = Math.min(position, query.length());
+			return prefixed;
+		}
+
+		private static boolean isDigit(char c) {
+			return c >= '0' && c <= '9';
+		}
+
+		private static boolean isNameCharacter(char c) {
+			return Character.isLetterOrDigit(c) || c == '_';
+		}
+	}
+
+	private static class UnsupportedSyntaxException extends RuntimeException {
+		private UnsupportedSyntaxException() {
+			super(null, null, false, false);
+		}
+	}
+}
@@ -3,30 +3,180 @@ package at.hadl.logstatistics.utils;
 import at.hadl.logstatistics.utils.graphbuilding.LabeledEdge;
 import org.jgrapht.graph.DefaultDirectedGraph;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 /*
 Converts a collection of query graphs into a string representation of the partitions required to cover those graphs.
+A star shape is the sorted set of the predicate ids of the outgoing edges of a vertex, the representation is the sorted list
+of the distinct star shapes of all graphs, e.g. ["1,2","3"]. While counting, the same list is represented by a compact binary key.
  */
 public class RequiredPartitionsExtractor {
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L};
+
     public static Optional<String> extractStarShapes(List<DefaultDirectedGraph<String, LabeledEdge>> queryGraphs) {
         if (queryGraphs.isEmpty()) {
             return Optional.empty();
         }
 
-        return Optional.of(queryGraphs.stream()
-                .flatMap(queryGraph -> queryGraph.vertexSet().stream()
-                        .filter(vertex -> !queryGraph.outgoingEdgesOf(vertex).isEmpty())
-                        .map(vertex -> queryGraph.outgoingEdgesOf(vertex).stream()
-                                .map(LabeledEdge::getPredicate)
-                                .distinct()
-                                .sorted()
-                                .map(Object::toString)
-                                .collect(Collectors.joining(",", "\"", "\""))))
-                .distinct()
-                .sorted()
-                .collect(Collectors.joining(",", "[", "]")));
+        var starShapes = new ArrayList<int[]>();
+        for (var queryGraph : queryGraphs) {
+            for (var vertex : queryGraph.vertexSet()) {
+                var outgoingEdges = queryGraph.outgoingEdgesOf(vertex);
+                if (!outgoingEdges.isEmpty()) {
+                    var predicates = new int[outgoingEdges.size()];
+                    int i = 0;
+                    for (var edge : outgoingEdges) {
+                        predicates[i++] = edge.getPredicate();
+                    }
+                    starShapes.add(sortedDistinct(predicates));
+                }
+            }
+        }
+
+        return Optional.of(formatStarShapes(starShapes));
+    }
+
+    /*
+    Formats star shapes (sorted arrays of distinct predicate ids, possibly repeated) in one pass. The star shapes are ordered like
+    their string representations, without creating those strings.
+     */
+    public static String formatStarShapes(List<int[]> starShapes) {
+        var sortedStarShapes = starShapes.toArray(new int[0][]);
+        Arrays.sort(sortedStarShapes, RequiredPartitionsExtractor::compareStarShapes);
+
+        var representation = new StringBuilder(2 + sortedStarShapes.length * 8);
+        representation.append('[');
+        int[] previous = null;
+        for (var starShape : sortedStarShapes) {
+            if (previous != null && Arrays.equals(previous, starShape)) {
+                continue;
+            }
+            if (previous != null) {
+                representation.append(',');
+            }
+            representation.append('"');
+            for (int i = 0; i < starShape.length; i++) {
+                if (i > 0) {
+                    representation.append(',');
+                }
+                representation.append(starShape[i]);
+            }
+            representation.append('"');
+            previous = starShape;
+        }
+        return representation.append(']').toString();
+    }
+
+    /*
+    The canonical binary key of star shapes: the number of distinct star shapes, then for every star shape (in the order of
+    formatStarShapes) its length and its predicate ids as differences to the previous id, all as unsigned varints.
+     */
+    public static byte[] encodeStarShapes(List<int[]> starShapes) {
+        var sortedStarShapes = starShapes.toArray(new int[0][]);
+        Arrays.sort(sortedStarShapes, RequiredPartitionsExtractor::compareStarShapes);
+
+        int distinct = 0;
+        int maxLength = 5;
+        for (int i = 0; i < sortedStarShapes.length; i++) {
+            if (i == 0 || !Arrays.equals(sortedStarShapes[i], sortedStarShapes[distinct - 1])) {
+                sortedStarShapes[distinct++] = sortedStarShapes[i];
+                maxLength += 5 * (sortedStarShapes[i].length + 1);
+            }
+        }
+
+        var key = new byte[maxLength];
+        int position = writeVarint(key, 0, distinct);
+        for (int i = 0; i < distinct; i++) {
+            var starShape = sortedStarShapes[i];
+            position = writeVarint(key, position, starShape.length);
+            int previous = 0;
+            for (int predicate : starShape) {
+                position = writeVarint(key, position, predicate - previous);
+                previous = predicate;
+            }
+        }
+        return Arrays.copyOf(key, position);
+    }
+
+    public static List<int[]> decodeStarShapes(byte[] key) {
+        var position = new int[1];
+        int count = readVarint(key, position);
+        var starShapes = new ArrayList<int[]>(count);
+        for (int i = 0; i < count; i++) {
+            var starShape = new int[readVarint(key, position)];
+            int previous = 0;
+            for (int j = 0; j < starShape.length; j++) {
+                previous += readVarint(key, position);
+                starShape[j] = previous;
+            }
+            starShapes.add(starShape);
+        }
+        return starShapes;
+    }
+
+    private static int writeVarint(byte[] bytes, int position, int value) {
+        while ((value & ~0x7f) != 0) {
+            bytes[position++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /*
+    Sorts the predicate ids in place and returns the distinct prefix.
+     */
+    public static int[] sortedDistinct(int[] predicates) {
+        Arrays.sort(predicates);
+        int distinct = 0;
+        for (int i = 0; i < predicates.length; i++) {
+            if (i == 0 || predicates[i] != predicates[i - 1]) {
+                predicates[distinct++] = predicates[i];
+            }
+        }
+        return distinct == predicates.length ? predicates : Arrays.copyOf(predicates, distinct);
+    }
+
+    // Compares "a,b,c" with "x,y": the closing quote (34) sorts before the comma (44), which sorts before the digits
+    private static int compareStarShapes(int[] starShape1, int[] starShape2) {
+        int length = Math.min(starShape1.length, starShape2.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = compareAsStrings(starShape1[i], starShape2[i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(starShape1.length, starShape2.length);
+    }
+
+    // Compares the decimal strings of two non-negative numbers by padding the shorter one with zeros
+    private static int compareAsStrings(int number1, int number2) {
+        int digits1 = digits(number1);
+        int digits2 = digits(number2);
+        long padded1 = number1 * POWERS_OF_TEN[Math.max(0, digits2 - digits1)];
+        long padded2 = number2 * POWERS_OF_TEN[Math.max(0, digits1 - digits2)];
+        return padded1 != padded2 ? Long.compare(padded1, padded2) : Integer.compare(digits1, digits2);
+    }
+
+    private static int digits(int number) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && number >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
     }
 }
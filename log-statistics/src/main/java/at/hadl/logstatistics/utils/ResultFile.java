@@ -0,0 +1,155 @@
+package at.hadl.logstatistics.utils;
+
+import at.hadl.logstatistics.utils.QueryShapeTable.ShapeCountConsumer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+The exact results of an analysis in a binary form that can be merged with the results of other analyses (see ResultMerger):
+the meta-information counts, the feature combination counts, the predicate map that the query shapes refer to, and the query
+shape counts by their binary keys. Unlike the TSV files, it can be read without parsing the query shapes again.
+
+Result files are GZIP-compressed like checkpoints. The query shapes are streamed, so writing and reading a result file does not
+hold all query shapes in memory; they end with a key length of -1. A result file is written to a temporary file first and only
+moved to its path once it is complete.
+ */
+public class ResultFile {
+	private static final int MAGIC = 0x4c535246;
+	private static final int VERSION = 1;
+	private static final int END_OF_SHAPES = -1;
+
+	public static Path resultPathFor(String outFile) {
+		return Paths.get(outFile + ".result");
+	}
+
+	/*
+	Starts a result file with everything but the query shapes, which are then added one by one.
+	 */
+	public static Writer writer(Path path, Map<String, Long> metaInformationCounts, LongCountMap featureCombinationCounts, Map<String, Integer> predicateMap) throws IOException {
+		var writer = new Writer(path);
+		try {
+			writer.output.writeInt(MAGIC);
+			writer.output.writeInt(VERSION);
+			Checkpoint.writeCounts(writer.output, metaInformationCounts);
+			featureCombinationCounts.write(writer.output);
+			writer.output.writeInt(predicateMap.size());
+			for (var entry : predicateMap.entrySet()) {
+				Checkpoint.writeString(writer.output, entry.getKey());
+				writer.output.writeInt(entry.getValue());
+			}
+		} catch (IOException e) {
+			writer.close();
+			throw e;
+		}
+		return writer;
+	}
+
+	/*
+	Reads everything but the query shapes, which can then be read with forEachShape.
+	 */
+	public static Reader reader(Path path) throws IOException {
+		var input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path), 65536)));
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException("Not a result file of a supported version: " + path.toString());
+			}
+
+			var metaInformationCounts = Checkpoint.readCounts(input);
+			var featureCombinationCounts = LongCountMap.read(input);
+			int predicates = input.readInt();
+			var predicateMap = new HashMap<String, Integer>(predicates * 2);
+			for (int i = 0; i < predicates; i++) {
+				predicateMap.put(Checkpoint.readString(input), input.readInt());
+			}
+			return new Reader(input, metaInformationCounts, featureCombinationCounts, predicateMap);
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+	}
+
+	public static class Writer implements Closeable {
+		private final Path path;
+		private final Path tempFile;
+		private final DataOutputStream output;
+		private boolean finished = false;
+
+		private Writer(Path path) throws IOException {
+			this.path = path;
+			this.tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+			this.output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tempFile), 65536)));
+		}
+
+		public void addShape(byte[] key, long count) throws IOException {
+			output.writeInt(key.length);
+			output.write(key);
+			output.writeLong(count);
+		}
+
+		/*
+		Ends the query shapes and moves the complete result file to its path.
+		 */
+		public void finish() throws IOException {
+			output.writeInt(END_OF_SHAPES);
+			output.close();
+			finished = true;
+			Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		// Without finish, the incomplete result file is discarded
+		@Override
+		public void close() throws IOException {
+			if (!finished) {
+				output.close();
+				Files.deleteIfExists(tempFile);
+			}
+		}
+	}
+
+	public static class Reader implements Closeable {
+		private final DataInputStream input;
+		private final Map<String, Long> metaInformationCounts;
+		private final LongCountMap featureCombinationCounts;
+		private final Map<String, Integer> predicateMap;
+
+		private Reader(DataInputStream input, Map<String, Long> metaInformationCounts, LongCountMap featureCombinationCounts, Map<String, Integer> predicateMap) {
+			this.input = input;
+			this.metaInformationCounts = metaInformationCounts;
+			this.featureCombinationCounts = featureCombinationCounts;
+			this.predicateMap = predicateMap;
+		}
+
+		public Map<String, Long> getMetaInformationCounts() {
+			return metaInformationCounts;
+		}
+
+		public LongCountMap getFeatureCombinationCounts() {
+			return featureCombinationCounts;
+		}
+
+		public Map<String, Integer> getPredicateMap() {
+			return predicateMap;
+		}
+
+		public void forEachShape(ShapeCountConsumer consumer) throws IOException {
+			for (int length = input.readInt(); length != END_OF_SHAPES; length = input.readInt()) {
+				var key = new byte[length];
+				input.readFully(key);
+				consumer.accept(key, input.readLong());
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+}
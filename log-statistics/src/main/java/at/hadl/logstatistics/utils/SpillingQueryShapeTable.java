@@ -0,0 +1,308 @@
+package at.hadl.logstatistics.utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/*
+Counts query shapes exactly like QueryShapeTable, but keeps at most maxShapesInMemory distinct query shapes in memory.
+Whenever the in-memory table grows beyond that, it is written to a run file in the spill directory, sorted by the query shape
+keys, and counting continues in an empty table. At the end, the runs are merged k-way, which sums up the counts of each query
+shape across the runs, and the merged counts are sorted by count with an external sort of the same run size. So the heap that
+counting and writing the results take does not depend on the number of distinct query shapes. At most MAX_MERGE_WIDTH runs are
+merged at once (each one takes a file descriptor and a buffer); more runs are first merged in passes into intermediate runs.
+
+Adding counts takes a shared lock, spilling an exclusive one, so the threads of the aggregation stage only wait for each other
+while a run is written. The runs are never changed once written, so a Checkpoint can refer to them (see spill and resumeRuns).
+ */
+public class SpillingQueryShapeTable {
+	private static final Comparator<Map.Entry<byte[], Long>> BY_KEY = (first, second) -> Arrays.compareUnsigned(first.getKey(), second.getKey());
+	private static final Comparator<Map.Entry<byte[], Long>> BY_COUNT_DESCENDING = Map.Entry.comparingByValue(Comparator.reverseOrder());
+	static final int MAX_MERGE_WIDTH = 128;
+
+	private final Path directory;
+	private final long maxShapesInMemory;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final AtomicLong shapesInMemory = new AtomicLong();
+	private final List<Path> runs = new ArrayList<>();
+	private QueryShapeTable table = new QueryShapeTable();
+	private int nextRun = 0;
+
+	public SpillingQueryShapeTable(Path directory, long maxShapesInMemory) {
+		this.directory = directory;
+		this.maxShapesInMemory = maxShapesInMemory;
+	}
+
+	public void add(byte[] key, long count) {
+		boolean full;
+		lock.readLock().lock();
+		try {
+			full = table.add(key, count) && shapesInMemory.incrementAndGet() > maxShapesInMemory;
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		if (full) {
+			lock.writeLock().lock();
+			try {
+				// Another thread may have spilled the table in the meantime
+				if (shapesInMemory.get() > maxShapesInMemory) {
+					spillTable();
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/*
+	Writes the in-memory counts to a run, so that all counts are in the runs (e.g. before a checkpoint refers to them).
+	 */
+	public void spill() {
+		lock.writeLock().lock();
+		try {
+			spillTable();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	The file names of the runs in the spill directory.
+	 */
+	public List<String> getRuns() {
+		lock.readLock().lock();
+		try {
+			return runs.stream().map(run -> run.getFileName().toString()).collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	Continues with the runs of a checkpoint. Runs in the spill directory that the checkpoint does not know (i.e. those written
+	after the checkpoint) are deleted.
+	 */
+	public void resumeRuns(List<String> checkpointRuns) {
+		lock.writeLock().lock();
+		try {
+			var known = new HashSet<>(checkpointRuns);
+			if (Files.isDirectory(directory)) {
+				try (var files = Files.list(directory)) {
+					for (var file : files.collect(Collectors.toList())) {
+						if (!known.contains(file.getFileName().toString())) {
+							Files.delete(file);
+						}
+					}
+				}
+			}
+			for (var name : checkpointRuns) {
+				runs.add(directory.resolve(name));
+				nextRun = Math.max(nextRun, Integer.parseInt(name.substring(name.indexOf('-') + 1, name.indexOf('.'))) + 1);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not clean up the spill directory " + directory.toString(), e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	Passes the summed up counts of all query shapes to the consumer, the most frequent first. No counts may be added meanwhile.
+	 */
+	public void forEachByCountDescending(SortedShapeCountConsumer consumer) throws IOException {
+		spill();
+
+		// The runs themselves are kept for the checkpoints, all other runs are deleted at the end
+		var temporaryRuns = new ArrayList<Path>();
+		try {
+			// Merging by key gives each query shape once with its total count, which is sorted by count into new runs
+			var countRuns = new ArrayList<Path>();
+			var batch = new ArrayList<Map.Entry<byte[], Long>>();
+			merge(mergePasses(runs, BY_KEY, true, temporaryRuns), BY_KEY, true, (key, count) -> {
+				batch.add(Map.entry(key, count));
+				if (batch.size() >= maxShapesInMemory) {
+					countRuns.add(writeRun(batch, BY_COUNT_DESCENDING));
+					batch.clear();
+				}
+			});
+			if (!batch.isEmpty()) {
+				countRuns.add(writeRun(batch, BY_COUNT_DESCENDING));
+				batch.clear();
+			}
+			temporaryRuns.addAll(countRuns);
+
+			merge(mergePasses(countRuns, BY_COUNT_DESCENDING, false, temporaryRuns), BY_COUNT_DESCENDING, false, consumer);
+		} finally {
+			for (var temporaryRun : temporaryRuns) {
+				Files.deleteIfExists(temporaryRun);
+			}
+		}
+	}
+
+	/*
+	Deletes all runs and the spill directory.
+	 */
+	public void deleteRuns() throws IOException {
+		for (var run : runs) {
+			Files.deleteIfExists(run);
+		}
+		runs.clear();
+		if (Files.isDirectory(directory)) {
+			try (var files = Files.list(directory)) {
+				if (files.findAny().isEmpty()) {
+					Files.delete(directory);
+				}
+			}
+		}
+	}
+
+	private void spillTable() {
+		if (shapesInMemory.get() == 0) {
+			return;
+		}
+
+		var entries = new ArrayList<Map.Entry<byte[], Long>>();
+		table.forEach((key, count) -> entries.add(Map.entry(key, count)));
+		try {
+			runs.add(writeRun(entries, BY_KEY));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not spill the query shape counts to " + directory.toString(), e);
+		}
+		table = new QueryShapeTable();
+		shapesInMemory.set(0);
+	}
+
+	private Path writeRun(List<Map.Entry<byte[], Long>> entries, Comparator<Map.Entry<byte[], Long>> order) throws IOException {
+		entries.sort(order);
+		var run = nextRun();
+		try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 65536))) {
+			output.writeLong(entries.size());
+			for (var entry : entries) {
+				writeEntry(output, entry.getKey(), entry.getValue());
+			}
+		}
+		return run;
+	}
+
+	// Merges groups of MAX_MERGE_WIDTH runs into intermediate runs (added to temporaryRuns) until at most that many are left
+	private List<Path> mergePasses(List<Path> runs, Comparator<Map.Entry<byte[], Long>> order, boolean sumEqualKeys, List<Path> temporaryRuns) throws IOException {
+		while (runs.size() > MAX_MERGE_WIDTH) {
+			var mergedRuns = new ArrayList<Path>();
+			for (int from = 0; from < runs.size(); from += MAX_MERGE_WIDTH) {
+				var group = runs.subList(from, Math.min(from + MAX_MERGE_WIDTH, runs.size()));
+				if (group.size() == 1) {
+					mergedRuns.add(group.get(0));
+					continue;
+				}
+
+				var mergedRun = nextRun();
+				temporaryRuns.add(mergedRun);
+				var entries = new AtomicLong();
+				try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(mergedRun), 65536))) {
+					// The number of entries is only known after the merge
+					output.writeLong(0);
+					merge(group, order, sumEqualKeys, (key, count) -> {
+						writeEntry(output, key, count);
+						entries.incrementAndGet();
+					});
+				}
+				try (var file = new RandomAccessFile(mergedRun.toFile(), "rw")) {
+					file.writeLong(entries.get());
+				}
+				mergedRuns.add(mergedRun);
+			}
+			runs = mergedRuns;
+		}
+		return runs;
+	}
+
+	private Path nextRun() throws IOException {
+		Files.createDirectories(directory);
+		return directory.resolve("run-" + nextRun++ + ".bin");
+	}
+
+	private static void writeEntry(DataOutputStream output, byte[] key, long count) throws IOException {
+		output.writeInt(key.length);
+		output.write(key);
+		output.writeLong(count);
+	}
+
+	// Merges runs that are sorted in the given order; with sumEqualKeys, the counts of equal keys in adjacent positions are summed up
+	private static void merge(List<Path> runs, Comparator<Map.Entry<byte[], Long>> order, boolean sumEqualKeys, SortedShapeCountConsumer consumer) throws IOException {
+		var readers = new ArrayList<RunReader>();
+		var queue = new PriorityQueue<RunReader>((first, second) -> order.compare(first.current, second.current));
+		try {
+			for (var run : runs) {
+				var reader = new RunReader(run);
+				readers.add(reader);
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+
+			byte[] key = null;
+			long count = 0;
+			while (!queue.isEmpty()) {
+				var reader = queue.poll();
+				var entry = reader.current;
+				if (sumEqualKeys && key != null && Arrays.equals(key, entry.getKey())) {
+					count += entry.getValue();
+				} else {
+					if (key != null) {
+						consumer.accept(key, count);
+					}
+					key = entry.getKey();
+					count = entry.getValue();
+				}
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+			if (key != null) {
+				consumer.accept(key, count);
+			}
+		} finally {
+			for (var reader : readers) {
+				reader.input.close();
+			}
+		}
+	}
+
+	public interface SortedShapeCountConsumer {
+		void accept(byte[] key, long count) throws IOException;
+	}
+
+	private static class RunReader {
+		private final DataInputStream input;
+		private long remaining;
+		private Map.Entry<byte[], Long> current;
+
+		private RunReader(Path run) throws IOException {
+			input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 65536));
+			remaining = input.readLong();
+		}
+
+		private boolean next() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			var key = new byte[input.readInt()];
+			input.readFully(key);
+			current = Map.entry(key, input.readLong());
+			return true;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package at.hadl.logstatistics.utils.graphbuilding;
+
+/*
+Limits the work of a single walk over a query pattern. Every combination of triple collections that the path walker creates,
+and every combination of star edges that a TripleExpression derives, is charged against a maximum number of combinations, and
+every charge also checks the time since the walk started (unless the time is unlimited). When the budget is exhausted, an
+ExpansionLimitExceededException aborts the work before the next cross product is materialized. The exception tells whether the
+time limit was exceeded, because unlike the other limits, that one depends on the load of the machine and not only on the query.
+ */
+class ExpansionBudget {
+	private final long maxCombinations;
+	private final boolean timeLimited;
+	private final long deadlineNanos;
+	private long combinations = 0;
+
+	// A maxWalkMillis of 0 does not limit the time
+	ExpansionBudget(long maxCombinations, long maxWalkMillis) {
+		this.maxCombinations = maxCombinations;
+		this.timeLimited = maxWalkMillis > 0;
+		this.deadlineNanos = System.nanoTime() + maxWalkMillis * 1_000_000;
+	}
+
+	void charge(long newCombinations) {
+		combinations += newCombinations;
+		if (combinations > maxCombinations || combinations < 0) {
+			throw new ExpansionLimitExceededException("More than " + maxCombinations + " combinations of triple collections");
+		}
+		if (timeLimited && System.nanoTime() - deadlineNanos > 0) {
+			throw new ExpansionLimitExceededException("The walk took longer than its time budget", true);
+		}
+	}
+
+	static class ExpansionLimitExceededException extends RuntimeException {
+		private final boolean timeLimit;
+
+		ExpansionLimitExceededException(String message) {
+			this(message, false);
+		}
+
+		ExpansionLimitExceededException(String message, boolean timeLimit) {
+			super(message, null, false, false);
+			this.timeLimit = timeLimit;
+		}
+
+		boolean isTimeLimit() {
+			return timeLimit;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package at.hadl.logstatistics.utils.graphbuilding;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/*
+The encountered QueryFeatures and PathFeatures of a query, encoded as the bits of a long: the bit of a QueryFeature is its
+ordinal, the bit of a PathFeature is PATH_FEATURE_BIT + its ordinal. The names of the features are only needed for the output.
+ */
+public final class FeatureMask {
+    public static final int BITS = Long.SIZE;
+    private static final int PATH_FEATURE_BIT = 32;
+
+    private static final String[] NAMES = new String[BITS];
+
+    static {
+        for (var feature : QueryFeature.values()) {
+            NAMES[feature.ordinal()] = feature.name();
+        }
+        for (var feature : PathFeature.values()) {
+            NAMES[PATH_FEATURE_BIT + feature.ordinal()] = feature.name();
+        }
+    }
+
+    private FeatureMask() {
+    }
+
+    public static long of(QueryFeature feature) {
+        return 1L << feature.ordinal();
+    }
+
+    public static long of(PathFeature feature) {
+        return 1L << (PATH_FEATURE_BIT + feature.ordinal());
+    }
+
+    /*
+    The name of the feature of a bit, or null if no feature has this bit.
+     */
+    public static String name(int bit) {
+        return NAMES[bit];
+    }
+
+    public static Set<String> names(long mask) {
+        var names = new HashSet<String>();
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            names.add(NAMES[Long.numberOfTrailingZeros(remaining)]);
+        }
+        return names;
+    }
+
+    /*
+    The names of the features of a FeatureMask in the order of their bits, joined with "+", or "NONE" for a query without features.
+     */
+    public static String format(long mask) {
+        if (mask == 0) {
+            return "NONE";
+        }
+        var names = new StringJoiner("+");
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            names.add(NAMES[Long.numberOfTrailingZeros(remaining)]);
+        }
+        return names.toString();
+    }
+}
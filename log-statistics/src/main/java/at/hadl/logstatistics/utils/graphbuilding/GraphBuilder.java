@@ -2,15 +2,16 @@ package at.hadl.logstatistics.utils.graphbuilding;
 
 import at.hadl.logstatistics.utils.PredicateMap;
 import org.apache.jena.query.Query;
-import org.jgrapht.graph.DefaultDirectedGraph;
+import org.apache.jena.sparql.syntax.Element;
 
-import java.util.Collections;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.ArrayList;
+import java.util.List;
 
 /*
-Takes an Apache Jena ARQ query and constructs a list of query graphs (DefaultDirectedGraphs) for that query,
-collecting meta-information along the way (encountered SPARQL features, unsupported features, etc.)
+Takes an Apache Jena ARQ query (or just its query pattern, e.g. from the FastQueryParser) and constructs the query graphs for that
+query, collecting meta-information along the way (encountered SPARQL features, unsupported features, etc.). The star shapes are derived from the symbolic query graphs right away,
+the query graphs themselves (DefaultDirectedGraphs) only on demand.
+Queries whose alternatives exceed the expansion budget of the walker are only counted (EXPANSION_LIMIT), not expanded.
  */
 public class GraphBuilder {
     private TriplesElementWalkerFactory triplesElementWalkerFactory;
@@ -20,49 +21,53 @@ public class GraphBuilder {
     }
 
     public GraphBuildingResult constructGraphsFromQuery(Query query, final PredicateMap predicateMap) {
-        if (query.getQueryPattern() == null) {
-            return new GraphBuildingResult(Collections.emptyList(), Collections.singleton(QueryFeature.NO_GRAPH_PATTERN.name()));
+        return constructGraphsFromPattern(query.getQueryPattern(), predicateMap);
+    }
+
+    /*
+    The query pattern is null for queries without one (e.g. DESCRIBE <iri>).
+     */
+    public GraphBuildingResult constructGraphsFromPattern(Element queryPattern, final PredicateMap predicateMap) {
+        if (queryPattern == null) {
+            return GraphBuildingResult.withoutGraphs(FeatureMask.of(QueryFeature.NO_GRAPH_PATTERN));
         }
 
-        TriplesElementWalker triplesElementWalker = triplesElementWalkerFactory.createTripleElementWalker();
+        TriplesElementWalker triplesElementWalker = triplesElementWalkerFactory.createTripleElementWalker(predicateMap);
 
-        var tripleCollectionResult = triplesElementWalker.walk(query.getQueryPattern());
+        TripleExpression queryGraphs = null;
+        List<int[]> starShapes = null;
+        boolean expansionLimitExceeded = false;
+        boolean timeLimitExceeded = false;
+        try {
+            var tripleCollectionResult = triplesElementWalker.walk(queryPattern);
+            if (!triplesElementWalker.containsUnsupportedFeature()) {
+                var mainAndAdditionalQueryGraphs = new ArrayList<TripleExpression>();
+                mainAndAdditionalQueryGraphs.add(tripleCollectionResult.getMainQueryGraphs());
+                mainAndAdditionalQueryGraphs.addAll(tripleCollectionResult.getAdditionalQueryGraphs());
+                queryGraphs = TripleExpression.sum(mainAndAdditionalQueryGraphs);
+                var arena = QueryGraphArena.forCurrentThread();
+                arena.reset();
+                starShapes = queryGraphs.starShapes(triplesElementWalker.getBudget(), arena);
+            }
+        } catch (ExpansionBudget.ExpansionLimitExceededException e) {
+            expansionLimitExceeded = true;
+            timeLimitExceeded = e.isTimeLimit();
+        }
 
-        var encounteredFeatures = Stream.concat(
-                triplesElementWalker.getEncounteredQueryFeatures().stream(),
-                triplesElementWalker.getEncounteredPathFeatures().stream())
-                .map(Enum::name)
-                .collect(Collectors.toSet());
+        long encounteredFeatures = triplesElementWalker.getEncounteredFeatures();
 
-        if (triplesElementWalker.containsUnsupportedFeature()) {
-            encounteredFeatures.add(QueryFeature.UNSUPPORTED_FEATURE.name());
-            return new GraphBuildingResult(Collections.emptyList(), encounteredFeatures);
+        if (expansionLimitExceeded) {
+            return GraphBuildingResult.expansionLimited(encounteredFeatures, timeLimitExceeded);
+        } else if (triplesElementWalker.containsUnsupportedFeature()) {
+            return GraphBuildingResult.withoutGraphs(encounteredFeatures | FeatureMask.of(QueryFeature.UNSUPPORTED_FEATURE));
         } else {
-            var queryGraphs = Stream.concat(
-                    tripleCollectionResult.getMainQueryGraphs().stream(),
-                    tripleCollectionResult.getAdditionalQueryGraphs().stream())
-                    .map(triples -> {
-                        final DefaultDirectedGraph<String, LabeledEdge> queryGraph = new DefaultDirectedGraph<>(LabeledEdge.class);
-                        triples.stream()
-                                .flatMap(triple -> Stream.of(triple.getSubject().toString(), triple.getObject().toString()))
-                                .distinct()
-                                .forEach(queryGraph::addVertex);
-
-                        triples.forEach(triple -> queryGraph.addEdge(
-                                triple.getSubject().toString(),
-                                triple.getObject().toString(),
-                                new LabeledEdge(predicateMap.getIntForPredicate(triple.getPredicate().toString()))
-                        ));
-
-                        return queryGraph;
-                    }).collect(Collectors.toList());
-
-            if (queryGraphs.isEmpty() || queryGraphs.stream().allMatch(graph -> graph.edgeSet().isEmpty())) {
-                encounteredFeatures.add(QueryFeature.EMPTY_GRAPH_PATTERN.name());
-                System.out.println(query);
+            // A query graph has an edge if and only if it has a star
+            if (starShapes.isEmpty()) {
+                encounteredFeatures |= FeatureMask.of(QueryFeature.EMPTY_GRAPH_PATTERN);
+                System.out.println(queryPattern);
             }
 
-            return new GraphBuildingResult(queryGraphs, encounteredFeatures);
+            return new GraphBuildingResult(queryGraphs, triplesElementWalker.getNodes(), starShapes, encounteredFeatures);
         }
     }
 }
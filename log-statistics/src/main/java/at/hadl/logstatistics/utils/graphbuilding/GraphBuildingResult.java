@@ -2,23 +2,84 @@ package at.hadl.logstatistics.utils.graphbuilding;
 
 import org.jgrapht.graph.DefaultDirectedGraph;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 public class GraphBuildingResult {
+    private TripleExpression queryGraphs;
+    private QueryNodes nodes;
+    private List<int[]> starShapes;
+    private long encounteredFeatures;
     private List<DefaultDirectedGraph<String, LabeledEdge>> constructedGraphs;
-    private Set<String> encounteredFeatures;
+    private boolean timeLimited = false;
 
-    GraphBuildingResult(List<DefaultDirectedGraph<String, LabeledEdge>> constructedGraphs, Set<String> encounteredFeatures) {
-        this.constructedGraphs = constructedGraphs;
+    GraphBuildingResult(TripleExpression queryGraphs, QueryNodes nodes, List<int[]> starShapes, long encounteredFeatures) {
+        this.queryGraphs = queryGraphs;
+        this.nodes = nodes;
+        this.starShapes = starShapes;
         this.encounteredFeatures = encounteredFeatures;
     }
 
+    static GraphBuildingResult withoutGraphs(long encounteredFeatures) {
+        return new GraphBuildingResult(TripleExpression.NOTHING, null, Collections.emptyList(), encounteredFeatures);
+    }
+
+    static GraphBuildingResult expansionLimited(long encounteredFeatures, boolean timeLimited) {
+        var result = withoutGraphs(encounteredFeatures | FeatureMask.of(QueryFeature.EXPANSION_LIMIT));
+        result.timeLimited = timeLimited;
+        return result;
+    }
+
+    /*
+    Every alternative query graph of the query. The graphs are only built on the first call, which is exponential in the number of
+    alternatives; use getStarShapes() where the star shapes are sufficient.
+     */
     public List<DefaultDirectedGraph<String, LabeledEdge>> getConstructedGraphs() {
+        if (constructedGraphs == null) {
+            constructedGraphs = queryGraphs.enumerate().stream()
+                    .map(triples -> {
+                        final DefaultDirectedGraph<String, LabeledEdge> queryGraph = new DefaultDirectedGraph<>(LabeledEdge.class);
+                        for (int i = 0; i < triples.length; i += 3) {
+                            queryGraph.addVertex(nodes.vertexName(triples[i]));
+                            queryGraph.addVertex(nodes.vertexName(triples[i + 2]));
+                        }
+
+                        for (int i = 0; i < triples.length; i += 3) {
+                            queryGraph.addEdge(nodes.vertexName(triples[i]), nodes.vertexName(triples[i + 2]), new LabeledEdge(triples[i + 1]));
+                        }
+
+                        return queryGraph;
+                    }).collect(Collectors.toList());
+        }
         return constructedGraphs;
     }
 
-    public Set<String> getEncounteredFeatures() {
+    /*
+    The star shapes over all query graphs (see RequiredPartitionsExtractor), or empty if the query has no query graphs.
+     */
+    public Optional<List<int[]>> getStarShapes() {
+        return queryGraphs.isNothing() ? Optional.empty() : Optional.of(starShapes);
+    }
+
+    /*
+    The encountered features as a FeatureMask.
+     */
+    public long getFeatureMask() {
         return encounteredFeatures;
     }
+
+    /*
+    Whether the graph building gave up (EXPANSION_LIMIT) because it ran out of time. Such a result depends on the load of the
+    machine, so the same query may well succeed the next time, and the result must not be reused for it (e.g. by a cache).
+     */
+    public boolean isTimeLimited() {
+        return timeLimited;
+    }
+
+    public Set<String> getEncounteredFeatures() {
+        return FeatureMask.names(encounteredFeatures);
+    }
 }
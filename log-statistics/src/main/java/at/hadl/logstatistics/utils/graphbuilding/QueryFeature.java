@@ -15,5 +15,6 @@ public enum QueryFeature {
     VARIABLE_PREDICATE,
     NO_GRAPH_PATTERN,
     EMPTY_GRAPH_PATTERN,
-    UNSUPPORTED_FEATURE
+    UNSUPPORTED_FEATURE,
+    EXPANSION_LIMIT
 }
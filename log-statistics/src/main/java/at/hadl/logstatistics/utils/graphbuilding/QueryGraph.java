@@ -0,0 +1,47 @@
+package at.hadl.logstatistics.utils.graphbuilding;
+
+/*
+A compact, immutable query graph of a single collection of triples, built by a QueryGraphArena.
+Vertices are int ids that are interned per query, edges are stored in compressed sparse row form: subject i has the edges
+[edgeStart(i), edgeEnd(i)) with the targets and predicate ids of those edges sorted by target.
+Like a DefaultDirectedGraph, the graph has at most one edge from one vertex to another; the first triple between them wins.
+
+All arrays live in one int[] of the arena: subjects (n), offsets (n + 1), targets (m), predicates (m).
+ */
+final class QueryGraph {
+    private final int[] data;
+    private final int subjectsStart;
+    private final int subjectCount;
+    private final int edgeCount;
+
+    QueryGraph(int[] data, int subjectsStart, int subjectCount, int edgeCount) {
+        this.data = data;
+        this.subjectsStart = subjectsStart;
+        this.subjectCount = subjectCount;
+        this.edgeCount = edgeCount;
+    }
+
+    int getSubjectCount() {
+        return subjectCount;
+    }
+
+    int getSubject(int subjectIndex) {
+        return data[subjectsStart + subjectIndex];
+    }
+
+    int edgeStart(int subjectIndex) {
+        return data[subjectsStart + subjectCount + subjectIndex];
+    }
+
+    int edgeEnd(int subjectIndex) {
+        return data[subjectsStart + subjectCount + subjectIndex + 1];
+    }
+
+    int getTarget(int edge) {
+        return data[subjectsStart + 2 * subjectCount + 1 + edge];
+    }
+
+    int getPredicate(int edge) {
+        return data[subjectsStart + 2 * subjectCount + 1 + edgeCount + edge];
+    }
+}
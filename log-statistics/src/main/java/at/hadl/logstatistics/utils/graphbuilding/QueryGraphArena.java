@@ -0,0 +1,111 @@
+package at.hadl.logstatistics.utils.graphbuilding;
+
+import java.util.Arrays;
+
+/*
+Builds the QueryGraphs of one query at a time from triple collections of its QueryNodes. Every thread has its own arena, which
+is reset before each query: the int[] that holds the graphs is reused, so building a graph allocates almost nothing.
+A graph stays valid until its arena is reset.
+ */
+final class QueryGraphArena {
+    private static final ThreadLocal<QueryGraphArena> ARENAS = ThreadLocal.withInitial(QueryGraphArena::new);
+
+    private static final int INITIAL_CAPACITY = 4096;
+    // An arena that grew beyond this size for a huge query starts small again with the next query
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    // The sort keys of the edges pack the subject, the target and the position of the triple into one long
+    private static final int KEY_BITS = 21;
+    private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+
+    private int[] data = new int[INITIAL_CAPACITY];
+    private int used = 0;
+    private long[] edgeKeys = new long[64];
+
+    static QueryGraphArena forCurrentThread() {
+        return ARENAS.get();
+    }
+
+    void reset() {
+        used = 0;
+        if (data.length > MAX_RETAINED_CAPACITY) {
+            data = new int[INITIAL_CAPACITY];
+        }
+        if (edgeKeys.length > MAX_RETAINED_CAPACITY) {
+            edgeKeys = new long[64];
+        }
+    }
+
+    QueryGraph build(int[] triples) {
+        int tripleCount = triples.length / 3;
+        if (tripleCount > KEY_MASK) {
+            throw new ExpansionBudget.ExpansionLimitExceededException("Too many triples in one query graph");
+        }
+        if (edgeKeys.length < tripleCount) {
+            edgeKeys = new long[Math.max(tripleCount, edgeKeys.length * 2)];
+        }
+
+        // The predicates go to the end of the reserved space first, they are moved into place once the edges are sorted
+        int start = reserve(4 * tripleCount + 1);
+        int predicatesByPosition = start + 3 * tripleCount + 1;
+        for (int i = 0; i < tripleCount; i++) {
+            long subject = triples[3 * i];
+            long target = triples[3 * i + 2];
+            if (subject > KEY_MASK || target > KEY_MASK) {
+                throw new ExpansionBudget.ExpansionLimitExceededException("Too many vertices in one query");
+            }
+            edgeKeys[i] = subject << (2 * KEY_BITS) | target << KEY_BITS | i;
+            data[predicatesByPosition + i] = triples[3 * i + 1];
+        }
+        Arrays.sort(edgeKeys, 0, tripleCount);
+
+        int subjectCount = 0;
+        int edgeCount = 0;
+        long previousEdge = -1;
+        for (int i = 0; i < tripleCount; i++) {
+            long edge = edgeKeys[i] >>> KEY_BITS;
+            if (edge != previousEdge) {
+                if (edgeCount == 0 || edge >>> KEY_BITS != previousEdge >>> KEY_BITS) {
+                    subjectCount++;
+                }
+                edgeKeys[edgeCount++] = edgeKeys[i];
+                previousEdge = edge;
+            }
+        }
+
+        // Final layout: subjects, offsets, targets, predicates (the predicates by position are read before they are overwritten)
+        int offsets = start + subjectCount;
+        int targets = offsets + subjectCount + 1;
+        int predicates = targets + edgeCount;
+        int subject = -1;
+        int subjectIndex = -1;
+        for (int edge = 0; edge < edgeCount; edge++) {
+            long key = edgeKeys[edge];
+            int edgeSubject = (int) (key >>> (2 * KEY_BITS));
+            if (edgeSubject != subject) {
+                subject = edgeSubject;
+                subjectIndex++;
+                data[start + subjectIndex] = subject;
+                data[offsets + subjectIndex] = edge;
+            }
+            data[targets + edge] = (int) (key >>> KEY_BITS & KEY_MASK);
+            edgeKeys[edge] = data[predicatesByPosition + (int) (key & KEY_MASK)];
+        }
+        data[offsets + subjectCount] = edgeCount;
+        for (int edge = 0; edge < edgeCount; edge++) {
+            data[predicates + edge] = (int) edgeKeys[edge];
+        }
+
+        used = predicates + edgeCount;
+        return new QueryGraph(data, start, subjectCount, edgeCount);
+    }
+
+    private int reserve(int size) {
+        if (used + size > data.length) {
+            // Graphs that were built before keep the old array, which still holds their data
+            data = Arrays.copyOf(data, Math.max(used + size, data.length * 2));
+        }
+        int start = used;
+        used += size;
+        return start;
+    }
+}
@@ -0,0 +1,65 @@
+package at.hadl.logstatistics.utils.graphbuilding;
+
+import at.hadl.logstatistics.utils.PredicateMap;
+import org.apache.jena.graph.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Interns the nodes of one query while its query pattern is walked, so that everything after the walk only deals with ints.
+Every subject and object gets a dense vertex id that is local to the query (variables by their name, other nodes by equality,
+which matches their string form), and every predicate gets its id from the PredicateMap.
+
+A collection of triples is an int[] with three ints per triple: subject vertex, predicate id and object vertex.
+The nodes are kept, so that the DefaultDirectedGraphs with the string form of the vertices can still be built on demand.
+ */
+final class QueryNodes {
+    static final int[] NO_TRIPLES = new int[0];
+
+    private final PredicateMap predicateMap;
+    private final Map<String, Integer> variableIds = new HashMap<>();
+    private final Map<Node, Integer> constantIds = new HashMap<>();
+    private final List<Node> vertices = new ArrayList<>();
+
+    QueryNodes(PredicateMap predicateMap) {
+        this.predicateMap = predicateMap;
+    }
+
+    int vertex(Node node) {
+        var id = node.isVariable() ? variableIds.get(node.getName()) : constantIds.get(node);
+        if (id == null) {
+            id = vertices.size();
+            vertices.add(node);
+            if (node.isVariable()) {
+                variableIds.put(node.getName(), id);
+            } else {
+                constantIds.put(node, id);
+            }
+        }
+        return id;
+    }
+
+    int predicate(Node predicate) {
+        return predicateMap.getIntForPredicate(predicate.getURI());
+    }
+
+    String vertexName(int vertex) {
+        return vertices.get(vertex).toString();
+    }
+
+    static int[] concat(int[] triples, int[] moreTriples) {
+        if (triples.length == 0) {
+            return moreTriples;
+        } else if (moreTriples.length == 0) {
+            return triples;
+        }
+
+        var combination = new int[triples.length + moreTriples.length];
+        System.arraycopy(triples, 0, combination, 0, triples.length);
+        System.arraycopy(moreTriples, 0, combination, triples.length, moreTriples.length);
+        return combination;
+    }
+}
@@ -0,0 +1,314 @@
+package at.hadl.logstatistics.utils.graphbuilding;
+
+import at.hadl.logstatistics.utils.RequiredPartitionsExtractor;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/*
+A symbolic representation of the alternative query graphs (collections of triples) of a query pattern.
+A fragment is a single collection of triples, a sum stands for the alternatives of all its parts, and a product stands for every
+combination of one alternative of its left part with one alternative of its right part (left triples first).
+NOTHING has no alternatives at all; like an empty list in the former cross combination, it is ignored by products.
+
+The star shapes of all alternatives are derived from the expression without enumerating the alternatives: the star of a subject
+in a combination only depends on the edges that each part of the combination contributes to that subject, so it is enough to
+combine the distinct contributions per subject. The work therefore grows with the number of distinct stars instead of the
+number of alternatives. The fragments are turned into compact QueryGraphs for this, using the vertex ids of the QueryNodes of the query.
+ */
+abstract class TripleExpression {
+    static final TripleExpression NOTHING = new Sum(Collections.emptyList());
+
+    private static final Set<Star> NO_STARS = Collections.singleton(Star.EMPTY);
+
+    private SubjectStars starsBySubject;
+
+    static TripleExpression fragment(int[] triples) {
+        return new Fragment(triples);
+    }
+
+    static TripleExpression alternatives(List<int[]> tripleCollections) {
+        return sum(tripleCollections.stream().map(TripleExpression::fragment).collect(Collectors.toList()));
+    }
+
+    static TripleExpression sum(List<TripleExpression> expressions) {
+        var parts = new ArrayList<TripleExpression>(expressions.size());
+        for (var expression : expressions) {
+            if (expression instanceof Sum) {
+                parts.addAll(((Sum) expression).parts);
+            } else {
+                parts.add(expression);
+            }
+        }
+
+        if (parts.isEmpty()) {
+            return NOTHING;
+        } else if (parts.size() == 1) {
+            return parts.get(0);
+        } else {
+            return new Sum(parts);
+        }
+    }
+
+    static TripleExpression product(TripleExpression left, TripleExpression right) {
+        if (left.isNothing() || left.isEmptyFragment()) {
+            return right.isNothing() ? left : right;
+        } else if (right.isNothing() || right.isEmptyFragment()) {
+            return left;
+        } else {
+            return new Product(left, right);
+        }
+    }
+
+    boolean isNothing() {
+        return this == NOTHING;
+    }
+
+    private boolean isEmptyFragment() {
+        return this instanceof Fragment && ((Fragment) this).triples.length == 0;
+    }
+
+    /*
+    Materializes every alternative. This is exponential in the number of products and only meant for consumers that really
+    need every single query graph.
+     */
+    abstract List<int[]> enumerate();
+
+    /*
+    The star shapes (sorted, distinct predicate ids of the outgoing edges of a subject) over all alternatives; a star shape
+    that occurs at several subjects is repeated. The query graphs of the fragments are built in the given arena, which must
+    not be reset before this method returns.
+     */
+    List<int[]> starShapes(ExpansionBudget budget, QueryGraphArena arena) {
+        var starShapes = new ArrayList<int[]>();
+        for (var stars : starsBySubject(budget, arena).stars) {
+            for (var star : stars) {
+                if (!star.isEmpty()) {
+                    starShapes.add(star.predicates());
+                }
+            }
+        }
+        return starShapes;
+    }
+
+    /*
+    For every subject, the distinct stars that it has in the alternatives of this expression. A subject that has no
+    outgoing edges in some alternative includes the empty star, subjects that are missing have no outgoing edges at all.
+    The result is cached, because products of optional parts share their left part with the sum that contains them.
+     */
+    private SubjectStars starsBySubject(ExpansionBudget budget, QueryGraphArena arena) {
+        if (starsBySubject == null) {
+            starsBySubject = computeStarsBySubject(budget, arena);
+        }
+        return starsBySubject;
+    }
+
+    abstract SubjectStars computeStarsBySubject(ExpansionBudget budget, QueryGraphArena arena);
+
+    private static class Fragment extends TripleExpression {
+        private final int[] triples;
+
+        private Fragment(int[] triples) {
+            this.triples = triples;
+        }
+
+        @Override
+        List<int[]> enumerate() {
+            return Collections.singletonList(triples);
+        }
+
+        @Override
+        SubjectStars computeStarsBySubject(ExpansionBudget budget, QueryGraphArena arena) {
+            var queryGraph = arena.build(triples);
+            var stars = new SubjectStars(queryGraph.getSubjectCount());
+            for (int i = 0; i < queryGraph.getSubjectCount(); i++) {
+                var edges = new long[queryGraph.edgeEnd(i) - queryGraph.edgeStart(i)];
+                for (int edge = queryGraph.edgeStart(i); edge < queryGraph.edgeEnd(i); edge++) {
+                    edges[edge - queryGraph.edgeStart(i)] = Star.edge(queryGraph.getTarget(edge), queryGraph.getPredicate(edge));
+                }
+                stars.add(queryGraph.getSubject(i), Collections.singleton(new Star(edges)));
+            }
+            return stars;
+        }
+    }
+
+    private static class Sum extends TripleExpression {
+        private final List<TripleExpression> parts;
+
+        private Sum(List<TripleExpression> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        List<int[]> enumerate() {
+            return parts.stream()
+                    .flatMap(part -> part.enumerate().stream())
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        SubjectStars computeStarsBySubject(ExpansionBudget budget, QueryGraphArena arena) {
+            var partStars = parts.stream()
+                    .map(part -> part.starsBySubject(budget, arena))
+                    .collect(Collectors.toList());
+
+            var subjects = SubjectStars.subjects(partStars);
+            var stars = new SubjectStars(subjects.length);
+            for (int subject : subjects) {
+                var subjectStars = new HashSet<Star>();
+                partStars.forEach(part -> subjectStars.addAll(part.get(subject)));
+                stars.add(subject, subjectStars);
+            }
+            return stars;
+        }
+    }
+
+    private static class Product extends TripleExpression {
+        private final TripleExpression left;
+        private final TripleExpression right;
+
+        private Product(TripleExpression left, TripleExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        List<int[]> enumerate() {
+            var rightCollections = right.enumerate();
+            return left.enumerate().stream()
+                    .flatMap(leftCollection -> rightCollections.stream()
+                            .map(rightCollection -> QueryNodes.concat(leftCollection, rightCollection)))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        SubjectStars computeStarsBySubject(ExpansionBudget budget, QueryGraphArena arena) {
+            var leftStars = left.starsBySubject(budget, arena);
+            var rightStars = right.starsBySubject(budget, arena);
+
+            var subjects = SubjectStars.subjects(List.of(leftStars, rightStars));
+            var stars = new SubjectStars(subjects.length);
+            for (int subject : subjects) {
+                var leftSubjectStars = leftStars.get(subject);
+                var rightSubjectStars = rightStars.get(subject);
+                budget.charge((long) leftSubjectStars.size() * rightSubjectStars.size());
+
+                var subjectStars = new HashSet<Star>();
+                for (var leftStar : leftSubjectStars) {
+                    for (var rightStar : rightSubjectStars) {
+                        subjectStars.add(leftStar.combine(rightStar));
+                    }
+                }
+                stars.add(subject, subjectStars);
+            }
+            return stars;
+        }
+    }
+
+    /*
+    The stars of the subjects of an expression, sorted by subject (vertex id).
+     */
+    private static class SubjectStars {
+        private final int[] subjects;
+        private final List<Set<Star>> stars;
+
+        private SubjectStars(int subjectCount) {
+            this.subjects = new int[subjectCount];
+            this.stars = new ArrayList<>(subjectCount);
+        }
+
+        private void add(int subject, Set<Star> subjectStars) {
+            subjects[stars.size()] = subject;
+            stars.add(subjectStars);
+        }
+
+        private Set<Star> get(int subject) {
+            int index = Arrays.binarySearch(subjects, subject);
+            return index >= 0 ? stars.get(index) : NO_STARS;
+        }
+
+        private static int[] subjects(List<SubjectStars> subjectStars) {
+            return subjectStars.stream()
+                    .flatMapToInt(stars -> Arrays.stream(stars.subjects))
+                    .sorted()
+                    .distinct()
+                    .toArray();
+        }
+    }
+
+    /*
+    The outgoing edges of a subject in one alternative, each packed into a long (target vertex, predicate id) and sorted by target.
+     */
+    private static class Star {
+        private static final Star EMPTY = new Star(new long[0]);
+
+        private final long[] edges;
+        private final int hashCode;
+
+        private Star(long[] edges) {
+            this.edges = edges;
+            this.hashCode = Arrays.hashCode(edges);
+        }
+
+        private static long edge(int target, int predicate) {
+            return (long) target << 32 | (predicate & 0xffffffffL);
+        }
+
+        private boolean isEmpty() {
+            return edges.length == 0;
+        }
+
+        /*
+        The edges of this star followed by the edges of the other star, where the first edge to a target wins.
+         */
+        private Star combine(Star other) {
+            if (other.isEmpty()) {
+                return this;
+            } else if (isEmpty()) {
+                return other;
+            }
+
+            var combined = new long[edges.length + other.edges.length];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < edges.length && j < other.edges.length) {
+                long target = edges[i] >>> 32;
+                long otherTarget = other.edges[j] >>> 32;
+                if (target < otherTarget) {
+                    combined[k++] = edges[i++];
+                } else if (target > otherTarget) {
+                    combined[k++] = other.edges[j++];
+                } else {
+                    combined[k++] = edges[i++];
+                    j++;
+                }
+            }
+            while (i < edges.length) {
+                combined[k++] = edges[i++];
+            }
+            while (j < other.edges.length) {
+                combined[k++] = other.edges[j++];
+            }
+            return new Star(k == combined.length ? combined : Arrays.copyOf(combined, k));
+        }
+
+        private int[] predicates() {
+            var predicates = new int[edges.length];
+            for (int i = 0; i < edges.length; i++) {
+                predicates[i] = (int) edges[i];
+            }
+            return RequiredPartitionsExtractor.sortedDistinct(predicates);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof Star && Arrays.equals(edges, ((Star) o).edges);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package at.hadl.logstatistics.utils.graphbuilding;
 
-import org.apache.jena.graph.Triple;
 import org.apache.jena.sparql.algebra.walker.WalkerVisitor;
 import org.apache.jena.sparql.expr.E_Exists;
 import org.apache.jena.sparql.expr.E_NotExists;
@@ -9,109 +8,111 @@ import org.apache.jena.sparql.expr.ExprVisitorBase;
 import org.apache.jena.sparql.syntax.*;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /*
 Recursively walks the query pattern of a SPARQL query and constructs the query graphs for this query pattern.
 A query graph in this stage is a collection of triples, which will later be transformed into a graph by the GraphBuilder.
+The nodes and predicates of the triples are interned by the QueryNodes of the query as soon as they are encountered.
+The alternative query graphs (from UNION, OPTIONAL and property paths) are not combined eagerly, but described by a TripleExpression.
  */
 class TriplesElementWalker {
     private TriplesPathWalker triplesPathWalker;
-    private Set<QueryFeature> encounteredFeatures = new HashSet<>();
+    private QueryNodes nodes;
+    private ExpansionBudget budget;
+    private long encounteredFeatures = 0;
     private boolean containsUnsupportedFeature = false;
 
-    TriplesElementWalker(TriplesPathWalker triplesPathWalker) {
+    TriplesElementWalker(TriplesPathWalker triplesPathWalker, QueryNodes nodes, ExpansionBudget budget) {
         this.triplesPathWalker = triplesPathWalker;
+        this.nodes = nodes;
+        this.budget = budget;
     }
 
     TripleCollectionResult walk(Element element) {
         if (element instanceof ElementGroup) {
             return walk((ElementGroup) element);
         } else if (element instanceof ElementSubQuery) {
-            encounteredFeatures.add(QueryFeature.SUB_QUERY);
+            encounteredFeatures |= FeatureMask.of(QueryFeature.SUB_QUERY);
             return walk(((ElementSubQuery) element).getQuery().getQueryPattern());
         } else {
             System.out.println("Other block encountered");
-            return new TripleCollectionResult(Collections.emptyList(), Collections.emptyList());
+            return new TripleCollectionResult(TripleExpression.NOTHING, Collections.emptyList());
         }
     }
 
     TripleCollectionResult walk(ElementGroup elementGroup) {
-        List<List<Triple>> mainQueryGraphs = new ArrayList<>();
-        mainQueryGraphs.add(new ArrayList<>());
-        List<List<Triple>> additionalQueryGraphs = new ArrayList<>();
-        List<List<Triple>> optionals = new ArrayList<>();
+        TripleExpression mainQueryGraphs = TripleExpression.fragment(QueryNodes.NO_TRIPLES);
+        List<TripleExpression> additionalQueryGraphs = new ArrayList<>();
+        List<TripleExpression> optionals = new ArrayList<>();
 
         for (Element el : elementGroup.getElements()) {
             if (el instanceof ElementGroup) {
                 var intermediateResult = walk(el);
                 additionalQueryGraphs.addAll(intermediateResult.getAdditionalQueryGraphs());
-                mainQueryGraphs = crossCombine(mainQueryGraphs, intermediateResult.getMainQueryGraphs());
+                mainQueryGraphs = TripleExpression.product(mainQueryGraphs, intermediateResult.getMainQueryGraphs());
             } else if (el instanceof ElementOptional) {
-                encounteredFeatures.add(QueryFeature.OPTIONAL);
+                encounteredFeatures |= FeatureMask.of(QueryFeature.OPTIONAL);
                 var elementOptional = (ElementOptional) el;
                 var intermediateResult = walk(elementOptional.getOptionalElement());
 
                 additionalQueryGraphs.addAll(intermediateResult.getAdditionalQueryGraphs());
-                optionals.addAll(intermediateResult.getMainQueryGraphs());
+                optionals.add(intermediateResult.getMainQueryGraphs());
 
             } else if (el instanceof ElementPathBlock) {
-                var tripleCollections = walk((ElementPathBlock) el);
-                mainQueryGraphs = crossCombine(mainQueryGraphs, tripleCollections);
+                mainQueryGraphs = TripleExpression.product(mainQueryGraphs, walk((ElementPathBlock) el));
 
             } else if (el instanceof ElementUnion) {
-                encounteredFeatures.add(QueryFeature.UNION);
-                List<List<Triple>> intermediateMainGraphs = new ArrayList<>();
+                encounteredFeatures |= FeatureMask.of(QueryFeature.UNION);
+                List<TripleExpression> intermediateMainGraphs = new ArrayList<>();
                 for (Element unionElement : ((ElementUnion) el).getElements()) {
                     var intermediateResult = walk(unionElement);
-                    intermediateMainGraphs.addAll(intermediateResult.getMainQueryGraphs());
+                    intermediateMainGraphs.add(intermediateResult.getMainQueryGraphs());
                     additionalQueryGraphs.addAll(intermediateResult.getAdditionalQueryGraphs());
                 }
-                mainQueryGraphs = crossCombine(mainQueryGraphs, intermediateMainGraphs);
+                mainQueryGraphs = TripleExpression.product(mainQueryGraphs, TripleExpression.sum(intermediateMainGraphs));
 
             } else if (el instanceof ElementFilter) {
 
-                encounteredFeatures.add(QueryFeature.FILTER);
+                encounteredFeatures |= FeatureMask.of(QueryFeature.FILTER);
                 new WalkerVisitor(null, new ExprVisitorBase() {
                     @Override
                     public void visit(ExprFunctionOp expr) {
                         if (expr instanceof E_Exists) {
-                            encounteredFeatures.add(QueryFeature.FILTER_EXISTS);
+                            encounteredFeatures |= FeatureMask.of(QueryFeature.FILTER_EXISTS);
                         } else if (expr instanceof E_NotExists) {
-                            encounteredFeatures.add(QueryFeature.FILTER_NOT_EXISTS);
+                            encounteredFeatures |= FeatureMask.of(QueryFeature.FILTER_NOT_EXISTS);
                         }
 
                         var intermediateResult = walk(expr.getElement());
                         additionalQueryGraphs.addAll(intermediateResult.getAdditionalQueryGraphs());
-                        additionalQueryGraphs.addAll(intermediateResult.getMainQueryGraphs());
+                        additionalQueryGraphs.add(intermediateResult.getMainQueryGraphs());
                     }
                 }, null, null).walk(((ElementFilter) el).getExpr());
 
             } else if (el instanceof ElementMinus) {
-                encounteredFeatures.add(QueryFeature.MINUS);
+                encounteredFeatures |= FeatureMask.of(QueryFeature.MINUS);
                 var intermediateResult = walk(((ElementMinus) el).getMinusElement());
                 additionalQueryGraphs.addAll(intermediateResult.getAdditionalQueryGraphs());
-                additionalQueryGraphs.addAll(intermediateResult.getMainQueryGraphs());
+                additionalQueryGraphs.add(intermediateResult.getMainQueryGraphs());
 
             } else if (el instanceof ElementSubQuery) {
-                encounteredFeatures.add(QueryFeature.SUB_QUERY);
+                encounteredFeatures |= FeatureMask.of(QueryFeature.SUB_QUERY);
                 var subQuery = (ElementSubQuery) el;
                 var intermediateResult = walk(subQuery.getQuery().getQueryPattern());
                 additionalQueryGraphs.addAll(intermediateResult.getAdditionalQueryGraphs());
-                additionalQueryGraphs.addAll(intermediateResult.getMainQueryGraphs());
+                additionalQueryGraphs.add(intermediateResult.getMainQueryGraphs());
 
             } else if (el instanceof ElementService) {
-                encounteredFeatures.add(QueryFeature.SERVICE);
+                encounteredFeatures |= FeatureMask.of(QueryFeature.SERVICE);
                 var intermediateResult = walk(((ElementService) el).getElement());
                 additionalQueryGraphs.addAll(intermediateResult.getAdditionalQueryGraphs());
-                additionalQueryGraphs.addAll(intermediateResult.getMainQueryGraphs());
+                additionalQueryGraphs.add(intermediateResult.getMainQueryGraphs());
 
             } else if (el instanceof ElementNamedGraph) {
-                encounteredFeatures.add(QueryFeature.NAMED_GRAPH);
+                encounteredFeatures |= FeatureMask.of(QueryFeature.NAMED_GRAPH);
                 var intermediateResult = walk(((ElementNamedGraph) el).getElement());
                 additionalQueryGraphs.addAll(intermediateResult.getAdditionalQueryGraphs());
-                additionalQueryGraphs.addAll(intermediateResult.getMainQueryGraphs());
+                additionalQueryGraphs.add(intermediateResult.getMainQueryGraphs());
 
             } else if (!(el instanceof ElementBind || el instanceof ElementData || el instanceof ElementAssign)) {
                 System.out.println("Unsupported element type encountered!");
@@ -121,9 +122,9 @@ class TriplesElementWalker {
             }
         }
 
-        if (optionals.size() > 0) {
-            mainQueryGraphs = Stream.concat(mainQueryGraphs.stream(), crossCombine(mainQueryGraphs, optionals).stream())
-                    .collect(Collectors.toList());
+        var optionalQueryGraphs = TripleExpression.sum(optionals);
+        if (!optionalQueryGraphs.isNothing()) {
+            mainQueryGraphs = TripleExpression.sum(List.of(mainQueryGraphs, TripleExpression.product(mainQueryGraphs, optionalQueryGraphs)));
         }
 
         return TripleCollectionResult.builder()
@@ -132,48 +133,52 @@ class TriplesElementWalker {
                 .build();
     }
 
-    private List<List<Triple>> walk(ElementPathBlock el) {
-        List<List<Triple>> tripleCollections = new ArrayList<>();
-        tripleCollections.add(new ArrayList<>());
+    /*
+    Consecutive triples form one fragment, which is combined with the alternatives of the property paths in between.
+     */
+    private TripleExpression walk(ElementPathBlock el) {
+        TripleExpression tripleCollections = TripleExpression.NOTHING;
+        int[] triples = new int[3 * el.getPattern().size()];
+        int used = 0;
 
         for (var triplePath : el.getPattern().getList()) {
             if (triplePath.isTriple()) {
-                final Triple triple = triplePath.asTriple();
-                if (triple.getPredicate().isURI()) {
-                    tripleCollections.forEach(collection -> collection.add(triple));
+                if (triplePath.getPredicate().isURI()) {
+                    triples[used++] = nodes.vertex(triplePath.getSubject());
+                    triples[used++] = nodes.predicate(triplePath.getPredicate());
+                    triples[used++] = nodes.vertex(triplePath.getObject());
                 } else {
-                    encounteredFeatures.add(QueryFeature.VARIABLE_PREDICATE);
+                    encounteredFeatures |= FeatureMask.of(QueryFeature.VARIABLE_PREDICATE);
                     containsUnsupportedFeature = true;
                 }
             } else {
-                encounteredFeatures.add(QueryFeature.PROPERTY_PATH);
-                tripleCollections = crossCombine(tripleCollections, triplesPathWalker.walk(triplePath.getPath(), triplePath.getSubject(), triplePath.getObject()));
+                encounteredFeatures |= FeatureMask.of(QueryFeature.PROPERTY_PATH);
+                int start = nodes.vertex(triplePath.getSubject());
+                int end = nodes.vertex(triplePath.getObject());
+                var pathCollections = triplesPathWalker.walk(triplePath.getPath(), start, end);
+                tripleCollections = TripleExpression.product(
+                        TripleExpression.product(tripleCollections, TripleExpression.fragment(Arrays.copyOf(triples, used))),
+                        TripleExpression.alternatives(pathCollections));
+                used = 0;
             }
-
         }
 
-        return tripleCollections;
+        return TripleExpression.product(tripleCollections, TripleExpression.fragment(Arrays.copyOf(triples, used)));
     }
 
-    private List<List<Triple>> crossCombine(List<List<Triple>> collection1, List<List<Triple>> collection2) {
-        if (collection1.size() == 0) {
-            return collection2;
-        } else if (collection2.size() == 0) {
-            return collection1;
-        }
-
-        return collection1.stream()
-                .flatMap(sourceCollection -> collection2.stream()
-                        .map(addition -> Stream.concat(sourceCollection.stream(), addition.stream()).collect(Collectors.toList())))
-                .collect(Collectors.toList());
+    QueryNodes getNodes() {
+        return nodes;
     }
 
-    Set<QueryFeature> getEncounteredQueryFeatures() {
-        return encounteredFeatures;
+    ExpansionBudget getBudget() {
+        return budget;
     }
 
-    Set<PathFeature> getEncounteredPathFeatures() {
-        return triplesPathWalker.getEncounteredFeatures();
+    /*
+    The encountered query and path features as a FeatureMask.
+     */
+    long getEncounteredFeatures() {
+        return encounteredFeatures | triplesPathWalker.getEncounteredFeatures();
     }
 
     boolean containsUnsupportedFeature() {
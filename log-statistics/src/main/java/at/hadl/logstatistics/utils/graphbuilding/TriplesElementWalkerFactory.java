@@ -1,14 +1,34 @@
 package at.hadl.logstatistics.utils.graphbuilding;
 
+import at.hadl.logstatistics.utils.PredicateMap;
+
 public class TriplesElementWalkerFactory {
     private UUIDGenerator uuidGenerator;
+    private long maxCombinations;
+    private long maxWalkMillis;
 
     public TriplesElementWalkerFactory(UUIDGenerator uuidGenerator) {
+        this(uuidGenerator, Long.MAX_VALUE, 0);
+    }
+
+    /*
+    The walkers of this factory give up on a query (see QueryFeature.EXPANSION_LIMIT) once they have created more than
+    maxCombinations combinations of triple collections or star edges, or have spent more than maxWalkMillis on it (0 does not limit the time).
+    The time limit makes the results depend on the load of the machine, so only the number of combinations is limited by default.
+     */
+    public TriplesElementWalkerFactory(UUIDGenerator uuidGenerator, long maxCombinations, long maxWalkMillis) {
         this.uuidGenerator = uuidGenerator;
+        this.maxCombinations = maxCombinations;
+        this.maxWalkMillis = maxWalkMillis;
     }
 
-    public TriplesElementWalker createTripleElementWalker() {
-        TriplesPathWalker triplesPathWalker = new TriplesPathWalker(uuidGenerator);
-        return new TriplesElementWalker(triplesPathWalker);
+    /*
+    The walker resolves the predicates of the query to their ids in the given predicate map while it walks the query pattern.
+     */
+    public TriplesElementWalker createTripleElementWalker(PredicateMap predicateMap) {
+        var budget = new ExpansionBudget(maxCombinations, maxWalkMillis);
+        var nodes = new QueryNodes(predicateMap);
+        TriplesPathWalker triplesPathWalker = new TriplesPathWalker(uuidGenerator, nodes, budget);
+        return new TriplesElementWalker(triplesPathWalker, nodes, budget);
     }
 }
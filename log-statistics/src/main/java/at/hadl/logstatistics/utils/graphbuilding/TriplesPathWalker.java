@@ -1,8 +1,6 @@
 package at.hadl.logstatistics.utils.graphbuilding;
 
-import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Node_Variable;
-import org.apache.jena.graph.Triple;
 import org.apache.jena.sparql.path.*;
 
 import java.util.*;
@@ -10,18 +8,23 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /*
-Recursively walks a property path from a start to an end node and constructs the partial query graphs for this property path.
+Recursively walks a property path from a start to an end vertex and constructs the partial query graphs for this property path.
+The partial query graphs are triple collections of the QueryNodes of the query.
  */
 class TriplesPathWalker {
     private UUIDGenerator uuidGenerator;
-    private Set<PathFeature> encounteredFeatures = new HashSet<>();
+    private QueryNodes nodes;
+    private ExpansionBudget budget;
+    private long encounteredFeatures = 0;
     private boolean containsUnsupportedFeature = false;
 
-    TriplesPathWalker(UUIDGenerator uuidGenerator) {
+    TriplesPathWalker(UUIDGenerator uuidGenerator, QueryNodes nodes, ExpansionBudget budget) {
         this.uuidGenerator = uuidGenerator;
+        this.nodes = nodes;
+        this.budget = budget;
     }
 
-    List<List<Triple>> walk(Path path, Node start, Node end) {
+    List<int[]> walk(Path path, int start, int end) {
         if (path instanceof P_Link) {
             return walk((P_Link) path, start, end);
         } else if (path instanceof P_NegPropSet) {
@@ -46,82 +49,82 @@ class TriplesPathWalker {
         }
     }
 
-    private List<List<Triple>> walk(P_Link path, Node start, Node end) {
-        return Collections.singletonList(Collections.singletonList(new Triple(start, path.getNode(), end)));
+    private List<int[]> walk(P_Link path, int start, int end) {
+        return Collections.singletonList(new int[]{start, nodes.predicate(path.getNode()), end});
     }
 
-    private List<List<Triple>> walk(P_NegPropSet path, Node start, Node end) {
-        encounteredFeatures.add(PathFeature.NEGATED_PROP_SET);
+    private List<int[]> walk(P_NegPropSet path, int start, int end) {
+        encounteredFeatures |= FeatureMask.of(PathFeature.NEGATED_PROP_SET);
         containsUnsupportedFeature = true;
 
         return Collections.emptyList();
     }
 
-    private List<List<Triple>> walk(P_Inverse path, Node start, Node end) {
-        encounteredFeatures.add(PathFeature.INVERSE);
+    private List<int[]> walk(P_Inverse path, int start, int end) {
+        encounteredFeatures |= FeatureMask.of(PathFeature.INVERSE);
 
         return walk(path.getSubPath(), end, start);
     }
 
-    private List<List<Triple>> walk(P_ZeroOrOne path, Node start, Node end) {
-        encounteredFeatures.add(PathFeature.ZERO_OR_ONE);
+    private List<int[]> walk(P_ZeroOrOne path, int start, int end) {
+        encounteredFeatures |= FeatureMask.of(PathFeature.ZERO_OR_ONE);
 
-        List<List<Triple>> appliedOnceCollections = walk(path.getSubPath(), start, end);
+        List<int[]> appliedOnceCollections = walk(path.getSubPath(), start, end);
 
-        List<List<Triple>> tripleCollections = new ArrayList<>(appliedOnceCollections.size() + 1);
-        tripleCollections.add(Collections.emptyList());
+        List<int[]> tripleCollections = new ArrayList<>(appliedOnceCollections.size() + 1);
+        tripleCollections.add(QueryNodes.NO_TRIPLES);
         tripleCollections.addAll(appliedOnceCollections);
 
         return tripleCollections;
     }
 
-    private List<List<Triple>> walk(P_ZeroOrMore1 path, Node start, Node end) {
-        encounteredFeatures.add(PathFeature.ZERO_OR_MORE);
+    private List<int[]> walk(P_ZeroOrMore1 path, int start, int end) {
+        encounteredFeatures |= FeatureMask.of(PathFeature.ZERO_OR_MORE);
 
-        List<List<Triple>> appliedOnceCollections = walk(path.getSubPath(), start, end);
+        List<int[]> appliedOnceCollections = walk(path.getSubPath(), start, end);
 
-        Node center = new Node_Variable(uuidGenerator.generateUUID());
-        List<List<Triple>> appliedTwiceCollections = crossCombine(walk(path.getSubPath(), start, center), walk(path.getSubPath(), center, end));
+        int center = nodes.vertex(new Node_Variable(uuidGenerator.generateUUID()));
+        List<int[]> appliedTwiceCollections = crossCombine(walk(path.getSubPath(), start, center), walk(path.getSubPath(), center, end));
 
 
-        List<List<Triple>> tripleCollections = new ArrayList<>(appliedOnceCollections.size() + appliedTwiceCollections.size() + 1);
-        tripleCollections.add(Collections.emptyList());
+        List<int[]> tripleCollections = new ArrayList<>(appliedOnceCollections.size() + appliedTwiceCollections.size() + 1);
+        tripleCollections.add(QueryNodes.NO_TRIPLES);
         tripleCollections.addAll(appliedOnceCollections);
         tripleCollections.addAll(appliedTwiceCollections);
 
         return tripleCollections;
     }
 
-    private List<List<Triple>> walk(P_OneOrMore1 path, Node start, Node end) {
-        encounteredFeatures.add(PathFeature.ONE_OR_MORE);
+    private List<int[]> walk(P_OneOrMore1 path, int start, int end) {
+        encounteredFeatures |= FeatureMask.of(PathFeature.ONE_OR_MORE);
 
-        List<List<Triple>> appliedOnceCollections = walk(path.getSubPath(), start, end);
+        List<int[]> appliedOnceCollections = walk(path.getSubPath(), start, end);
 
-        Node center = new Node_Variable(uuidGenerator.generateUUID());
-        List<List<Triple>> appliedTwiceCollections = crossCombine(walk(path.getSubPath(), start, center), walk(path.getSubPath(), center, end));
+        int center = nodes.vertex(new Node_Variable(uuidGenerator.generateUUID()));
+        List<int[]> appliedTwiceCollections = crossCombine(walk(path.getSubPath(), start, center), walk(path.getSubPath(), center, end));
 
         return Stream.concat(appliedOnceCollections.stream(), appliedTwiceCollections.stream()).collect(Collectors.toList());
     }
 
-    private List<List<Triple>> walk(P_Alt path, Node start, Node end) {
-        encounteredFeatures.add(PathFeature.ALT);
+    private List<int[]> walk(P_Alt path, int start, int end) {
+        encounteredFeatures |= FeatureMask.of(PathFeature.ALT);
 
-        List<List<Triple>> leftCollections = walk(path.getLeft(), start, end);
-        List<List<Triple>> rightCollections = walk(path.getRight(), start, end);
+        List<int[]> leftCollections = walk(path.getLeft(), start, end);
+        List<int[]> rightCollections = walk(path.getRight(), start, end);
 
         return Stream.concat(leftCollections.stream(), rightCollections.stream()).collect(Collectors.toList());
     }
 
-    private List<List<Triple>> walk(P_Seq path, Node start, Node end) {
-        encounteredFeatures.add(PathFeature.SEQ);
+    private List<int[]> walk(P_Seq path, int start, int end) {
+        encounteredFeatures |= FeatureMask.of(PathFeature.SEQ);
 
-        List<List<Triple>> tripleCollections = new ArrayList<>();
+        List<int[]> tripleCollections = new ArrayList<>();
 
-        Node center = new Node_Variable(uuidGenerator.generateUUID());
+        int center = nodes.vertex(new Node_Variable(uuidGenerator.generateUUID()));
         var leftCollectionsByEmpty = walk(path.getLeft(), start, center).stream()
-                .collect(Collectors.partitioningBy((List<Triple> list) -> list.size() == 0));
+                .collect(Collectors.partitioningBy((int[] triples) -> triples.length == 0));
         var rightCollectionsByEmpty = walk(path.getRight(), center, end).stream()
-                .collect(Collectors.partitioningBy((List<Triple> list) -> list.size() == 0));
+                .collect(Collectors.partitioningBy((int[] triples) -> triples.length == 0));
 
         var emptyLeftCollections = leftCollectionsByEmpty.get(true);
         var nonEmptyLeftCollections = leftCollectionsByEmpty.get(false);
@@ -143,31 +146,39 @@ class TriplesPathWalker {
         return tripleCollections;
     }
 
-    private List<List<Triple>> replaceNode(List<List<Triple>> tripleCollections, Node from, Node to) {
+    private List<int[]> replaceNode(List<int[]> tripleCollections, int from, int to) {
         return tripleCollections.stream()
-                .map(tripleCollection -> tripleCollection.stream()
-                        .map(triple -> new Triple(
-                                triple.getSubject().equals(from) ? to : triple.getSubject(),
-                                triple.getPredicate(),
-                                triple.getObject().equals(from) ? to : triple.getObject()))
-                        .collect(Collectors.toList()))
+                .map(tripleCollection -> {
+                    var replaced = tripleCollection.clone();
+                    for (int i = 0; i < replaced.length; i += 3) {
+                        if (replaced[i] == from) {
+                            replaced[i] = to;
+                        }
+                        if (replaced[i + 2] == from) {
+                            replaced[i + 2] = to;
+                        }
+                    }
+                    return replaced;
+                })
                 .collect(Collectors.toList());
     }
 
-    private List<List<Triple>> crossCombine(List<List<Triple>> collection1, List<List<Triple>> collection2) {
+    private List<int[]> crossCombine(List<int[]> collection1, List<int[]> collection2) {
         if (collection1.size() == 0) {
             return collection2;
         } else if (collection2.size() == 0) {
             return collection1;
         }
 
+        budget.charge((long) collection1.size() * collection2.size());
+
         return collection1.stream()
                 .flatMap(sourceCollection -> collection2.stream()
-                        .map(addition -> Stream.concat(sourceCollection.stream(), addition.stream()).collect(Collectors.toList())))
+                        .map(addition -> QueryNodes.concat(sourceCollection, addition)))
                 .collect(Collectors.toList());
     }
 
-    Set<PathFeature> getEncounteredFeatures() {
+    long getEncounteredFeatures() {
         return encounteredFeatures;
     }
 
@@ -1,28 +1,64 @@
 package at.hadl.logstatistics.utils.io;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 /*
 Loads text lines from one or multiple log files and exposes them as an iterator of line batches. This way, only the lines of the
-current batch have to be loaded into memory. Can read GZIP and BZIP2 compressed log files.
+current batch have to be loaded into memory. Can read GZIP and BZIP2 compressed log files. The blocks of BZIP2 files are
+decompressed in parallel on the decompression pool (see ParallelBZip2InputStream). Uncompressed log files are memory-mapped
+(see MappedLogReader).
+
+The lines are not decoded while reading. Each batch is a LogBatch that points into a byte buffer; the byte arrays of released
+batches are reused for the following batches. A batch never spans two files.
+
+With more than one reader thread, up to that many files are decompressed at the same time on dedicated threads. Their batches
+are handed over through a bounded queue, so decompression overlaps with the processing of the previous batches. In this mode,
+the batches of different files are interleaved.
+
+With a gzip index, every GZIP file is additionally decompressed with multiple threads itself (see IndexedGzipInputStream).
+The index of a file is built on first use and stored next to it.
+
+The iterator tracks how far each file has been consumed by the returned batches (see LogPosition). A run that is resumed from
+such a position skips the files that were already finished and the lines that were already consumed of the others.
  */
-public class BatchLogIterator implements Iterator<List<String>>, AutoCloseable {
+public class BatchLogIterator implements Iterator<LogBatch>, AutoCloseable {
+	private static final LogBatch END_OF_LOGS = LogBatch.empty();
+
 	private final int skipLines;
 	private Compression compression;
 	private int batchSize;
+	private int readerThreads = 1;
+	private boolean useGzipIndex = false;
+	private ForkJoinPool decompressionPool = ForkJoinPool.commonPool();
+	private boolean started = false;
 	private Iterator<Path> files;
-	private BufferedReader currentFileReader;
+	private final Queue<byte[]> bufferPool = new ConcurrentLinkedQueue<>();
+	private LineReader currentFileReader;
+	private Path currentFile;
 	private boolean lastFileFinished;
+	private LogPosition position = new LogPosition();
+
+	private ExecutorService readerPool;
+	private BlockingQueue<LogBatch> batchQueue;
+	private AtomicReference<Exception> readerFailure;
+	private LogBatch nextBatch;
 
 	public BatchLogIterator(Path path, Compression compression, int batchSize, int skipLines) throws IOException {
 		this.compression = compression;
@@ -31,87 +67,251 @@ public class BatchLogIterator implements Iterator<List<String>>, AutoCloseable {
 		if (Files.isDirectory(path)) {
 			this.files = Files.walk(path)
 					.filter(Files::isRegularFile)
+					.filter(file -> !file.toString().endsWith(".gzi") && !file.toString().endsWith(".gzi.tmp"))
 					.iterator();
 		} else if (Files.isRegularFile(path)) {
 			this.files = Stream.of(path).iterator();
 		} else {
 			throw new RuntimeException("The given path must either be a directory or a regular file");
 		}
+	}
+
+	public BatchLogIterator withReaderThreads(int readerThreads) {
+		this.readerThreads = readerThreads;
+		return this;
+	}
+
+	public BatchLogIterator withGzipIndex(boolean useGzipIndex) {
+		this.useGzipIndex = useGzipIndex;
+		return this;
+	}
+
+	/*
+	The pool on which the blocks of BZIP2 files and the ranges of indexed GZIP files are decompressed.
+	 */
+	public BatchLogIterator withDecompressionPool(ForkJoinPool decompressionPool) {
+		this.decompressionPool = decompressionPool;
+		return this;
+	}
+
+	/*
+	Continues reading from a position of an earlier run over the same logs.
+	 */
+	public BatchLogIterator withResumePosition(LogPosition resumePosition) {
+		this.position = resumePosition.copy();
+		return this;
+	}
+
+	/*
+	The position after the last batch that has been returned by next().
+	 */
+	public LogPosition getPosition() {
+		return position.copy();
+	}
 
+	private void start() {
+		started = true;
 
-		if (!files.hasNext()) {
-			currentFileReader = new BufferedReader(new InputStreamReader(InputStream.nullInputStream()));
+		var remainingFiles = new ArrayList<Path>();
+		files.forEachRemaining(file -> {
+			if (position.isFinished(file)) {
+				System.out.println("Skipping finished file: " + file.toString());
+			} else {
+				remainingFiles.add(file);
+			}
+		});
+		files = remainingFiles.iterator();
+
+		if (readerThreads > 1) {
+			startReaders();
+		} else if (!files.hasNext()) {
+			currentFileReader = new StreamLineReader(InputStream.nullInputStream(), 0, bufferPool);
 			lastFileFinished = true;
 		} else {
-			currentFileReader = getReaderForFile(files.next());
+			try {
+				currentFile = files.next();
+				currentFileReader = getReaderForFile(currentFile);
+			} catch (IOException e) {
+				throw new RuntimeException("An error occurred during log file reading: ", e);
+			}
 			lastFileFinished = false;
 		}
+	}
+
+	private void startReaders() {
+		var paths = new ArrayList<Path>();
+		files.forEachRemaining(paths::add);
+		files = Collections.emptyIterator();
+
+		var threadCounter = new AtomicInteger(0);
+		readerPool = Executors.newFixedThreadPool(Math.min(readerThreads, Math.max(paths.size(), 1)), runnable -> {
+			var thread = new Thread(runnable, "log-reader-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		batchQueue = new ArrayBlockingQueue<>(readerThreads * 2);
+		readerFailure = new AtomicReference<>();
+
+		if (paths.isEmpty()) {
+			batchQueue.add(END_OF_LOGS);
+			return;
+		}
+
+		var remainingFiles = new AtomicInteger(paths.size());
+		paths.forEach(path -> readerPool.submit(() -> {
+			try {
+				try {
+					readFile(path);
+				} catch (IOException | RuntimeException e) {
+					readerFailure.compareAndSet(null, e);
+				}
+
+				if (remainingFiles.decrementAndGet() == 0 || readerFailure.get() != null) {
+					batchQueue.put(END_OF_LOGS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+	}
+
+	private void readFile(Path path) throws IOException, InterruptedException {
+		System.out.println("Reading file: " + path.toString());
 
+		try (var reader = getReaderForFile(path)) {
+			LogBatch batch;
+			while ((batch = reader.readBatch(batchSize)) != null && readerFailure.get() == null) {
+				if (!batch.isEmpty()) {
+					batchQueue.put(batch.at(path, reader.getLinesRead()));
+				}
+			}
+
+			// An empty batch marks the end of the file
+			if (readerFailure.get() == null) {
+				batchQueue.put(LogBatch.empty().at(path, reader.getLinesRead()));
+			}
+		}
 	}
 
 	@Override
 	public boolean hasNext() {
-		return files.hasNext() || !lastFileFinished;
+		if (!started) {
+			start();
+		}
+
+		if (batchQueue == null) {
+			return files.hasNext() || !lastFileFinished;
+		}
+
+		while (nextBatch == null) {
+			try {
+				nextBatch = batchQueue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for the next log batch", e);
+			}
+
+			if (nextBatch != END_OF_LOGS && nextBatch.isEmpty()) {
+				position.finish(nextBatch.getFile());
+				nextBatch = null;
+			}
+		}
+
+		if (nextBatch == END_OF_LOGS) {
+			if (readerFailure.get() != null) {
+				throw new RuntimeException("An error occurred during log file reading: ", readerFailure.get());
+			}
+			return false;
+		}
+
+		return true;
 	}
 
 	@Override
-	public List<String> next() {
-		var lines = new ArrayList<String>(batchSize);
+	public LogBatch next() {
+		if (!started) {
+			start();
+		}
 
-		int i = 0;
+		if (batchQueue != null) {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			var batch = nextBatch;
+			nextBatch = null;
+			position.advance(batch.getFile(), batch.getEndLine());
+			return batch;
+		}
+
+		if (lastFileFinished) {
+			throw new NoSuchElementException();
+		}
 
-		while (i < batchSize) {
+		while (true) {
 			try {
-				String line = currentFileReader.readLine();
-				if (line == null) {
+				var batch = currentFileReader.readBatch(batchSize);
+				if (batch == null) {
 					currentFileReader.close();
+					if (currentFile != null) {
+						position.finish(currentFile);
+					}
 					if (files.hasNext()) {
-						var path = files.next();
-						System.out.println("Switching to file: " + path.toString());
-						currentFileReader = getReaderForFile(path);
+						currentFile = files.next();
+						System.out.println("Switching to file: " + currentFile.toString());
+						currentFileReader = getReaderForFile(currentFile);
 					} else {
 						lastFileFinished = true;
-						break;
+						return LogBatch.empty();
 					}
-				} else {
-					lines.add(line);
-					i++;
+				} else if (!batch.isEmpty()) {
+					position.advance(currentFile, currentFileReader.getLinesRead());
+					return batch.at(currentFile, currentFileReader.getLinesRead());
 				}
 			} catch (IOException e) {
 				throw new RuntimeException("An error occurred during log file reading: ", e);
 			}
 		}
-
-		return lines;
 	}
 
-	private BufferedReader getReaderForFile(Path path) throws IOException {
-		BufferedReader reader;
+	private LineReader getReaderForFile(Path path) throws IOException {
+		long linesToSkip = Math.max(skipLines, position.getConsumedLines(path));
 
-		if (compression.equals(Compression.BZIP2)) {
-			reader = new BufferedReader(new InputStreamReader(new BZip2CompressorInputStream(new FileInputStream(path.toFile()), true)), 100000);
-		} else if (compression.equals(Compression.GZIP)) {
-			reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(path.toFile()))), 100000);
-		} else {
-			reader = new BufferedReader(new InputStreamReader(new FileInputStream(path.toFile())));
+		if (compression.equals(Compression.NONE)) {
+			return new MappedLogReader(path, linesToSkip);
 		}
 
-		for (int i = 0; i < skipLines; i++) {
-			reader.readLine();
+		InputStream input;
+
+		if (compression.equals(Compression.BZIP2)) {
+			input = new ParallelBZip2InputStream(new FileInputStream(path.toFile()), decompressionPool);
+		} else if (useGzipIndex) {
+			var index = GzipIndex.loadOrBuild(path, GzipIndex.DEFAULT_SPAN_SIZE);
+			input = new IndexedGzipInputStream(path, index, decompressionPool);
+		} else {
+			input = new GZIPInputStream(new FileInputStream(path.toFile()), 65536);
 		}
 
-		return reader;
+		return new StreamLineReader(input, linesToSkip, bufferPool);
 	}
 
 	@Override
 	public void close() throws Exception {
-		currentFileReader.close();
+		if (readerPool != null) {
+			readerPool.shutdownNow();
+			batchQueue.clear();
+			nextBatch = END_OF_LOGS;
+		} else if (currentFileReader != null) {
+			currentFileReader.close();
+		}
+		started = true;
 		lastFileFinished = true;
 		files = Collections.emptyIterator();
 	}
 
 	public enum Compression {
 		GZIP,
-		BZIP2
+		BZIP2,
+		NONE
 	}
 }
@@ -0,0 +1,218 @@
+package at.hadl.logstatistics.utils.io;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+A seekable index for a GZIP file in the style of zlib's zran example. Each checkpoint records a position in the compressed file
+at which the decompression can be restarted, together with the uncompressed offset of that position and the last 32k of
+uncompressed data before it (the DEFLATE window). This allows the ranges between two checkpoints to be decompressed
+independently of each other (see IndexedGzipInputStream).
+
+The index is built once with a full pass over the file (see GzipIndexBuilder) and persisted next to the log as "<log>.gzi".
+It is rebuilt if the log file changed in the meantime. If the index cannot be written (e.g. next to logs on a read-only
+volume), it is only kept in memory and built again by the next run.
+ */
+public class GzipIndex {
+	public static final long DEFAULT_SPAN_SIZE = 4L << 20;
+
+	private static final int MAGIC = 0x475a4958;
+	private static final int VERSION = 1;
+
+	private final List<Checkpoint> checkpoints;
+	private final long uncompressedSize;
+
+	GzipIndex(List<Checkpoint> checkpoints, long uncompressedSize) {
+		this.checkpoints = Collections.unmodifiableList(checkpoints);
+		this.uncompressedSize = uncompressedSize;
+	}
+
+	public static GzipIndex loadOrBuild(Path gzipFile, long spanSize) throws IOException {
+		var indexFile = indexPathFor(gzipFile);
+		var existingIndex = read(indexFile, Files.size(gzipFile), Files.getLastModifiedTime(gzipFile).toMillis());
+
+		if (existingIndex.isPresent()) {
+			return existingIndex.get();
+		}
+
+		System.out.println("Building gzip index for: " + gzipFile.toString());
+		GzipIndex index;
+		try (var input = new BufferedInputStream(new FileInputStream(gzipFile.toFile()), 1 << 20)) {
+			index = new GzipIndexBuilder(input, spanSize).build();
+		}
+		try {
+			index.write(indexFile, Files.size(gzipFile), Files.getLastModifiedTime(gzipFile).toMillis());
+		} catch (IOException e) {
+			System.out.println("Could not write gzip index for: " + gzipFile.toString() + " (" + e + "), keeping it in memory only");
+		}
+
+		return index;
+	}
+
+	public static Path indexPathFor(Path gzipFile) {
+		return Paths.get(gzipFile.toString() + ".gzi");
+	}
+
+	static Path temporaryPathFor(Path indexFile) {
+		return Paths.get(indexFile.toString() + ".tmp");
+	}
+
+	static Optional<GzipIndex> read(Path indexFile, long expectedFileSize, long expectedLastModified) throws IOException {
+		if (!Files.isRegularFile(indexFile)) {
+			return Optional.empty();
+		}
+
+		try (var input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(indexFile.toFile()))))) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION
+					|| input.readLong() != expectedFileSize || input.readLong() != expectedLastModified) {
+				return Optional.empty();
+			}
+
+			long uncompressedSize = input.readLong();
+			int checkpointCount = input.readInt();
+			var checkpoints = new ArrayList<Checkpoint>(checkpointCount);
+			for (int i = 0; i < checkpointCount; i++) {
+				long compressedOffset = input.readLong();
+				long uncompressedOffset = input.readLong();
+				boolean memberStart = input.readBoolean();
+				var window = new byte[input.readInt()];
+				input.readFully(window);
+				checkpoints.add(new Checkpoint(compressedOffset, uncompressedOffset, memberStart, window));
+			}
+
+			return Optional.of(new GzipIndex(checkpoints, uncompressedSize));
+		}
+	}
+
+	void write(Path indexFile, long fileSize, long lastModified) throws IOException {
+		var temporaryFile = temporaryPathFor(indexFile);
+		try (var output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temporaryFile.toFile()))))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(fileSize);
+			output.writeLong(lastModified);
+			output.writeLong(uncompressedSize);
+			output.writeInt(checkpoints.size());
+			for (var checkpoint : checkpoints) {
+				output.writeLong(checkpoint.getCompressedOffset());
+				output.writeLong(checkpoint.getUncompressedOffset());
+				output.writeBoolean(checkpoint.isMemberStart());
+				output.writeInt(checkpoint.getWindow().length);
+				output.write(checkpoint.getWindow());
+			}
+		}
+		try {
+			Files.move(temporaryFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	public List<Checkpoint> getCheckpoints() {
+		return checkpoints;
+	}
+
+	public long getUncompressedSize() {
+		return uncompressedSize;
+	}
+
+	/*
+	Skips a GZIP member header (RFC 1952). Returns false if the source is exhausted or does not start with a GZIP member.
+	 */
+	static boolean skipMemberHeader(ByteSource source) throws IOException {
+		int id1 = source.readByte();
+		int id2 = id1 < 0 ? -1 : source.readByte();
+		if (id1 != 0x1f || id2 != 0x8b) {
+			return false;
+		}
+
+		if (source.readByte() != 8) {
+			throw new IOException("Unsupported GZIP compression method");
+		}
+
+		int flags = readRequired(source);
+		for (int i = 0; i < 6; i++) {
+			readRequired(source);
+		}
+
+		if ((flags & 4) != 0) {
+			int extraLength = readRequired(source) | (readRequired(source) << 8);
+			for (int i = 0; i < extraLength; i++) {
+				readRequired(source);
+			}
+		}
+		if ((flags & 8) != 0) {
+			skipZeroTerminated(source);
+		}
+		if ((flags & 16) != 0) {
+			skipZeroTerminated(source);
+		}
+		if ((flags & 2) != 0) {
+			readRequired(source);
+			readRequired(source);
+		}
+
+		return true;
+	}
+
+	private static void skipZeroTerminated(ByteSource source) throws IOException {
+		int value;
+		do {
+			value = readRequired(source);
+		} while (value != 0);
+	}
+
+	private static int readRequired(ByteSource source) throws IOException {
+		int value = source.readByte();
+		if (value < 0) {
+			throw new EOFException("Unexpected end of GZIP header");
+		}
+		return value;
+	}
+
+	interface ByteSource {
+		int readByte() throws IOException;
+	}
+
+	public static class Checkpoint {
+		private final long compressedOffset;
+		private final long uncompressedOffset;
+		private final boolean memberStart;
+		private final byte[] window;
+
+		Checkpoint(long compressedOffset, long uncompressedOffset, boolean memberStart, byte[] window) {
+			this.compressedOffset = compressedOffset;
+			this.uncompressedOffset = uncompressedOffset;
+			this.memberStart = memberStart;
+			this.window = window;
+		}
+
+		/*
+		The offset of the GZIP member header if this is a member start, otherwise the offset of a byte aligned DEFLATE block.
+		 */
+		public long getCompressedOffset() {
+			return compressedOffset;
+		}
+
+		public long getUncompressedOffset() {
+			return uncompressedOffset;
+		}
+
+		public boolean isMemberStart() {
+			return memberStart;
+		}
+
+		public byte[] getWindow() {
+			return window;
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package at.hadl.logstatistics.utils.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Builds a GzipIndex with a single pass over a GZIP file. The java.util.zip.Inflater can neither report DEFLATE block boundaries
+nor resume in the middle of a byte, so this class contains a small DEFLATE (RFC 1951) decoder of its own. It only keeps the
+sliding window of the uncompressed data and records a checkpoint at the first byte aligned block boundary after every
+"spanSize" uncompressed bytes, where a regular Inflater can later be restarted with the recorded window as its dictionary.
+ */
+class GzipIndexBuilder {
+	private static final int WINDOW_SIZE = 32768;
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+	private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+	private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+	private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+	private static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+	private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+	private static final HuffmanTable FIXED_LITERAL_TABLE;
+	private static final HuffmanTable FIXED_DISTANCE_TABLE;
+
+	static {
+		var literalLengths = new int[288];
+		for (int i = 0; i < 288; i++) {
+			literalLengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+		}
+		var distanceLengths = new int[30];
+		Arrays.fill(distanceLengths, 5);
+
+		FIXED_LITERAL_TABLE = new HuffmanTable(literalLengths, 288);
+		FIXED_DISTANCE_TABLE = new HuffmanTable(distanceLengths, 30);
+	}
+
+	private final InputStream input;
+	private final byte[] inputBuffer = new byte[1 << 16];
+	private int inputPosition;
+	private int inputLimit;
+	private final long spanSize;
+	private final List<GzipIndex.Checkpoint> checkpoints = new ArrayList<>();
+	private final byte[] window = new byte[WINDOW_SIZE];
+
+	private long bitBuffer;
+	private int bitCount;
+	private long bytesRead;
+	private boolean endOfInput;
+
+	private long uncompressedOffset;
+	private long memberStartOffset;
+	private long lastCheckpointOffset;
+
+	GzipIndexBuilder(InputStream input, long spanSize) {
+		this.input = input;
+		this.spanSize = spanSize;
+	}
+
+	GzipIndex build() throws IOException {
+		while (true) {
+			long headerOffset = compressedPosition();
+			if (!GzipIndex.skipMemberHeader(this::readByte)) {
+				break;
+			}
+
+			memberStartOffset = uncompressedOffset;
+			if (checkpoints.isEmpty() || uncompressedOffset - lastCheckpointOffset >= spanSize) {
+				addCheckpoint(headerOffset, true);
+			}
+
+			inflateMember();
+
+			// Skip the padding to the next byte and the CRC32 and ISIZE trailer
+			dropBits(bitCount & 7);
+			for (int i = 0; i < 8; i++) {
+				if (readByte() < 0) {
+					throw new EOFException("Unexpected end of GZIP trailer");
+				}
+			}
+		}
+
+		return new GzipIndex(checkpoints, uncompressedOffset);
+	}
+
+	private void inflateMember() throws IOException {
+		boolean lastBlock = false;
+		boolean firstBlock = true;
+
+		while (!lastBlock) {
+			if (!firstBlock && (bitCount & 7) == 0 && uncompressedOffset - lastCheckpointOffset >= spanSize) {
+				addCheckpoint(compressedPosition(), false);
+			}
+			firstBlock = false;
+
+			lastBlock = getBits(1) == 1;
+			int blockType = (int) getBits(2);
+
+			if (blockType == 0) {
+				inflateStoredBlock();
+			} else if (blockType == 1) {
+				inflateHuffmanBlock(FIXED_LITERAL_TABLE, FIXED_DISTANCE_TABLE);
+			} else if (blockType == 2) {
+				inflateDynamicBlock();
+			} else {
+				throw new IOException("Invalid DEFLATE block type");
+			}
+		}
+	}
+
+	private void inflateStoredBlock() throws IOException {
+		dropBits(bitCount & 7);
+		int length = (int) getBits(16);
+		int negatedLength = (int) getBits(16);
+		if (length != (~negatedLength & 0xFFFF)) {
+			throw new IOException("Invalid stored DEFLATE block length");
+		}
+
+		for (int i = 0; i < length; i++) {
+			output((byte) getBits(8));
+		}
+	}
+
+	private void inflateDynamicBlock() throws IOException {
+		int literalCount = (int) getBits(5) + 257;
+		int distanceCount = (int) getBits(5) + 1;
+		int codeLengthCount = (int) getBits(4) + 4;
+
+		var codeLengthLengths = new int[19];
+		for (int i = 0; i < codeLengthCount; i++) {
+			codeLengthLengths[CODE_LENGTH_ORDER[i]] = (int) getBits(3);
+		}
+		var codeLengthTable = new HuffmanTable(codeLengthLengths, 19);
+
+		var lengths = new int[literalCount + distanceCount];
+		int index = 0;
+		while (index < lengths.length) {
+			int symbol = decodeSymbol(codeLengthTable);
+			if (symbol < 16) {
+				lengths[index++] = symbol;
+			} else {
+				int repeatedLength = 0;
+				int repeatCount;
+				if (symbol == 16) {
+					if (index == 0) {
+						throw new IOException("Invalid DEFLATE code length repeat");
+					}
+					repeatedLength = lengths[index - 1];
+					repeatCount = 3 + (int) getBits(2);
+				} else if (symbol == 17) {
+					repeatCount = 3 + (int) getBits(3);
+				} else {
+					repeatCount = 11 + (int) getBits(7);
+				}
+
+				if (index + repeatCount > lengths.length) {
+					throw new IOException("Invalid DEFLATE code lengths");
+				}
+				for (int i = 0; i < repeatCount; i++) {
+					lengths[index++] = repeatedLength;
+				}
+			}
+		}
+
+		var literalTable = new HuffmanTable(Arrays.copyOfRange(lengths, 0, literalCount), literalCount);
+		var distanceTable = new HuffmanTable(Arrays.copyOfRange(lengths, literalCount, lengths.length), distanceCount);
+
+		inflateHuffmanBlock(literalTable, distanceTable);
+	}
+
+	private void inflateHuffmanBlock(HuffmanTable literalTable, HuffmanTable distanceTable) throws IOException {
+		while (true) {
+			int symbol = decodeSymbol(literalTable);
+
+			if (symbol < 256) {
+				output((byte) symbol);
+			} else if (symbol == 256) {
+				return;
+			} else {
+				symbol -= 257;
+				if (symbol >= LENGTH_BASE.length) {
+					throw new IOException("Invalid DEFLATE length symbol");
+				}
+				int length = LENGTH_BASE[symbol] + (int) getBits(LENGTH_EXTRA[symbol]);
+
+				int distanceSymbol = decodeSymbol(distanceTable);
+				if (distanceSymbol >= DISTANCE_BASE.length) {
+					throw new IOException("Invalid DEFLATE distance symbol");
+				}
+				int distance = DISTANCE_BASE[distanceSymbol] + (int) getBits(DISTANCE_EXTRA[distanceSymbol]);
+				if (distance > uncompressedOffset - memberStartOffset) {
+					throw new IOException("Invalid DEFLATE distance");
+				}
+
+				for (int i = 0; i < length; i++) {
+					output(window[(int) (uncompressedOffset - distance) & WINDOW_MASK]);
+				}
+			}
+		}
+	}
+
+	private void output(byte value) {
+		window[(int) uncompressedOffset & WINDOW_MASK] = value;
+		uncompressedOffset++;
+	}
+
+	private void addCheckpoint(long compressedOffset, boolean memberStart) {
+		int windowLength = (int) Math.min(WINDOW_SIZE, uncompressedOffset - memberStartOffset);
+		var checkpointWindow = new byte[windowLength];
+		for (int i = 0; i < windowLength; i++) {
+			checkpointWindow[i] = window[(int) (uncompressedOffset - windowLength + i) & WINDOW_MASK];
+		}
+
+		checkpoints.add(new GzipIndex.Checkpoint(compressedOffset, uncompressedOffset, memberStart, checkpointWindow));
+		lastCheckpointOffset = uncompressedOffset;
+	}
+
+	private int decodeSymbol(HuffmanTable table) throws IOException {
+		fillBitBuffer();
+		int entry = table.entries[(int) (bitBuffer & ((1 << table.maxLength) - 1))];
+		int length = entry >>> 9;
+		if (length == 0 || length > bitCount) {
+			throw new IOException("Invalid or truncated DEFLATE Huffman code");
+		}
+		dropBits(length);
+
+		return entry & 511;
+	}
+
+	private long compressedPosition() {
+		return bytesRead - (bitCount >>> 3);
+	}
+
+	private int readByte() throws IOException {
+		fillBitBuffer();
+		if (bitCount < 8) {
+			return -1;
+		}
+		return (int) getBits(8);
+	}
+
+	private long getBits(int count) throws IOException {
+		if (count == 0) {
+			return 0;
+		}
+
+		fillBitBuffer();
+		if (bitCount < count) {
+			throw new EOFException("Unexpected end of DEFLATE stream");
+		}
+
+		long value = bitBuffer & ((1L << count) - 1);
+		dropBits(count);
+
+		return value;
+	}
+
+	private void dropBits(int count) {
+		bitBuffer >>>= count;
+		bitCount -= count;
+	}
+
+	private void fillBitBuffer() throws IOException {
+		while (bitCount <= 56 && !endOfInput) {
+			if (inputPosition == inputLimit) {
+				inputLimit = input.read(inputBuffer);
+				inputPosition = 0;
+				if (inputLimit < 0) {
+					inputLimit = 0;
+					endOfInput = true;
+					return;
+				}
+			}
+
+			bitBuffer |= ((long) (inputBuffer[inputPosition++] & 0xFF)) << bitCount;
+			bitCount += 8;
+			bytesRead++;
+		}
+	}
+
+	/*
+	A lookup table for a canonical Huffman code, indexed with the next "maxLength" (bit reversed) input bits.
+	Each entry holds the code length in the upper and the symbol in the lower 9 bits.
+	 */
+	private static class HuffmanTable {
+		private final int[] entries;
+		private final int maxLength;
+
+		HuffmanTable(int[] lengths, int symbolCount) {
+			int maxLength = 1;
+			var lengthCounts = new int[16];
+			for (int i = 0; i < symbolCount; i++) {
+				lengthCounts[lengths[i]]++;
+				maxLength = Math.max(maxLength, lengths[i]);
+			}
+			lengthCounts[0] = 0;
+
+			var nextCode = new int[16];
+			int code = 0;
+			for (int length = 1; length < 16; length++) {
+				code = (code + lengthCounts[length - 1]) << 1;
+				nextCode[length] = code;
+			}
+
+			this.maxLength = maxLength;
+			this.entries = new int[1 << maxLength];
+			for (int symbol = 0; symbol < symbolCount; symbol++) {
+				int length = lengths[symbol];
+				if (length == 0) {
+					continue;
+				}
+
+				int reversedCode = Integer.reverse(nextCode[length]++) >>> (32 - length);
+				for (int i = reversedCode; i < entries.length; i += 1 << length) {
+					entries[i] = (length << 9) | symbol;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package at.hadl.logstatistics.utils.io;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*
+Decompresses a single GZIP file with multiple threads, using a GzipIndex. Every range between two checkpoints of the index is
+inflated independently on the fork-join pool (starting with the window of its checkpoint as the dictionary), and the ranges
+are concatenated in their original order again. Lines that cross a range boundary are therefore realigned by the reader.
+ */
+public class IndexedGzipInputStream extends ParallelChunkInputStream {
+	private final Path path;
+	private final GzipIndex index;
+	private int nextCheckpoint;
+
+	public IndexedGzipInputStream(Path path, GzipIndex index, ForkJoinPool pool) {
+		super(pool, pool.getParallelism() * 2);
+		this.path = path;
+		this.index = index;
+	}
+
+	@Override
+	Callable<byte[]> nextChunk() {
+		var checkpoints = index.getCheckpoints();
+		if (nextCheckpoint >= checkpoints.size()) {
+			return null;
+		}
+
+		var checkpoint = checkpoints.get(nextCheckpoint);
+		long rangeEnd = nextCheckpoint + 1 < checkpoints.size()
+				? checkpoints.get(nextCheckpoint + 1).getUncompressedOffset()
+				: index.getUncompressedSize();
+		nextCheckpoint++;
+
+		return () -> inflateRange(checkpoint, rangeEnd - checkpoint.getUncompressedOffset());
+	}
+
+	private byte[] inflateRange(GzipIndex.Checkpoint checkpoint, long rangeLength) throws IOException, DataFormatException {
+		if (rangeLength > Integer.MAX_VALUE - 8) {
+			throw new IOException("The range between two gzip index checkpoints is too large");
+		}
+
+		var output = new byte[(int) rangeLength];
+		int produced = 0;
+
+		try (var fileInput = new FileInputStream(path.toFile())) {
+			fileInput.getChannel().position(checkpoint.getCompressedOffset());
+			var input = new PushbackInputStream(new BufferedInputStream(fileInput, 1 << 16), 1 << 16);
+			var inputBuffer = new byte[1 << 16];
+			int inputLength = 0;
+
+			var inflater = new Inflater(true);
+			try {
+				if (checkpoint.isMemberStart()) {
+					GzipIndex.skipMemberHeader(input::read);
+				} else if (checkpoint.getWindow().length > 0) {
+					inflater.setDictionary(checkpoint.getWindow());
+				}
+
+				while (produced < output.length) {
+					if (inflater.needsInput()) {
+						inputLength = input.read(inputBuffer);
+						if (inputLength < 0) {
+							throw new EOFException("Unexpected end of GZIP file");
+						}
+						inflater.setInput(inputBuffer, 0, inputLength);
+					}
+
+					produced += inflater.inflate(output, produced, output.length - produced);
+
+					if (inflater.finished() && produced < output.length) {
+						// The range continues in the next GZIP member, which starts behind the 8 byte trailer of this one
+						int remaining = inflater.getRemaining();
+						input.unread(inputBuffer, inputLength - remaining, remaining);
+						for (int i = 0; i < 8; i++) {
+							if (input.read() < 0) {
+								throw new EOFException("Unexpected end of GZIP trailer");
+							}
+						}
+						if (!GzipIndex.skipMemberHeader(input::read)) {
+							throw new EOFException("Unexpected end of GZIP file");
+						}
+						inflater.reset();
+					}
+				}
+			} finally {
+				inflater.end();
+			}
+		}
+
+		return output;
+	}
+}
@@ -0,0 +1,19 @@
+package at.hadl.logstatistics.utils.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/*
+Reads the lines of a single log file as byte batches.
+ */
+interface LineReader extends Closeable {
+	/*
+	Returns a batch of at most maxLines lines, or null once the file is exhausted.
+	 */
+	LogBatch readBatch(int maxLines) throws IOException;
+
+	/*
+	The number of lines (including skipped lines) that have been read from the file so far.
+	 */
+	long getLinesRead();
+}
@@ -0,0 +1,149 @@
+package at.hadl.logstatistics.utils.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Queue;
+import java.util.RandomAccess;
+
+/*
+A batch of raw log lines. Instead of one String per line, a batch only holds the offsets of its lines in a byte buffer, which is
+either a slice of a memory-mapped log file or a pooled byte array that is reused for later batches once the batch is released.
+Preprocessors can extract the query field directly from the bytes of a line (see Preprocessor.extractQueryString), so the rest
+of the line never has to be decoded.
+
+For callers that need Strings, the batch is also a read-only List<String> that decodes each line on access.
+ */
+public class LogBatch extends AbstractList<String> implements RandomAccess {
+	private static final int[] NO_LINES = new int[0];
+
+	private final ByteBuffer buffer;
+	private final int[] lineOffsets;
+	private final int lineCount;
+	private final Queue<byte[]> bufferPool;
+	private Path file;
+	private long endLine;
+
+	LogBatch(ByteBuffer buffer, int[] lineOffsets, int lineCount, Queue<byte[]> bufferPool) {
+		this.buffer = buffer;
+		this.lineOffsets = lineOffsets;
+		this.lineCount = lineCount;
+		this.bufferPool = bufferPool;
+	}
+
+	public static LogBatch empty() {
+		return new LogBatch(ByteBuffer.allocate(0), NO_LINES, 0, null);
+	}
+
+	public static LogBatch fromLines(List<String> lines) {
+		var encodedLines = lines.stream()
+				.map(line -> line.getBytes(StandardCharsets.UTF_8))
+				.toArray(byte[][]::new);
+
+		int totalLength = 0;
+		for (var encodedLine : encodedLines) {
+			totalLength += encodedLine.length;
+		}
+
+		var buffer = ByteBuffer.allocate(totalLength);
+		var lineOffsets = new int[encodedLines.length * 2];
+		for (int i = 0; i < encodedLines.length; i++) {
+			lineOffsets[2 * i] = buffer.position();
+			buffer.put(encodedLines[i]);
+			lineOffsets[2 * i + 1] = buffer.position();
+		}
+
+		return new LogBatch(buffer, lineOffsets, encodedLines.length, null);
+	}
+
+	LogBatch at(Path file, long endLine) {
+		this.file = file;
+		this.endLine = endLine;
+		return this;
+	}
+
+	/*
+	The log file that the lines of this batch come from, or null for batches that were not read from a file.
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/*
+	The number of lines of the file (including skipped lines) that have been read up to and including this batch.
+	 */
+	public long getEndLine() {
+		return endLine;
+	}
+
+	/*
+	The buffer that contains the bytes of all lines. It must only be accessed with absolute positions.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	public int lineStart(int line) {
+		return lineOffsets[2 * line];
+	}
+
+	public int lineEnd(int line) {
+		return lineOffsets[2 * line + 1];
+	}
+
+	@Override
+	public String get(int line) {
+		if (line < 0 || line >= lineCount) {
+			throw new IndexOutOfBoundsException("Line " + line + " of " + lineCount);
+		}
+		return decode(buffer, lineStart(line), lineEnd(line));
+	}
+
+	@Override
+	public int size() {
+		return lineCount;
+	}
+
+	/*
+	Returns the byte array of this batch to the pool of its reader. The batch must not be used afterwards.
+	 */
+	public void release() {
+		if (bufferPool != null && buffer.hasArray()) {
+			bufferPool.offer(buffer.array());
+		}
+	}
+
+	public static String decode(ByteBuffer buffer, int start, int end) {
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+		}
+
+		var bytes = new byte[end - start];
+		buffer.duplicate().position(start).get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static int indexOf(ByteBuffer buffer, int start, int end, byte value) {
+		for (int i = start; i < end; i++) {
+			if (buffer.get(i) == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public static int indexOf(ByteBuffer buffer, int start, int end, byte[] value) {
+		outer:
+		for (int i = start; i <= end - value.length; i++) {
+			for (int j = 0; j < value.length; j++) {
+				if (buffer.get(i + j) != value[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,75 @@
+package at.hadl.logstatistics.utils.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+Tracks how far the log files of a BatchLogIterator have been consumed: the number of lines (including skipped header lines)
+of every file that has been started, and which files have been read completely. Files are identified by their absolute path.
+ */
+public class LogPosition {
+	private final Map<String, Long> consumedLines;
+	private final Set<String> finishedFiles;
+
+	public LogPosition() {
+		this(new HashMap<>(), new HashSet<>());
+	}
+
+	private LogPosition(Map<String, Long> consumedLines, Set<String> finishedFiles) {
+		this.consumedLines = consumedLines;
+		this.finishedFiles = finishedFiles;
+	}
+
+	synchronized void advance(Path file, long lines) {
+		consumedLines.put(key(file), lines);
+	}
+
+	synchronized void finish(Path file) {
+		consumedLines.putIfAbsent(key(file), 0L);
+		finishedFiles.add(key(file));
+	}
+
+	public synchronized boolean isFinished(Path file) {
+		return finishedFiles.contains(key(file));
+	}
+
+	public synchronized long getConsumedLines(Path file) {
+		return consumedLines.getOrDefault(key(file), 0L);
+	}
+
+	public synchronized LogPosition copy() {
+		return new LogPosition(new HashMap<>(consumedLines), new HashSet<>(finishedFiles));
+	}
+
+	public synchronized void write(DataOutput output) throws IOException {
+		output.writeInt(consumedLines.size());
+		for (var entry : consumedLines.entrySet()) {
+			output.writeUTF(entry.getKey());
+			output.writeLong(entry.getValue());
+			output.writeBoolean(finishedFiles.contains(entry.getKey()));
+		}
+	}
+
+	public static LogPosition read(DataInput input) throws IOException {
+		var position = new LogPosition();
+		int files = input.readInt();
+		for (int i = 0; i < files; i++) {
+			var file = input.readUTF();
+			position.consumedLines.put(file, input.readLong());
+			if (input.readBoolean()) {
+				position.finishedFiles.add(file);
+			}
+		}
+		return position;
+	}
+
+	private static String key(Path file) {
+		return file.toAbsolutePath().normalize().toString();
+	}
+}
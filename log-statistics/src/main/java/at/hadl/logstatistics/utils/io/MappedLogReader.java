@@ -0,0 +1,106 @@
+package at.hadl.logstatistics.utils.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+Reads an uncompressed log file through memory-mapped regions of at most 1 GB instead of a stream.
+The line breaks are searched directly in the mapped bytes and the batches point into the mapped region, so the lines are neither
+copied nor decoded here. Only the parts that a Preprocessor extracts from the batch are ever turned into Strings.
+ */
+public class MappedLogReader implements LineReader {
+	private static final long MAX_REGION_SIZE = 1L << 30;
+
+	private final FileChannel channel;
+	private final long fileSize;
+
+	private MappedByteBuffer region;
+	private long regionStart;
+	private int regionPosition;
+	private long linesToSkip;
+	private long linesRead = 0;
+
+	public MappedLogReader(Path path, long skipLines) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.fileSize = channel.size();
+		this.linesToSkip = skipLines;
+	}
+
+	@Override
+	public LogBatch readBatch(int maxLines) throws IOException {
+		if ((region == null || regionPosition == region.limit()) && !mapNextRegion()) {
+			return null;
+		}
+
+		var lineOffsets = new int[Math.min(maxLines, 1024) * 2];
+		int lineCount = 0;
+
+		while (lineCount < maxLines && regionPosition < region.limit()) {
+			int lineStart = regionPosition;
+			int lineBreak = LogBatch.indexOf(region, lineStart, region.limit(), (byte) '\n');
+			int lineEnd = lineBreak < 0 ? region.limit() : lineBreak;
+			regionPosition = lineBreak < 0 ? region.limit() : lineBreak + 1;
+			if (lineEnd > lineStart && region.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+
+			linesRead++;
+			if (linesToSkip > 0) {
+				linesToSkip--;
+			} else {
+				if (2 * lineCount == lineOffsets.length) {
+					lineOffsets = Arrays.copyOf(lineOffsets, lineOffsets.length * 2);
+				}
+				lineOffsets[2 * lineCount] = lineStart;
+				lineOffsets[2 * lineCount + 1] = lineEnd;
+				lineCount++;
+			}
+		}
+
+		return new LogBatch(region, lineOffsets, lineCount, null);
+	}
+
+	private boolean mapNextRegion() throws IOException {
+		if (region != null) {
+			regionStart += region.limit();
+		}
+		if (regionStart >= fileSize) {
+			return false;
+		}
+
+		long regionSize = Math.min(MAX_REGION_SIZE, fileSize - regionStart);
+		region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+		regionPosition = 0;
+
+		// A region always ends behind a line break, unless it is the end of the file
+		if (regionStart + regionSize < fileSize) {
+			int lastLineBreak = -1;
+			for (int i = (int) regionSize - 1; i >= 0 && lastLineBreak < 0; i--) {
+				if (region.get(i) == '\n') {
+					lastLineBreak = i;
+				}
+			}
+			if (lastLineBreak < 0) {
+				throw new IOException("Log lines longer than " + MAX_REGION_SIZE + " bytes are not supported");
+			}
+			region.limit(lastLineBreak + 1);
+		}
+
+		return true;
+	}
+
+	@Override
+	public long getLinesRead() {
+		return linesRead;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		region = null;
+	}
+}
@@ -0,0 +1,287 @@
+package at.hadl.logstatistics.utils.io;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+Decompresses a (possibly concatenated) BZIP2 file block by block in parallel.
+
+BZIP2 compresses its input in independent blocks of at most 900k, each starting with the 48 bit magic number 0x314159265359.
+The blocks are not byte aligned, so the compressed file is scanned bit by bit for the block and end-of-stream magic numbers.
+Every block found this way is copied into a synthetic single-block BZIP2 stream (with the block CRC as the stream CRC),
+which is then decoded on the fork-join pool. The decoded blocks are handed out in their original order.
+
+The block magic number can also occur inside of the compressed data of a block. Such a false block boundary splits the block
+into two candidates, and the first one fails to decode (at the latest, its block CRC does not match). Like lbzip2 does, a
+candidate that fails is then joined with the next candidate (including the magic number between them) and decoded again, until
+the block CRC checks out. Only if the candidate is followed by the end of the stream, the error is reported as an IOException.
+A false end-of-stream magic number is not recovered from, it is reported as an IOException as well.
+ */
+public class ParallelBZip2InputStream extends ParallelChunkInputStream {
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+	private static final long MAGIC_MASK = (1L << 48) - 1;
+
+	private final InputStream compressedInput;
+	private char blockSizeLevel;
+	private int currentByte;
+	private int remainingBits;
+	private long window;
+	private long windowBits;
+	private boolean endOfFile;
+
+	public ParallelBZip2InputStream(InputStream compressedInput, ForkJoinPool pool) {
+		super(pool, pool.getParallelism() * 2);
+		this.compressedInput = new BufferedInputStream(compressedInput, 1 << 20);
+	}
+
+	@Override
+	Callable<byte[]> nextChunk() throws IOException {
+		if (endOfFile) {
+			return null;
+		}
+
+		if (blockSizeLevel == 0 && !readStreamHeader()) {
+			return null;
+		}
+
+		// Skip ahead to the next block, switching to the next concatenated stream if the current one ends first
+		while (windowBits < 48 || window != BLOCK_MAGIC) {
+			if (windowBits >= 48 && window == END_OF_STREAM_MAGIC) {
+				finishStream();
+				if (endOfFile || !readStreamHeader()) {
+					return null;
+				}
+				continue;
+			}
+
+			int bit = readBit();
+			if (bit < 0) {
+				throw new IOException("Unexpected end of BZIP2 stream");
+			}
+			shiftIntoWindow(bit);
+		}
+
+		var block = new BitWriter(blockSizeLevel);
+		windowBits = 0;
+
+		while (true) {
+			int bit = readBit();
+			if (bit < 0) {
+				throw new IOException("Unexpected end of BZIP2 stream");
+			}
+			block.writeBit(bit);
+			shiftIntoWindow(bit);
+
+			if (windowBits >= 48 && (window == BLOCK_MAGIC || window == END_OF_STREAM_MAGIC)) {
+				block.dropBits(48);
+				if (window == END_OF_STREAM_MAGIC) {
+					finishStream();
+				} else {
+					// The magic number of the following block has already been consumed, so the next call starts right behind it
+					windowBits = 48;
+				}
+				break;
+			}
+		}
+
+		return new BlockCandidate(block, window == BLOCK_MAGIC);
+	}
+
+	@Override
+	Callable<byte[]> mergeWithNext(Callable<byte[]> failedChunk, Callable<byte[]> nextChunk) {
+		var failedBlock = (BlockCandidate) failedChunk;
+		if (!failedBlock.followedByBlock) {
+			return null;
+		}
+		var nextBlock = (BlockCandidate) nextChunk;
+
+		var mergedBits = failedBlock.bits.copy();
+		mergedBits.writeBits(BLOCK_MAGIC, 48);
+		mergedBits.appendBlock(nextBlock.bits);
+		return new BlockCandidate(mergedBits, nextBlock.followedByBlock);
+	}
+
+	private boolean readStreamHeader() throws IOException {
+		var header = compressedInput.readNBytes(4);
+		if (header.length == 0) {
+			endOfFile = true;
+			return false;
+		}
+
+		if (header.length < 4 || header[0] != 'B' || header[1] != 'Z' || header[2] != 'h' || header[3] < '1' || header[3] > '9') {
+			throw new IOException("Invalid BZIP2 stream header");
+		}
+
+		blockSizeLevel = (char) header[3];
+		remainingBits = 0;
+		window = 0;
+		windowBits = 0;
+
+		return true;
+	}
+
+	/*
+	Skips the stream CRC after the end-of-stream magic number and the padding up to the next byte boundary.
+	 */
+	private void finishStream() throws IOException {
+		for (int i = 0; i < 32; i++) {
+			if (readBit() < 0) {
+				throw new IOException("Unexpected end of BZIP2 stream");
+			}
+		}
+		remainingBits = 0;
+		window = 0;
+		windowBits = 0;
+		blockSizeLevel = 0;
+
+		if (peekEndOfFile()) {
+			endOfFile = true;
+		}
+	}
+
+	private boolean peekEndOfFile() throws IOException {
+		compressedInput.mark(1);
+		boolean endOfInput = compressedInput.read() < 0;
+		compressedInput.reset();
+
+		return endOfInput;
+	}
+
+	private void shiftIntoWindow(int bit) {
+		window = ((window << 1) | bit) & MAGIC_MASK;
+		windowBits++;
+	}
+
+	private int readBit() throws IOException {
+		if (remainingBits == 0) {
+			currentByte = compressedInput.read();
+			if (currentByte < 0) {
+				return -1;
+			}
+			remainingBits = 8;
+		}
+
+		remainingBits--;
+		return (currentByte >>> remainingBits) & 1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		compressedInput.close();
+	}
+
+	/*
+	The bits of a block between two magic numbers, which is followed either by another block of the same stream or by the end
+	of the stream. The bits are not changed anymore once the candidate has been handed out.
+	 */
+	private static class BlockCandidate implements Callable<byte[]> {
+		private final BitWriter bits;
+		private final boolean followedByBlock;
+
+		private BlockCandidate(BitWriter bits, boolean followedByBlock) {
+			this.bits = bits;
+			this.followedByBlock = followedByBlock;
+		}
+
+		@Override
+		public byte[] call() throws IOException {
+			try (var blockInput = new BZip2CompressorInputStream(new ByteArrayInputStream(bits.toSingleBlockStream()), false)) {
+				return blockInput.readAllBytes();
+			}
+		}
+	}
+
+	/*
+	Collects the bits of one block behind a stream header and the block magic number.
+	 */
+	private static class BitWriter {
+		private static final int HEADER_BITS = 32 + 48;
+
+		private byte[] data = new byte[1 << 17];
+		private long bitCount;
+
+		BitWriter(char blockSizeLevel) {
+			writeBits('B', 8);
+			writeBits('Z', 8);
+			writeBits('h', 8);
+			writeBits(blockSizeLevel, 8);
+			writeBits(BLOCK_MAGIC, 48);
+		}
+
+		private BitWriter(byte[] data, long bitCount) {
+			this.data = data;
+			this.bitCount = bitCount;
+		}
+
+		BitWriter copy() {
+			return new BitWriter(Arrays.copyOf(data, data.length), bitCount);
+		}
+
+		/*
+		Appends the block bits of another BitWriter, i.e. everything behind its header.
+		 */
+		void appendBlock(BitWriter other) {
+			for (long i = HEADER_BITS; i < other.bitCount; i++) {
+				writeBit((int) other.readBits(i, 1));
+			}
+		}
+
+		void writeBit(int bit) {
+			int byteIndex = (int) (bitCount >>> 3);
+			if (byteIndex == data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+
+			int shift = 7 - (int) (bitCount & 7);
+			if (bit == 0) {
+				data[byteIndex] &= ~(1 << shift);
+			} else {
+				data[byteIndex] |= 1 << shift;
+			}
+			bitCount++;
+		}
+
+		void writeBits(long value, int count) {
+			for (int i = count - 1; i >= 0; i--) {
+				writeBit((int) (value >>> i) & 1);
+			}
+		}
+
+		void dropBits(int count) {
+			bitCount -= count;
+		}
+
+		private long readBits(long offset, int count) {
+			long value = 0;
+			for (long i = offset; i < offset + count; i++) {
+				value = (value << 1) | ((data[(int) (i >>> 3)] >>> (7 - (int) (i & 7))) & 1);
+			}
+			return value;
+		}
+
+		/*
+		The CRC of a stream with only one block is the CRC of that block, which directly follows the block magic number.
+		The stream is written to a copy, so the bits of the block can still be merged with another block afterwards.
+		 */
+		byte[] toSingleBlockStream() {
+			var stream = copy();
+			long blockCrc = readBits(HEADER_BITS, 32);
+			stream.writeBits(END_OF_STREAM_MAGIC, 48);
+			stream.writeBits(blockCrc, 32);
+			while ((stream.bitCount & 7) != 0) {
+				stream.writeBit(0);
+			}
+
+			return Arrays.copyOf(stream.data, (int) (stream.bitCount >>> 3));
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package at.hadl.logstatistics.utils.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+An input stream whose content is produced as a sequence of independently decodable chunks. The chunks are decoded on a
+fork-join pool, a bounded number of them ahead of the reader, and are served strictly in their original order.
+Subclasses only have to hand out the decoding task for the next chunk. If they may hand out a wrong chunk boundary, they can
+recover from it in mergeWithNext: when decoding a chunk fails, it is merged with the chunk that follows it and decoded again.
+ */
+abstract class ParallelChunkInputStream extends InputStream {
+	private final ForkJoinPool pool;
+	private final int lookahead;
+	private final ArrayDeque<PendingChunk> pendingChunks;
+	private boolean allChunksSubmitted;
+	private byte[] currentChunk = new byte[0];
+	private int currentPosition;
+
+	ParallelChunkInputStream(ForkJoinPool pool, int lookahead) {
+		this.pool = pool;
+		this.lookahead = Math.max(lookahead, 1);
+		this.pendingChunks = new ArrayDeque<>(this.lookahead);
+	}
+
+	/*
+	Returns the decoding task of the next chunk, or null if there are no more chunks.
+	 */
+	abstract Callable<byte[]> nextChunk() throws IOException;
+
+	/*
+	Returns the decoding task of a chunk that consists of a chunk that could not be decoded and the chunk that follows it,
+	or null if such chunks cannot be merged, in which case the decoding error is reported.
+	 */
+	Callable<byte[]> mergeWithNext(Callable<byte[]> failedChunk, Callable<byte[]> nextChunk) {
+		return null;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureAvailable()) {
+			return -1;
+		}
+
+		return currentChunk[currentPosition++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+
+		if (!ensureAvailable()) {
+			return -1;
+		}
+
+		int count = Math.min(length, currentChunk.length - currentPosition);
+		System.arraycopy(currentChunk, currentPosition, buffer, offset, count);
+		currentPosition += count;
+
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return currentChunk.length - currentPosition;
+	}
+
+	private boolean ensureAvailable() throws IOException {
+		while (currentPosition == currentChunk.length) {
+			submitChunks();
+
+			var nextChunk = pendingChunks.poll();
+			if (nextChunk == null) {
+				return false;
+			}
+
+			currentChunk = decode(nextChunk);
+			currentPosition = 0;
+		}
+
+		return true;
+	}
+
+	private void submitChunks() throws IOException {
+		while (!allChunksSubmitted && pendingChunks.size() < lookahead) {
+			var chunk = nextChunk();
+			if (chunk == null) {
+				allChunksSubmitted = true;
+			} else {
+				pendingChunks.add(new PendingChunk(chunk, pool.submit(ForkJoinTask.adapt(chunk))));
+			}
+		}
+	}
+
+	// Merging happens on the reading thread, because the chunk that follows a failed chunk may not have been handed out yet
+	private byte[] decode(PendingChunk chunk) throws IOException {
+		IOException error;
+		try {
+			return join(chunk.task);
+		} catch (IOException e) {
+			error = e;
+		}
+
+		var failedChunk = chunk.decoder;
+		while (true) {
+			submitChunks();
+			var followingChunk = pendingChunks.poll();
+			var mergedChunk = followingChunk != null ? mergeWithNext(failedChunk, followingChunk.decoder) : null;
+			if (mergedChunk == null) {
+				throw error;
+			}
+			followingChunk.task.cancel(true);
+
+			try {
+				return mergedChunk.call();
+			} catch (Exception e) {
+				failedChunk = mergedChunk;
+			}
+		}
+	}
+
+	private static byte[] join(ForkJoinTask<byte[]> chunk) throws IOException {
+		try {
+			return chunk.join();
+		} catch (RuntimeException e) {
+			var cause = e.getCause() != null ? e.getCause() : e;
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Decoding a chunk failed", cause);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		pendingChunks.forEach(chunk -> chunk.task.cancel(true));
+		pendingChunks.clear();
+		allChunksSubmitted = true;
+		currentChunk = new byte[0];
+		currentPosition = 0;
+	}
+
+	private static class PendingChunk {
+		private final Callable<byte[]> decoder;
+		private final ForkJoinTask<byte[]> task;
+
+		private PendingChunk(Callable<byte[]> decoder, ForkJoinTask<byte[]> task) {
+			this.decoder = decoder;
+			this.task = task;
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package at.hadl.logstatistics.utils.io;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+A deduplicated query corpus: every distinct (preprocessed) query string of some logs together with the number of times it
+occurred, written by a QueryDeduplicator. Analyzing the corpus gives the same counts as analyzing the logs, without
+decompressing and scanning them again.
+
+The file starts with the records (the length of the UTF-8 encoded query, the query and its count), sorted by query string.
+They are followed by the index, the byte offset of every INDEX_INTERVAL-th record, and by the totals of the logs (the number
+of lines and of queries). The last 8 bytes hold the offset of the index.
+
+A Reader iterates over the records in batches and tracks its position like a BatchLogIterator (see LogPosition), with the
+number of records as the consumed lines of the corpus file. A resumed Reader uses the index to skip the consumed records.
+ */
+public class QueryCorpus {
+	private static final int MAGIC = 0x4c535143;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int INDEX_INTERVAL = 4096;
+
+	public static boolean isCorpus(Path path) {
+		if (!Files.isRegularFile(path)) {
+			return false;
+		}
+
+		try (var input = new DataInputStream(Files.newInputStream(path))) {
+			return input.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read " + path.toString(), e);
+		}
+	}
+
+	public static Writer writer(Path path) throws IOException {
+		return new Writer(path);
+	}
+
+	public static Reader reader(Path path, int batchSize) throws IOException {
+		return new Reader(path, batchSize);
+	}
+
+	/*
+	Writes the records of a corpus, which must be passed in the order of their query strings, each query only once.
+	The corpus is written to a temporary file that is only moved to its path by finish.
+	 */
+	public static class Writer implements Closeable {
+		private final Path path;
+		private final Path tempFile;
+		private final CountingOutputStream counter;
+		private final DataOutputStream output;
+		private long[] index = new long[16];
+		private long records = 0;
+		private long totalQueries = 0;
+		private boolean finished = false;
+
+		private Writer(Path path) throws IOException {
+			this.path = path;
+			this.tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+			this.counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 65536));
+			this.output = new DataOutputStream(counter);
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+		}
+
+		public void write(String query, long count) throws IOException {
+			write(query.getBytes(StandardCharsets.UTF_8), count);
+		}
+
+		public void write(byte[] query, long count) throws IOException {
+			if (records % INDEX_INTERVAL == 0) {
+				int entry = (int) (records / INDEX_INTERVAL);
+				if (entry == index.length) {
+					index = Arrays.copyOf(index, index.length * 2);
+				}
+				index[entry] = counter.written;
+			}
+			output.writeInt(query.length);
+			output.write(query);
+			output.writeLong(count);
+			records++;
+			totalQueries += count;
+		}
+
+		/*
+		Completes the corpus with the number of log lines that it was built from.
+		 */
+		public void finish(long totalLines) throws IOException {
+			long indexOffset = counter.written;
+			int indexEntries = (int) ((records + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+			output.writeInt(indexEntries);
+			for (int i = 0; i < indexEntries; i++) {
+				output.writeLong(index[i]);
+			}
+			output.writeLong(records);
+			output.writeLong(totalQueries);
+			output.writeLong(totalLines);
+			output.writeLong(indexOffset);
+			output.close();
+			finished = true;
+			Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!finished) {
+				output.close();
+				Files.deleteIfExists(tempFile);
+			}
+		}
+	}
+
+	/*
+	A batch of records of a corpus. The last batch of a corpus also carries the log lines that did not contain a query.
+	 */
+	public static class Batch {
+		private final String[] queries;
+		private final long[] counts;
+		private final int size;
+		private final long linesWithoutQuery;
+
+		private Batch(String[] queries, long[] counts, int size, long linesWithoutQuery) {
+			this.queries = queries;
+			this.counts = counts;
+			this.size = size;
+			this.linesWithoutQuery = linesWithoutQuery;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public String getQuery(int record) {
+			return queries[record];
+		}
+
+		public long getCount(int record) {
+			return counts[record];
+		}
+
+		public long getLinesWithoutQuery() {
+			return linesWithoutQuery;
+		}
+	}
+
+	public static class Reader implements Iterator<Batch>, AutoCloseable {
+		private final Path path;
+		private final int batchSize;
+		private final FileChannel channel;
+		private final long[] index;
+		private final long records;
+		private final long totalQueries;
+		private final long totalLines;
+		private DataInputStream input;
+		private long recordsRead = 0;
+		private boolean finished = false;
+		private LogPosition position = new LogPosition();
+
+		private Reader(Path path, int batchSize) throws IOException {
+			this.path = path;
+			this.batchSize = batchSize;
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+
+			var header = new DataInputStream(Channels.newInputStream(channel.position(0)));
+			if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+				channel.close();
+				throw new IOException("Not a query corpus of a supported version: " + path.toString());
+			}
+
+			var trailer = new DataInputStream(Channels.newInputStream(channel.position(channel.size() - 8)));
+			var footer = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(trailer.readLong()))));
+			this.index = new long[footer.readInt()];
+			for (int i = 0; i < index.length; i++) {
+				index[i] = footer.readLong();
+			}
+			this.records = footer.readLong();
+			this.totalQueries = footer.readLong();
+			this.totalLines = footer.readLong();
+		}
+
+		/*
+		Continues reading from a position of an earlier run over the same corpus.
+		 */
+		public Reader withResumePosition(LogPosition resumePosition) {
+			this.position = resumePosition.copy();
+			return this;
+		}
+
+		/*
+		The position after the last batch that has been returned by next().
+		 */
+		public LogPosition getPosition() {
+			return position.copy();
+		}
+
+		public long getRecordCount() {
+			return records;
+		}
+
+		public long getTotalQueries() {
+			return totalQueries;
+		}
+
+		public long getTotalLines() {
+			return totalLines;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (input == null) {
+				start();
+			}
+			return !finished;
+		}
+
+		@Override
+		public Batch next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			int size = (int) Math.min(batchSize, records - recordsRead);
+			var queries = new String[size];
+			var counts = new long[size];
+			try {
+				for (int i = 0; i < size; i++) {
+					var query = new byte[input.readInt()];
+					input.readFully(query);
+					queries[i] = new String(query, StandardCharsets.UTF_8);
+					counts[i] = input.readLong();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("An error occurred during corpus reading: ", e);
+			}
+
+			recordsRead += size;
+			position.advance(path, recordsRead);
+			finished = recordsRead == records;
+			if (finished) {
+				position.finish(path);
+			}
+			return new Batch(queries, counts, size, finished ? totalLines - totalQueries : 0);
+		}
+
+		private void start() {
+			if (position.isFinished(path)) {
+				System.out.println("Skipping finished corpus: " + path.toString());
+				finished = true;
+			}
+
+			long skipRecords = Math.min(position.getConsumedLines(path), records);
+			int indexEntry = (int) (skipRecords / INDEX_INTERVAL);
+			try {
+				long offset = indexEntry < index.length ? index[indexEntry] : HEADER_SIZE;
+				input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(offset)), 65536));
+				recordsRead = Math.min((long) indexEntry * INDEX_INTERVAL, records);
+				while (recordsRead < skipRecords) {
+					int recordSize = input.readInt() + 8;
+					for (int skipped = 0; skipped < recordSize; ) {
+						skipped += input.skipBytes(recordSize - skipped);
+					}
+					recordsRead++;
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("An error occurred during corpus reading: ", e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long written = 0;
+
+		private CountingOutputStream(OutputStream output) {
+			super(output);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			written++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			written += len;
+		}
+	}
+}
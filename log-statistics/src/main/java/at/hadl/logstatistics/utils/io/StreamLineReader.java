@@ -0,0 +1,123 @@
+package at.hadl.logstatistics.utils.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+
+/*
+Splits a (decompressed) input stream into batches of lines without decoding them. The bytes of a batch are read into a byte array
+from the given pool, which grows if the lines do not fit. The incomplete line at the end of a batch is carried over to the next one.
+ */
+class StreamLineReader implements LineReader {
+	private static final int INITIAL_BUFFER_SIZE = 1 << 20;
+	private static final int READ_SIZE = 1 << 16;
+
+	private final InputStream input;
+	private final Queue<byte[]> bufferPool;
+	private byte[] carry = new byte[0];
+	private int carryLength = 0;
+	private long linesToSkip;
+	private long linesRead = 0;
+	private boolean endOfStream = false;
+
+	StreamLineReader(InputStream input, long skipLines, Queue<byte[]> bufferPool) {
+		this.input = input;
+		this.linesToSkip = skipLines;
+		this.bufferPool = bufferPool;
+	}
+
+	@Override
+	public LogBatch readBatch(int maxLines) throws IOException {
+		if (endOfStream && carryLength == 0) {
+			return null;
+		}
+
+		var buffer = bufferPool.poll();
+		if (buffer == null || buffer.length < carryLength + READ_SIZE) {
+			buffer = new byte[Math.max(INITIAL_BUFFER_SIZE, carryLength + READ_SIZE)];
+		}
+		System.arraycopy(carry, 0, buffer, 0, carryLength);
+		int length = carryLength;
+
+		var lineOffsets = new int[Math.min(maxLines, 1024) * 2];
+		int lineCount = 0;
+		int lineStart = 0;
+		int scanPosition = 0;
+
+		while (lineCount < maxLines) {
+			int lineBreak = -1;
+			for (int i = scanPosition; i < length; i++) {
+				if (buffer[i] == '\n') {
+					lineBreak = i;
+					break;
+				}
+			}
+
+			int lineEnd;
+			if (lineBreak >= 0) {
+				lineEnd = lineBreak;
+				scanPosition = lineBreak + 1;
+			} else if (!endOfStream) {
+				scanPosition = length;
+				if (buffer.length - length < READ_SIZE) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				int read = input.read(buffer, length, buffer.length - length);
+				if (read < 0) {
+					endOfStream = true;
+				} else {
+					length += read;
+				}
+				continue;
+			} else if (lineStart < length) {
+				lineEnd = length;
+				scanPosition = length;
+			} else {
+				break;
+			}
+
+			int nextLineStart = scanPosition;
+			if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+
+			linesRead++;
+			if (linesToSkip > 0) {
+				linesToSkip--;
+			} else {
+				if (2 * lineCount == lineOffsets.length) {
+					lineOffsets = Arrays.copyOf(lineOffsets, lineOffsets.length * 2);
+				}
+				lineOffsets[2 * lineCount] = lineStart;
+				lineOffsets[2 * lineCount + 1] = lineEnd;
+				lineCount++;
+			}
+			lineStart = nextLineStart;
+		}
+
+		carryLength = length - lineStart;
+		if (carry.length < carryLength) {
+			carry = new byte[Math.max(carryLength, carry.length * 2)];
+		}
+		System.arraycopy(buffer, lineStart, carry, 0, carryLength);
+
+		if (lineCount == 0 && endOfStream && carryLength == 0) {
+			bufferPool.offer(buffer);
+			return null;
+		}
+
+		return new LogBatch(ByteBuffer.wrap(buffer, 0, length), lineOffsets, lineCount, bufferPool);
+	}
+
+	@Override
+	public long getLinesRead() {
+		return linesRead;
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+}
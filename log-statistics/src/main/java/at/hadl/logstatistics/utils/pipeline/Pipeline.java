@@ -0,0 +1,201 @@
+package at.hadl.logstatistics.utils.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/*
+A chain of stages that process a stream of items concurrently. Every stage has its own worker threads and a bounded input queue,
+so the stages run at the same time and a slow stage only slows down the stages in front of it once its queue is full.
+Items are handed between the stages in chunks to keep the synchronization overhead low.
+
+The pipeline is fed with submit(), which may be called from multiple threads (e.g. by the workers of another pipeline), or with
+offer(), which does not wait for a full first stage. awaitQuiescence() waits until every submitted item has passed
+all stages (e.g. to write a consistent checkpoint), and finish() closes the input and waits until the pipeline has run dry.
+An exception in any stage fails the whole pipeline; it is rethrown to the producer.
+The number of worker threads of each stage is fixed when the pipeline is built, unless a PipelineTuner is started.
+
+Usage:
+	Pipeline.<String>builder(64)
+		.then("parse", 4, (line, emitter) -> emitter.accept(parse(line)))
+		.sink("count", 1, parsed -> count(parsed))
+ */
+public class Pipeline<I> {
+	private final int chunkSize;
+	private final List<Stage<?, ?>> stages;
+	private final List<I> producerChunk;
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final Object inFlightLock = new Object();
+	private long chunksInFlight = 0;
+	private boolean completed = false;
+
+	private Pipeline(int chunkSize, List<Stage<?, ?>> stages) {
+		this.chunkSize = chunkSize;
+		this.stages = stages;
+		this.producerChunk = new ArrayList<>(chunkSize);
+		for (int i = 0; i < stages.size(); i++) {
+			stages.get(i).connect(this, i + 1 < stages.size() ? stages.get(i + 1) : null);
+		}
+		stages.forEach(Stage::start);
+	}
+
+	public static <I> Builder<I, I> builder(int chunkSize) {
+		return new Builder<>(chunkSize, new ArrayList<>());
+	}
+
+	public synchronized void submit(I item) {
+		producerChunk.add(item);
+		if (producerChunk.size() >= chunkSize) {
+			flush();
+		}
+	}
+
+	/*
+	Like submit, but does not wait if the first stage cannot take the item because its queue is full. Returns whether the item
+	was submitted.
+	 */
+	public synchronized boolean offer(I item) {
+		rethrowFailure();
+		producerChunk.add(item);
+		if (producerChunk.size() >= chunkSize) {
+			if (!stages.get(0).offer(producerChunk)) {
+				producerChunk.remove(producerChunk.size() - 1);
+				return false;
+			}
+			producerChunk.clear();
+		}
+		return true;
+	}
+
+	public synchronized void awaitQuiescence() {
+		flush();
+		synchronized (inFlightLock) {
+			while (chunksInFlight > 0) {
+				waitForChange();
+			}
+		}
+		rethrowFailure();
+	}
+
+	public synchronized void finish() {
+		flush();
+		try {
+			stages.get(0).close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while closing the pipeline", e);
+		}
+		synchronized (inFlightLock) {
+			while (!completed) {
+				waitForChange();
+			}
+		}
+		rethrowFailure();
+	}
+
+	/*
+	Watches the queues of this pipeline and moves worker threads to the bottleneck stage (see PipelineTuner).
+	 */
+	public PipelineTuner startTuner(long intervalMillis) {
+		var tuner = new PipelineTuner(stages, intervalMillis);
+		tuner.start();
+		return tuner;
+	}
+
+	Stage<?, ?> getStage(String name) {
+		return stages.stream().filter(stage -> stage.getName().equals(name)).findFirst().orElseThrow();
+	}
+
+	int getChunkSize() {
+		return chunkSize;
+	}
+
+	boolean hasFailed() {
+		return failure.get() != null;
+	}
+
+	void fail(Throwable cause) {
+		failure.compareAndSet(null, cause);
+	}
+
+	void chunkAdded() {
+		synchronized (inFlightLock) {
+			chunksInFlight++;
+		}
+	}
+
+	void chunkDone() {
+		synchronized (inFlightLock) {
+			chunksInFlight--;
+			if (chunksInFlight == 0) {
+				inFlightLock.notifyAll();
+			}
+		}
+	}
+
+	void completed() {
+		synchronized (inFlightLock) {
+			completed = true;
+			inFlightLock.notifyAll();
+		}
+	}
+
+	private void flush() {
+		rethrowFailure();
+		if (producerChunk.isEmpty()) {
+			return;
+		}
+		try {
+			stages.get(0).put(producerChunk);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while submitting to the pipeline", e);
+		}
+		producerChunk.clear();
+	}
+
+	private void waitForChange() {
+		try {
+			inFlightLock.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the pipeline", e);
+		}
+	}
+
+	private void rethrowFailure() {
+		if (failure.get() != null) {
+			throw new RuntimeException("A pipeline stage failed: ", failure.get());
+		}
+	}
+
+	public static class Builder<I, O> {
+		private final int chunkSize;
+		private final List<Stage<?, ?>> stages;
+
+		private Builder(int chunkSize, List<Stage<?, ?>> stages) {
+			this.chunkSize = chunkSize;
+			this.stages = stages;
+		}
+
+		public <R> Builder<I, R> then(String name, int threads, StageFunction<O, R> function) {
+			stages.add(new Stage<>(name, threads, queueCapacity(threads), function));
+			return new Builder<>(chunkSize, stages);
+		}
+
+		/*
+		Adds the last stage and starts the worker threads of all stages.
+		 */
+		public Pipeline<I> sink(String name, int threads, Consumer<O> consumer) {
+			stages.add(new Stage<O, Void>(name, threads, queueCapacity(threads), (item, emitter) -> consumer.accept(item)));
+			return new Pipeline<>(chunkSize, Collections.unmodifiableList(stages));
+		}
+
+		// The capacity does not change with the number of threads, so that the fill levels stay comparable while tuning
+		private static int queueCapacity(int threads) {
+			return Math.max(16, threads * 4);
+		}
+	}
+}
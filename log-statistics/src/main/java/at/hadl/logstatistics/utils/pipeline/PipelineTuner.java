@@ -0,0 +1,83 @@
+package at.hadl.logstatistics.utils.pipeline;
+
+import java.util.List;
+
+/*
+Moves worker threads between the stages of a running Pipeline, keeping the total number of threads constant.
+
+The tuner samples the fill level of every input queue and smooths it over time. A stage whose queue stays full while the queue
+of the next stage is not full cannot keep up with its input: it is the bottleneck and receives a thread. The thread is taken
+from the stage with the emptiest queue, which is waiting for input most of the time anyway.
+ */
+public class PipelineTuner implements AutoCloseable {
+	private static final double SMOOTHING = 0.3;
+	private static final double BOTTLENECK_FILL_LEVEL = 0.5;
+	private static final double IDLE_FILL_LEVEL = 0.1;
+	private static final double BLOCKED_FILL_LEVEL = 0.9;
+
+	private final List<Stage<?, ?>> stages;
+	private final long intervalMillis;
+	private final double[] fillLevels;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	PipelineTuner(List<Stage<?, ?>> stages, long intervalMillis) {
+		this.stages = stages;
+		this.intervalMillis = intervalMillis;
+		this.fillLevels = new double[stages.size()];
+		this.thread = new Thread(this::run, "pipeline-tuner");
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				Thread.sleep(intervalMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			for (int i = 0; i < stages.size(); i++) {
+				var stage = stages.get(i);
+				double fillLevel = (double) stage.getQueueSize() / stage.getQueueCapacity();
+				fillLevels[i] = SMOOTHING * fillLevel + (1 - SMOOTHING) * fillLevels[i];
+			}
+
+			rebalance();
+		}
+	}
+
+	private void rebalance() {
+		int bottleneck = -1;
+		int donor = -1;
+
+		for (int i = 0; i < stages.size(); i++) {
+			boolean blockedDownstream = i + 1 < stages.size() && fillLevels[i + 1] > BLOCKED_FILL_LEVEL;
+			if (fillLevels[i] > BOTTLENECK_FILL_LEVEL && !blockedDownstream && (bottleneck < 0 || fillLevels[i] > fillLevels[bottleneck])) {
+				bottleneck = i;
+			}
+			if (fillLevels[i] < IDLE_FILL_LEVEL && stages.get(i).getThreads() > 1 && (donor < 0 || fillLevels[i] < fillLevels[donor])) {
+				donor = i;
+			}
+		}
+
+		if (bottleneck >= 0 && donor >= 0 && bottleneck != donor) {
+			var from = stages.get(donor);
+			var to = stages.get(bottleneck);
+			from.setThreads(from.getThreads() - 1);
+			to.setThreads(to.getThreads() + 1);
+			System.out.println("Moved a thread from stage " + from.getName() + " (" + from.getThreads() + " threads) to stage "
+					+ to.getName() + " (" + to.getThreads() + " threads)");
+		}
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		thread.interrupt();
+	}
+}
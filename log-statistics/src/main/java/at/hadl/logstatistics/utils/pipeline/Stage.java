@@ -0,0 +1,163 @@
+package at.hadl.logstatistics.utils.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+A single stage of a Pipeline. Items arrive in chunks through a bounded queue that all worker threads of the stage take from, so
+a worker that is stuck on an expensive item never holds up the others. The results of a chunk are passed on in chunks, too.
+When the input of a stage is closed, its workers finish the remaining chunks and the last one closes the next stage.
+
+The number of worker threads can be changed while the stage is running (see PipelineTuner). Surplus workers retire after
+finishing their current chunk.
+ */
+class Stage<I, O> {
+	private static final List<Object> END_OF_INPUT = new ArrayList<>();
+
+	private final String name;
+	private final StageFunction<I, O> function;
+	private final BlockingQueue<List<Object>> queue;
+	private final AtomicInteger runningWorkers = new AtomicInteger();
+	private final AtomicInteger startedWorkers = new AtomicInteger();
+	private volatile int targetWorkers;
+	private volatile boolean closed = false;
+	private Pipeline<?> pipeline;
+	private Stage<O, ?> next;
+
+	Stage(String name, int threads, int queueCapacity, StageFunction<I, O> function) {
+		this.name = name;
+		this.targetWorkers = threads;
+		this.function = function;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+	}
+
+	@SuppressWarnings("unchecked")
+	void connect(Pipeline<?> pipeline, Stage<?, ?> next) {
+		this.pipeline = pipeline;
+		this.next = (Stage<O, ?>) next;
+	}
+
+	void start() {
+		for (int i = 0; i < targetWorkers; i++) {
+			startWorker();
+		}
+	}
+
+	/*
+	Adds or retires workers until the stage runs with the given number of threads. Has no effect once the input is closed.
+	 */
+	synchronized void setThreads(int threads) {
+		if (closed || threads < 1) {
+			return;
+		}
+
+		int missingWorkers = threads - targetWorkers;
+		targetWorkers = threads;
+		for (int i = 0; i < missingWorkers; i++) {
+			startWorker();
+		}
+	}
+
+	int getThreads() {
+		return targetWorkers;
+	}
+
+	void put(List<?> chunk) throws InterruptedException {
+		pipeline.chunkAdded();
+		queue.put(new ArrayList<>(chunk));
+	}
+
+	boolean offer(List<?> chunk) {
+		pipeline.chunkAdded();
+		if (!queue.offer(new ArrayList<>(chunk))) {
+			pipeline.chunkDone();
+			return false;
+		}
+		return true;
+	}
+
+	void close() throws InterruptedException {
+		synchronized (this) {
+			closed = true;
+		}
+		queue.put(END_OF_INPUT);
+	}
+
+	String getName() {
+		return name;
+	}
+
+	int getQueueSize() {
+		return queue.size();
+	}
+
+	int getQueueCapacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	private void startWorker() {
+		runningWorkers.incrementAndGet();
+		var worker = new Thread(this::work, name + "-" + startedWorkers.incrementAndGet());
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void work() {
+		try {
+			List<Object> chunk;
+			while ((chunk = queue.take()) != END_OF_INPUT) {
+				if (!pipeline.hasFailed()) {
+					try {
+						process((List<I>) chunk);
+					} catch (RuntimeException | Error e) {
+						pipeline.fail(e);
+					}
+				}
+				pipeline.chunkDone();
+
+				if (retire()) {
+					return;
+				}
+			}
+
+			// Leave the end marker for the other workers of this stage
+			queue.put(END_OF_INPUT);
+
+			if (runningWorkers.decrementAndGet() == 0) {
+				if (next != null) {
+					next.close();
+				} else {
+					pipeline.completed();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized boolean retire() {
+		if (!closed && runningWorkers.get() > targetWorkers) {
+			runningWorkers.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	private void process(List<I> chunk) throws InterruptedException {
+		var results = new ArrayList<O>(pipeline.getChunkSize());
+		for (var item : chunk) {
+			function.apply(item, results::add);
+			if (next != null && results.size() >= pipeline.getChunkSize()) {
+				next.put(results);
+				results.clear();
+			}
+		}
+		if (next != null && !results.isEmpty()) {
+			next.put(results);
+		}
+	}
+}
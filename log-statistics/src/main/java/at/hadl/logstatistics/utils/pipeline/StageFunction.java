@@ -0,0 +1,11 @@
+package at.hadl.logstatistics.utils.pipeline;
+
+import java.util.function.Consumer;
+
+/*
+The work of a single pipeline stage: processes one item and passes any number of results to the next stage.
+ */
+@FunctionalInterface
+public interface StageFunction<I, O> {
+	void apply(I item, Consumer<O> emitter);
+}
@@ -1,79 +1,87 @@
-package at.hadl.logstatistics.utils.preprocessing;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-public class DBPediaPreprocessor implements Preprocessor {
-	private static String defaultPrefixes;
-
-	public DBPediaPreprocessor() {
-		try {
-			defaultPrefixes = getDefaultPrefixes();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-	private static String addDefaultPrefixes(String queryString) {
-		return defaultPrefixes + "\n" + queryString;
-	}
-
-	public static String removeIncorrectCommas(String s) {
-		Pattern p = Pattern.compile("(select|SELECT).*?(where|WHERE)", Pattern.DOTALL);
-		Matcher m = p.matcher(s);
-		if (m.find()) {
-			var selectClause = m.group();
-
-			return s.replace(selectClause, selectClause.replaceAll("(\\?[a-zA-Z0-9_]*?) ?,", "$1"));
-		} else {
-			return s;
-		}
-	}
-
-	public static String removeVirtuosoPragmas(String s) {
-		return s.replaceAll("(define|DEFINE) .*?:.*? \".*?\"", "");
-	}
-
-	private static String getDefaultPrefixes() throws IOException {
-		String defaultPrefixes;
-
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(ClassLoader.getSystemResourceAsStream("prefix-mappings-reduced.txt")))) {
-			defaultPrefixes = reader.lines()
-					.map(prefixLine -> {
-						var prefixLineParts = prefixLine.split("=");
-						return "PREFIX " + prefixLineParts[0] + ":<" + prefixLineParts[1] + ">";
-					})
-					.collect(Collectors.joining("\n"));
-		}
-
-		return defaultPrefixes;
-	}
-
-	public String preprocessQueryString(String queryString) {
-		return Stream.of(queryString)
-				.map(DBPediaPreprocessor::addDefaultPrefixes)
-				.map(DBPediaPreprocessor::removeVirtuosoPragmas)
-				.map(DBPediaPreprocessor::removeIncorrectCommas)
-				.findAny()
-				.orElseThrow();
-	}
-
-	public Optional<String> extractQueryString(String logLine) {
-		Pattern regex = Pattern.compile("query=(.*?)(&| HTTP|\")");
-
-		Matcher m = regex.matcher(logLine);
-
-		if (m.find()) {
-			String queryString = m.group(1);
-			return decodeURLEncodedString(queryString);
-		} else {
-			return Optional.empty();
-		}
-	}
-}
+package at.hadl.logstatistics.utils.preprocessing;
+
+import at.hadl.logstatistics.utils.DefaultPrefixes;
+import at.hadl.logstatistics.utils.io.LogBatch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+public class DBPediaPreprocessor implements Preprocessor {
+	private static final byte[] QUERY_PARAMETER = "query=".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] HTTP_SUFFIX = " HTTP".getBytes(StandardCharsets.US_ASCII);
+	private final DefaultPrefixes defaultPrefixes;
+
+	public DBPediaPreprocessor() {
+		defaultPrefixes = DefaultPrefixes.named("reduced");
+	}
+
+	public static String removeIncorrectCommas(String s) {
+		Pattern p = Pattern.compile("(select|SELECT).*?(where|WHERE)", Pattern.DOTALL);
+		Matcher m = p.matcher(s);
+		if (m.find()) {
+			var selectClause = m.group();
+
+			return s.replace(selectClause, selectClause.replaceAll("(\\?[a-zA-Z0-9_]*?) ?,", "$1"));
+		} else {
+			return s;
+		}
+	}
+
+	public static String removeVirtuosoPragmas(String s) {
+		return s.replaceAll("(define|DEFINE) .*?:.*? \".*?\"", "");
+	}
+
+	/*
+	The prefixes that the DBpedia endpoint predefines are not prepended to the query string, but resolved by the parsers.
+	 */
+	@Override
+	public DefaultPrefixes getDefaultPrefixes() {
+		return defaultPrefixes;
+	}
+
+	public String preprocessQueryString(String queryString) {
+		return Stream.of(queryString)
+				.map(DBPediaPreprocessor::removeVirtuosoPragmas)
+				.map(DBPediaPreprocessor::removeIncorrectCommas)
+				.findAny()
+				.orElseThrow();
+	}
+
+	/*
+	Byte-level version of the regex in extractQueryString(String): the query parameter ends at the first '&', '"' or " HTTP".
+	 */
+	@Override
+	public Optional<String> extractQueryString(ByteBuffer buffer, int lineStart, int lineEnd) {
+		int parameterStart = LogBatch.indexOf(buffer, lineStart, lineEnd, QUERY_PARAMETER);
+		if (parameterStart < 0) {
+			return Optional.empty();
+		}
+
+		int queryStart = parameterStart + QUERY_PARAMETER.length;
+		for (int i = queryStart; i < lineEnd; i++) {
+			byte b = buffer.get(i);
+			if (b == '&' || b == '"' || (b == ' ' && LogBatch.indexOf(buffer, i, Math.min(i + HTTP_SUFFIX.length, lineEnd), HTTP_SUFFIX) == i)) {
+				return decodeURLEncodedString(LogBatch.decode(buffer, queryStart, i));
+			}
+		}
+
+		return Optional.empty();
+	}
+
+	public Optional<String> extractQueryString(String logLine) {
+		Pattern regex = Pattern.compile("query=(.*?)(&| HTTP|\")");
+
+		Matcher m = regex.matcher(logLine);
+
+		if (m.find()) {
+			String queryString = m.group(1);
+			return decodeURLEncodedString(queryString);
+		} else {
+			return Optional.empty();
+		}
+	}
+}
@@ -1,19 +1,38 @@
-package at.hadl.logstatistics.utils.preprocessing;
-
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
-import java.util.Optional;
-
-public interface Preprocessor {
-	Optional<String> extractQueryString(String logLine);
-
-	String preprocessQueryString(String queryString);
-
-	default Optional<String> decodeURLEncodedString(String encodedString) {
-		try {
-			return Optional.of(URLDecoder.decode(encodedString, StandardCharsets.UTF_8));
-		} catch (Exception e) {
-			return Optional.empty();
-		}
-	}
-}
+package at.hadl.logstatistics.utils.preprocessing;
+
+import at.hadl.logstatistics.utils.DefaultPrefixes;
+import at.hadl.logstatistics.utils.io.LogBatch;
+
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+public interface Preprocessor {
+	Optional<String> extractQueryString(String logLine);
+
+	String preprocessQueryString(String queryString);
+
+	/*
+	The prefixes that the queries of this kind of log may use without declaring them.
+	 */
+	default DefaultPrefixes getDefaultPrefixes() {
+		return DefaultPrefixes.NONE;
+	}
+
+	/*
+	Extracts the query string from the raw bytes of a log line (between lineStart and lineEnd, without the line break).
+	Implementations should only decode the bytes of the query field; by default, the whole line is decoded.
+	 */
+	default Optional<String> extractQueryString(ByteBuffer buffer, int lineStart, int lineEnd) {
+		return extractQueryString(LogBatch.decode(buffer, lineStart, lineEnd));
+	}
+
+	default Optional<String> decodeURLEncodedString(String encodedString) {
+		try {
+			return Optional.of(URLDecoder.decode(encodedString, StandardCharsets.UTF_8));
+		} catch (Exception e) {
+			return Optional.empty();
+		}
+	}
+}
@@ -1,16 +1,25 @@
-package at.hadl.logstatistics.utils.preprocessing;
-
-import java.util.Optional;
-
-public class WikidataPreprocessor implements Preprocessor {
-
-	@Override
-	public Optional<String> extractQueryString(String logLine) {
-		return decodeURLEncodedString(logLine.split("\t")[0]);
-	}
-
-	@Override
-	public String preprocessQueryString(String queryString) {
-		return queryString;
-	}
-}
+package at.hadl.logstatistics.utils.preprocessing;
+
+import at.hadl.logstatistics.utils.io.LogBatch;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+public class WikidataPreprocessor implements Preprocessor {
+
+	@Override
+	public Optional<String> extractQueryString(String logLine) {
+		return decodeURLEncodedString(logLine.split("\t")[0]);
+	}
+
+	@Override
+	public Optional<String> extractQueryString(ByteBuffer buffer, int lineStart, int lineEnd) {
+		int tab = LogBatch.indexOf(buffer, lineStart, lineEnd, (byte) '\t');
+		return decodeURLEncodedString(LogBatch.decode(buffer, lineStart, tab < 0 ? lineEnd : tab));
+	}
+
+	@Override
+	public String preprocessQueryString(String queryString) {
+		return queryString;
+	}
+}
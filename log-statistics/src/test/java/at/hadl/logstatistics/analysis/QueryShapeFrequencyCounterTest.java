@@ -0,0 +1,131 @@
+package at.hadl.logstatistics.analysis;
+
+import at.hadl.logstatistics.utils.Checkpoint;
+import at.hadl.logstatistics.utils.PredicateMap;
+import at.hadl.logstatistics.utils.io.BatchLogIterator;
+import at.hadl.logstatistics.utils.io.LogBatch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryShapeFrequencyCounterTest {
+    private static final int BATCH_SIZE = 50;
+    private static final int CHECKPOINT_INTERVAL = 3;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void resumedAnalysisMatchesUninterruptedAnalysisTest() throws Exception {
+        assertResumedAnalysisMatchesUninterruptedAnalysis(UnaryOperator.identity());
+    }
+
+    @Test
+    void resumedSpillingAnalysisMatchesUninterruptedAnalysisTest() throws Exception {
+        assertResumedAnalysisMatchesUninterruptedAnalysis(counter -> counter.withSpilling(5));
+    }
+
+    @Test
+    void resumedHeavyHitterAnalysisMatchesUninterruptedAnalysisTest() throws Exception {
+        // Enough counters for every query shape, so the approximate counts are exact and do not depend on the order of the queries
+        assertResumedAnalysisMatchesUninterruptedAnalysis(counter -> counter.withHeavyHitters(6400));
+    }
+
+    private void assertResumedAnalysisMatchesUninterruptedAnalysis(UnaryOperator<QueryShapeFrequencyCounter> configuration) throws Exception {
+        var log = tempDir.resolve("log.txt");
+        Files.write(log, queries(600));
+
+        var uninterruptedPredicateMap = new PredicateMap();
+        var uninterruptedOutFile = tempDir.resolve("uninterrupted").toString();
+        try (var logBatches = new BatchLogIterator(log, BatchLogIterator.Compression.NONE, BATCH_SIZE, 0)) {
+            configuration.apply(new QueryShapeFrequencyCounter(logBatches, uninterruptedOutFile))
+                    .withPredicateMap(uninterruptedPredicateMap)
+                    .startAnalysis();
+        }
+
+        // The analysis stops after 8 batches, but resumes from the checkpoint after 6, so the counts of 2 batches must not be kept
+        var outFile = tempDir.resolve("resumed").toString();
+        var checkpointFile = Checkpoint.checkpointPathFor(outFile);
+        var savedCheckpointFile = tempDir.resolve("saved.checkpoint");
+        try (var logBatches = new BatchLogIterator(log, BatchLogIterator.Compression.NONE, BATCH_SIZE, 0)) {
+            var interruptedBatches = new Iterator<LogBatch>() {
+                private int batches = 0;
+
+                @Override
+                public boolean hasNext() {
+                    if (batches == 2 * CHECKPOINT_INTERVAL) {
+                        copy(checkpointFile, savedCheckpointFile);
+                    }
+                    return batches < 2 * CHECKPOINT_INTERVAL + 2 && logBatches.hasNext();
+                }
+
+                @Override
+                public LogBatch next() {
+                    batches++;
+                    return logBatches.next();
+                }
+            };
+            // The same predicate ids as the uninterrupted analysis, so the query shapes look the same
+            configuration.apply(new QueryShapeFrequencyCounter(interruptedBatches, outFile))
+                    .withPredicateMap(new PredicateMap(new ConcurrentHashMap<>(uninterruptedPredicateMap.getPredicateMap())))
+                    .withCheckpoints(checkpointFile, CHECKPOINT_INTERVAL, logBatches::getPosition)
+                    .startAnalysis();
+        }
+
+        var checkpoint = Checkpoint.fromPath(savedCheckpointFile).orElseThrow();
+        var resumedPredicateMap = new PredicateMap();
+        resumedPredicateMap.putAll(checkpoint.getPredicateMap());
+        try (var logBatches = new BatchLogIterator(log, BatchLogIterator.Compression.NONE, BATCH_SIZE, 0).withResumePosition(checkpoint.getLogPosition())) {
+            configuration.apply(new QueryShapeFrequencyCounter(logBatches, outFile))
+                    .withPredicateMap(resumedPredicateMap)
+                    .resumeFrom(checkpoint)
+                    .withCheckpoints(checkpointFile, CHECKPOINT_INTERVAL, logBatches::getPosition)
+                    .startAnalysis();
+        }
+
+        for (var suffix : List.of(".tsv", "_meta.tsv", "_features.tsv")) {
+            assertThat(sortedLines(outFile + suffix)).as(suffix).isEqualTo(sortedLines(uninterruptedOutFile + suffix));
+        }
+    }
+
+    // Queries with a few dozen query shapes and feature combinations, and some lines that are no queries at all
+    private static List<String> queries(int count) {
+        var queries = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            if (i % 17 == 0) {
+                queries.add("not a query " + i);
+            } else if (i % 3 == 0) {
+                queries.add("SELECT ?s WHERE { ?s <http://example.org/p" + i % 7 + "> ?o . FILTER(?o > " + i + ") }");
+            } else {
+                queries.add("SELECT ?s WHERE { ?s <http://example.org/p" + i % 7 + "> ?o . ?o <http://example.org/p" + i % 5 + "> ?x }");
+            }
+        }
+        return queries;
+    }
+
+    // Query shapes and feature combinations with the same count may be written in any order
+    private static List<String> sortedLines(String file) throws IOException {
+        var lines = new ArrayList<>(Files.readAllLines(Path.of(file)));
+        lines.sort(null);
+        return lines;
+    }
+
+    private static void copy(Path source, Path target) {
+        try {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package at.hadl.logstatistics.analysis;
+
+import at.hadl.logstatistics.utils.LongCountMap;
+import at.hadl.logstatistics.utils.RequiredPartitionsExtractor;
+import at.hadl.logstatistics.utils.ResultFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResultMergerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void conflictingPredicateIdsAreRemappedTest() throws IOException {
+        // The ids 1 and 2 stand for different predicates in the two files, so the stars of a shape may change their order, too
+        var first = writeResultFile("first", Map.of("VALID_QUERIES", 11L), Map.of(0L, 2L, 5L, 9L), Map.of("p", 1, "q", 2),
+                Map.of(List.of(new int[]{1, 2}), 3L, List.of(new int[]{1}), 2L, List.of(new int[]{1}, new int[]{2}), 6L));
+        var second = writeResultFile("second", Map.of("VALID_QUERIES", 6L, "TOTAL_LINES", 7L), Map.of(5L, 2L, 8L, 4L), Map.of("q", 1, "r", 2, "p", 3),
+                Map.of(List.of(new int[]{1, 3}), 4L, List.of(new int[]{1}, new int[]{3}), 1L, List.of(new int[]{2}), 1L));
+
+        var outFile = tempDir.resolve("merged").toString();
+        new ResultMerger(List.of(first, second), outFile)
+                .withThreads(2)
+                .merge();
+
+        try (var merged = ResultFile.reader(ResultFile.resultPathFor(outFile))) {
+            var predicateNames = new HashMap<Integer, String>();
+            merged.getPredicateMap().forEach((predicate, id) -> predicateNames.put(id, predicate));
+            var shapes = new HashMap<String, Long>();
+            merged.forEachShape((queryShape, count) -> shapes.put(format(queryShape, predicateNames), count));
+
+            assertThat(merged.getPredicateMap()).hasSize(3);
+            assertThat(shapes).isEqualTo(Map.of("[p, q]", 7L, "[p]", 2L, "[p][q]", 7L, "[r]", 1L));
+            assertThat(merged.getMetaInformationCounts()).containsEntry("VALID_QUERIES", 17L).containsEntry("TOTAL_LINES", 7L);
+            assertThat(merged.getFeatureCombinationCounts().size()).isEqualTo(3);
+            assertThat(merged.getFeatureCombinationCounts().get(0)).isEqualTo(2);
+            assertThat(merged.getFeatureCombinationCounts().get(5)).isEqualTo(11);
+            assertThat(merged.getFeatureCombinationCounts().get(8)).isEqualTo(4);
+        }
+    }
+
+    private Path writeResultFile(String name, Map<String, Long> metaInformationCounts, Map<Long, Long> featureCombinations,
+                                 Map<String, Integer> predicateMap, Map<List<int[]>, Long> shapes) throws IOException {
+        var featureCombinationCounts = new LongCountMap();
+        featureCombinations.forEach(featureCombinationCounts::add);
+
+        var path = ResultFile.resultPathFor(tempDir.resolve(name).toString());
+        try (var writer = ResultFile.writer(path, metaInformationCounts, featureCombinationCounts, predicateMap)) {
+            for (var shape : shapes.entrySet()) {
+                writer.addShape(RequiredPartitionsExtractor.encodeStarShapes(shape.getKey()), shape.getValue());
+            }
+            writer.finish();
+        }
+        return path;
+    }
+
+    // The star shapes by their predicate names, in their encoded order
+    private static String format(byte[] queryShape, Map<Integer, String> predicateNames) {
+        var starShapes = new ArrayList<String>();
+        for (var starShape : RequiredPartitionsExtractor.decodeStarShapes(queryShape)) {
+            var predicates = new ArrayList<String>();
+            for (int predicate : starShape) {
+                predicates.add(predicateNames.get(predicate));
+            }
+            starShapes.add(predicates.toString());
+        }
+        return starShapes.stream().collect(Collectors.joining());
+    }
+}
@@ -0,0 +1,156 @@
+package at.hadl.logstatistics.utils;
+
+import at.hadl.logstatistics.utils.graphbuilding.GraphBuilder;
+import at.hadl.logstatistics.utils.graphbuilding.GraphBuildingResult;
+import at.hadl.logstatistics.utils.graphbuilding.TriplesElementWalkerFactory;
+import at.hadl.logstatistics.utils.graphbuilding.UUIDGenerator;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.Syntax;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FastQueryParserTest {
+    private static final String PREFIX = "PREFIX  : <http://xmlns.com/foaf/0.1/>\n";
+
+    // The queries of the GraphBuilderTest that the fast parser handles itself
+    private static final List<String> GRAPH_BUILDER_QUERIES = List.of(
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a :foaf ?c . ?a :name \"Karl\"  }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a :foaf ?c . OPTIONAL {    ?a :worksAt ?company .   ?company :companyName \"Some Company\"} }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . { ?a :foaf ?c } UNION {    ?a :worksAt ?company .   ?company :companyName \"Some Company\"} }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a :foaf | :worksAt ?c .  }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a :foaf / :name | :worksAt ?c .  }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a :foaf* ?c .  }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a :foaf+ ?c .  }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a :foaf? ?c .  }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a ^:foaf ?c .  }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a :foaf ?c . OPTIONAL {    ?a :worksAt ?company . \tOPTIONAL {    \t?company :companyName \"Some Company\" \t}} . " +
+                    "OPTIONAL {\t?b :name \"John Doe\"} . ?c :name ?cName }",
+            PREFIX + " SELECT ?a WHERE {    ?a :knows / ^(:name+) / (:worksAt? / :foaf)? ?b . }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a ?somePredicate ?c . OPTIONAL { ?a :name \"Karl\" }  }");
+
+    // The queries of the GraphBuilderTest that have to be parsed by Jena
+    private static final List<String> JENA_QUERIES = List.of(
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . { ?a :foaf ?c } .FILTER (STRSTARTS(?a, \"jdoe\") && NOT EXISTS { ?a :worksAt ?company }) }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . { ?a :foaf ?c } .FILTER (STRSTARTS(?a, \"jdoe\") && EXISTS { ?a :worksAt ?company }) }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . { ?a :foaf ?c } . MINUS { ?a :worksAt ?company } }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . { SELECT ?b WHERE { ?b :worksAt ?c } } . }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ?a !:foaf ?c .  }",
+            PREFIX + "SELECT ?a WHERE { ?a :knows ?b . SERVICE <http://people.example.org/sparql> { ?a :foaf ?c } }",
+            PREFIX + "SELECT ?a FROM NAMED <http://example.org/example> WHERE { ?a :knows ?b . GRAPH <http://example.org/example> { ?a :foaf ?c } }",
+            "DESCRIBE <http://example.org/>");
+
+    private AtomicInteger uuids;
+    private GraphBuilder graphBuilder;
+
+    @BeforeEach
+    void setUp() {
+        graphBuilder = new GraphBuilder(new TriplesElementWalkerFactory(new UUIDGenerator() {
+            @Override
+            public String generateUUID() {
+                return "uuid" + uuids.incrementAndGet();
+            }
+        }));
+    }
+
+    @Test
+    void graphBuilderQueriesGiveTheResultsOfJenaTest() {
+        GRAPH_BUILDER_QUERIES.forEach(this::assertSameResultAsJena);
+    }
+
+    @Test
+    void syntaxVariantsGiveTheResultsOfJenaTest() {
+        var prefixes = "prefix wd: <http://www.wikidata.org/entity/> PREFIX wdt:<http://www.wikidata.org/prop/direct/>\n" +
+                "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n";
+        List.of(
+                prefixes + "select distinct ?item ?label where { ?item wdt:P31 wd:Q5; wdt:P27 wd:Q40 , wd:Q183; ; rdfs:label ?label. " +
+                        "FILTER(LANG(?label) = \"en\") } ORDER BY DESC(?label) ?item LIMIT 100",
+                prefixes + "SELECT * { ?x a wd:Q5, wd:Q6 ; wdt:P569 1, -2, +3.5, 4e2, 5.0E-1, \"six\", 'seven'@en-GB, \"ei\\\"ght\", true . " +
+                        "wd:Q1 wdt:P1 ?x . ?x wdt:P2 \"Karl\"@de . ?x wdt:P2 'Karl'@de }",
+                prefixes + "ASK { ?x wdt:P31/wdt:P279* wd:Q5 . ?x (wdt:P17|^wdt:P150)+ ?y . ?y (a) ?z . ?y a/^a ?w }",
+                prefixes + "SELECT ?x WHERE { { ?x wdt:P1 ?y } UNION { ?x wdt:P2 ?y } UNION { { ?x wdt:P3 ?y } } . " +
+                        "FILTER(?y > 3 && (!BOUND(?z) || ?y IN (1, 2)) || ?y NOT IN ()) . ?y wdt:P4 ?z FILTER STRSTARTS(STR(?z), \"a\") " +
+                        "FILTER <http://example.org/f>(?z, -1) OPTIONAL { ?z wdt:P5 ?v FILTER(?v-1 < ?z * +2) } . {} }",
+                prefixes + "SELECT ?x { ?x wdt:P1 wd:Q1. # a comment with { braces\n ?x wdt:P2.b wd:Q2.c . wd:Q3 wdt:P3 \"x\" } OFFSET 5 LIMIT 10",
+                prefixes + "SELECT ?x { ?x wdt:P1 ?y FILTER(?y < \"2000-01-01\"^^<http://www.w3.org/2001/XMLSchema#dateTime>) }")
+                .forEach(query -> {
+                    assertThat(FastQueryParser.parseQueryPattern(query)).as(query).isPresent();
+                    assertSameResultAsJena(query);
+                });
+    }
+
+    @Test
+    void otherQueriesAreLeftToJenaTest() {
+        var prefixes = "PREFIX wd: <http://www.wikidata.org/entity/>\nPREFIX wdt: <http://www.wikidata.org/prop/direct/>\n";
+        JENA_QUERIES.forEach(query -> assertThat(FastQueryParser.parseQueryPattern(query)).as(query).isEmpty());
+        List.of(
+                "SELECT * { ?x wdt:P31 ?y }",
+                prefixes + "SELECT * { ?x wdt:P31 ?y ?y wdt:P31 ?z }",
+                prefixes + "SELECT * { ?x wdt:P31 ?y . . }",
+                prefixes + "SELECT * { ?x wdt:P31 ?y FILTER(REGEX(?y, \"(\")) }",
+                prefixes + "SELECT * { ?x wdt:P31 <relative> }",
+                prefixes + "SELECT * { ?x wdt:P31 <http://example.org/a/../b> }",
+                prefixes + "SELECT * { ?x wdt:P31 [ wdt:P279 ?y ] }",
+                prefixes + "SELECT * { ?x wdt:P31 _:b }",
+                prefixes + "SELECT * { ?x wdt:P31 \"\\u0041\" }",
+                prefixes + "SELECT * { ?x wdt:P31 ?y BIND(1 AS ?z) }",
+                prefixes + "SELECT (COUNT(*) AS ?count) { ?x wdt:P31 ?y }",
+                prefixes + "SELECT * { ?x wdt:P31 ?y } GROUP BY ?y",
+                prefixes + "SELECT * { ?x wdt:P31 ?y } VALUES ?y { wd:Q5 }",
+                prefixes + "SELECT * { ?x wdt:P31 ?y FILTER(STRLEN(?y, 1)) }",
+                prefixes + "SELECT * { ?x wdt:P31 ?y")
+                .forEach(query -> assertThat(FastQueryParser.parseQueryPattern(query)).as(query).isEmpty());
+    }
+
+    @Test
+    void defaultPrefixesGiveTheResultsOfDeclaredPrefixesTest() {
+        var defaultPrefixes = DefaultPrefixes.named("wikidata");
+        var declarations = "PREFIX wd: <http://www.wikidata.org/entity/>\nPREFIX wdt: <http://www.wikidata.org/prop/direct/>\n" +
+                "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n";
+        List.of(
+                "SELECT ?item ?label WHERE { ?item wdt:P31 wd:Q5 ; rdfs:label ?label . OPTIONAL { ?item wdt:P569/wdt:P31 ?x } }",
+                "SELECT ?item WHERE { ?item wdt:P31 wd:Q5 { SELECT ?item WHERE { ?item wdt:P27 wd:Q40 } } }",
+                // A declared prefix takes precedence over the default prefix
+                "PREFIX wd: <http://example.org/> SELECT ?item WHERE { ?item wdt:P31 wd:Q5 }")
+                .forEach(query -> {
+                    var predicateMap = new PredicateMap();
+                    uuids = new AtomicInteger();
+                    var declaredResult = graphBuilder.constructGraphsFromQuery(QueryFactory.create(declarations + query, Syntax.syntaxSPARQL_11), predicateMap);
+                    uuids = new AtomicInteger();
+                    var jenaResult = graphBuilder.constructGraphsFromQuery(QueryParser.parseQuery(query, defaultPrefixes).orElseThrow(), predicateMap);
+
+                    assertThat(jenaResult.getConstructedGraphs()).as(query).containsExactlyInAnyOrderElementsOf(declaredResult.getConstructedGraphs());
+                    FastQueryParser.parseQueryPattern(query, defaultPrefixes).ifPresent(pattern -> {
+                        uuids = new AtomicInteger();
+                        var fastResult = graphBuilder.constructGraphsFromPattern(pattern, predicateMap);
+                        assertThat(fastResult.getConstructedGraphs()).as(query).containsExactlyInAnyOrderElementsOf(declaredResult.getConstructedGraphs());
+                    });
+                });
+
+        assertThat(FastQueryParser.parseQueryPattern("SELECT * { ?x wdt:P31 ?y }", defaultPrefixes)).isPresent();
+        assertThat(QueryParser.parseQuery("SELECT * { ?x foo:P31 ?y }", defaultPrefixes)).isEmpty();
+    }
+
+    private void assertSameResultAsJena(String queryString) {
+        var fastPattern = FastQueryParser.parseQueryPattern(queryString);
+        assertThat(fastPattern).as(queryString).isPresent();
+
+        var predicateMap = new PredicateMap();
+        uuids = new AtomicInteger();
+        var jenaResult = graphBuilder.constructGraphsFromQuery(QueryFactory.create(queryString, Syntax.syntaxSPARQL_11), predicateMap);
+        uuids = new AtomicInteger();
+        var fastResult = graphBuilder.constructGraphsFromPattern(fastPattern.get(), predicateMap);
+
+        assertThat(fastResult.getEncounteredFeatures()).as(queryString).isEqualTo(jenaResult.getEncounteredFeatures());
+        assertThat(fastResult.getConstructedGraphs()).as(queryString).containsExactlyInAnyOrderElementsOf(jenaResult.getConstructedGraphs());
+        assertThat(formattedStarShapes(fastResult)).as(queryString).isEqualTo(formattedStarShapes(jenaResult));
+    }
+
+    private static String formattedStarShapes(GraphBuildingResult graphBuildingResult) {
+        return graphBuildingResult.getStarShapes().map(RequiredPartitionsExtractor::formatStarShapes).orElse(null);
+    }
+}
@@ -0,0 +1,81 @@
+package at.hadl.logstatistics.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeavyHitterTableTest {
+    @Test
+    void countsStayWithinTheirErrorBoundsTest() throws IOException {
+        var table = new HeavyHitterTable(1024);
+        var trueCounts = new HashMap<Integer, Long>();
+        var random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            // A few frequent shapes and a long tail of rare ones
+            int shape = random.nextInt(4) == 0 ? random.nextInt(50) : 50 + random.nextInt(100000);
+            long count = 1 + random.nextInt(3);
+            table.add(key(shape), count);
+            trueCounts.merge(shape, count, Long::sum);
+        }
+
+        var bytes = new ByteArrayOutputStream();
+        table.write(new DataOutputStream(bytes));
+        var readTable = HeavyHitterTable.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        var monitored = new HashMap<Integer, Long>();
+        readTable.forEach((key, count, error) -> {
+            long trueCount = trueCounts.get(ByteBuffer.wrap(key).getInt());
+            assertThat(trueCount).isBetween(count - error, count);
+            monitored.put(ByteBuffer.wrap(key).getInt(), count);
+        });
+
+        assertThat(readTable.getCapacity()).isEqualTo(1024);
+        assertThat(readTable.size()).isEqualTo(1024);
+        assertThat(monitored).hasSize(1024);
+        assertThat(readTable.getUnmonitoredCountBound()).isEqualTo(table.getUnmonitoredCountBound());
+        for (Map.Entry<Integer, Long> trueCount : trueCounts.entrySet()) {
+            if (!monitored.containsKey(trueCount.getKey())) {
+                assertThat(trueCount.getValue()).isLessThanOrEqualTo(table.getUnmonitoredCountBound());
+            }
+        }
+        for (int shape = 0; shape < 50; shape++) {
+            assertThat(monitored).containsKey(shape);
+        }
+    }
+
+    @Test
+    void fewShapesAreCountedExactlyTest() {
+        var table = new HeavyHitterTable(1024);
+        for (int i = 0; i < 10000; i++) {
+            table.add(key(i % 10), 1);
+        }
+
+        table.forEach((key, count, error) -> {
+            assertThat(count).isEqualTo(1000);
+            assertThat(error).isEqualTo(0);
+        });
+        assertThat(table.size()).isEqualTo(10);
+        assertThat(table.getUnmonitoredCountBound()).isEqualTo(0);
+    }
+
+    @Test
+    void smallTablesHaveExactlyTheirCapacityTest() {
+        for (int capacity : new int[]{1, 10, 200, 1000}) {
+            var table = new HeavyHitterTable(capacity);
+            for (int i = 0; i < 10 * capacity; i++) {
+                table.add(key(i), 1 + i % 5);
+            }
+            assertThat(table.size()).as("capacity %d", capacity).isEqualTo(capacity);
+        }
+    }
+
+    private static byte[] key(int shape) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(shape).array();
+    }
+}
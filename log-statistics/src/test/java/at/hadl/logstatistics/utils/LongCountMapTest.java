@@ -0,0 +1,34 @@
+package at.hadl.logstatistics.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongCountMapTest {
+    @Test
+    void countsSurviveGrowingAndWritingTest() throws IOException {
+        var map = new LongCountMap();
+        for (long key = 0; key < 1000; key++) {
+            map.add(key << 20, key + 1);
+            map.add(key << 20, 1);
+        }
+        map.add(-1L, 7);
+        map.add(42L, 0);
+
+        var bytes = new ByteArrayOutputStream();
+        map.write(new DataOutputStream(bytes));
+        var readMap = LongCountMap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(readMap.size()).isEqualTo(1001);
+        assertThat(readMap.get(0)).isEqualTo(2);
+        assertThat(readMap.get(999L << 20)).isEqualTo(1001);
+        assertThat(readMap.get(-1L)).isEqualTo(7);
+        assertThat(readMap.get(42L)).isEqualTo(0);
+    }
+}
@@ -0,0 +1,73 @@
+package at.hadl.logstatistics.utils;
+
+import at.hadl.logstatistics.utils.MetaInformationCounters.Counter;
+import at.hadl.logstatistics.utils.graphbuilding.FeatureMask;
+import at.hadl.logstatistics.utils.graphbuilding.PathFeature;
+import at.hadl.logstatistics.utils.graphbuilding.QueryFeature;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetaInformationCountersTest {
+    @Test
+    void countsOfAllThreadsAreSummedUpTest() throws InterruptedException {
+        var counters = new MetaInformationCounters();
+        counters.addAll(Map.of("OPTIONAL", 5L, "TOTAL_LINES", 7L, "REMOVED_FEATURE", 3L));
+
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            var thread = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    counters.increment(Counter.TOTAL_LINES);
+                    counters.addFeatures(FeatureMask.of(QueryFeature.OPTIONAL) | FeatureMask.of(PathFeature.SEQ), 2);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertThat(counters.sum()).containsExactly(
+                Map.entry("OPTIONAL", 8005L),
+                Map.entry("SEQ", 8000L),
+                Map.entry("TOTAL_LINES", 4007L),
+                Map.entry("REMOVED_FEATURE", 3L));
+    }
+
+    @Test
+    void featureCombinationsOfAllThreadsAreCountedExactlyTest() throws InterruptedException {
+        var optional = FeatureMask.of(QueryFeature.OPTIONAL);
+        var optionalAndSeq = optional | FeatureMask.of(PathFeature.SEQ);
+        var counters = new MetaInformationCounters();
+        var checkpointCombinations = new LongCountMap();
+        checkpointCombinations.add(optional, 5);
+        counters.addFeatureCombinations(checkpointCombinations);
+
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            var thread = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    counters.addFeatures(j % 2 == 0 ? optionalAndSeq : 0, 1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        var combinations = counters.sumFeatureCombinations();
+        assertThat(combinations.size()).isEqualTo(3);
+        assertThat(combinations.get(optional)).isEqualTo(5);
+        assertThat(combinations.get(optionalAndSeq)).isEqualTo(2000);
+        assertThat(combinations.get(0)).isEqualTo(2000);
+        assertThat(FeatureMask.format(optionalAndSeq)).isEqualTo("OPTIONAL+SEQ");
+        assertThat(FeatureMask.format(0)).isEqualTo("NONE");
+    }
+}
@@ -0,0 +1,33 @@
+package at.hadl.logstatistics.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryCostEstimatorTest {
+    @Test
+    void optionalsAndUnionsTest() {
+        assertThat(QueryCostEstimator.estimateCost("SELECT * WHERE { ?a <p> ?b OPTIONAL { ?b <q> ?c } { ?a <r> ?d } UNION { ?a <s> ?d } }")).isEqualTo(2);
+        assertThat(QueryCostEstimator.estimateCost("SELECT ?a WHERE { ?a <http://example.org/optionalUnion> ?b }")).isEqualTo(0);
+    }
+
+    @Test
+    void propertyPathsTest() {
+        assertThat(QueryCostEstimator.estimateCost("SELECT ?a WHERE { ?a wdt:P31/wdt:P279* wd:Q5 }")).isEqualTo(2);
+        assertThat(QueryCostEstimator.estimateCost("SELECT ?a WHERE { ?a <http://example.org/p>+ ?b }")).isEqualTo(2);
+        assertThat(QueryCostEstimator.estimateCost("SELECT ?a WHERE { ?a (<p>|<q>)* ?b }")).isEqualTo(2);
+        assertThat(QueryCostEstimator.estimateCost("SELECT ?a WHERE { ?a a* ?b }")).isEqualTo(2);
+    }
+
+    @Test
+    void arithmeticIsNoPropertyPathTest() {
+        assertThat(QueryCostEstimator.estimateCost("SELECT * WHERE { ?a <p> ?price BIND(?price*2 AS ?double) }")).isEqualTo(0);
+        assertThat(QueryCostEstimator.estimateCost("SELECT (COUNT(*) AS ?c) WHERE { ?a <p> ?b FILTER(?b+1 > 3*2) }")).isEqualTo(0);
+        assertThat(QueryCostEstimator.estimateCost("SELECT * WHERE { ?a <p> $b FILTER($b*10 > 5) }")).isEqualTo(0);
+    }
+
+    @Test
+    void longQueriesTest() {
+        assertThat(QueryCostEstimator.estimateCost("SELECT * WHERE { ?a <p> ?b }" + " ".repeat(4000))).isEqualTo(2);
+    }
+}
@@ -0,0 +1,30 @@
+package at.hadl.logstatistics.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryResultCacheTest {
+    @Test
+    void repeatedQueriesSurviveOneTimeQueriesTest() {
+        var cache = new QueryResultCache(160);
+        var repeatedKey = QueryResultCache.keyFor("SELECT * WHERE { ?a ?b ?c }");
+        var result = new QueryResultCache.Result(true, true, false, 1L << 3, new byte[]{1, 1, 1});
+
+        assertThat(cache.get(repeatedKey)).isNull();
+        cache.put(repeatedKey, result);
+        assertThat(cache.get(repeatedKey)).isSameAs(result);
+
+        for (int i = 0; i < 10000; i++) {
+            var key = QueryResultCache.keyFor("SELECT * WHERE { ?a ?b " + i + " }");
+            if (cache.get(key) == null) {
+                cache.put(key, new QueryResultCache.Result(false, false, false, 0, null));
+            }
+        }
+
+        assertThat(cache.get(repeatedKey)).isSameAs(result);
+        assertThat(cache.getHits()).isEqualTo(2);
+        assertThat(cache.getMisses()).isEqualTo(10001);
+        assertThat(cache.getEvictions()).isGreaterThan(10000 - 160);
+    }
+}
@@ -0,0 +1,33 @@
+package at.hadl.logstatistics.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.HashMap;
+
+import static at.hadl.logstatistics.utils.ShapeFixtures.format;
+import static at.hadl.logstatistics.utils.ShapeFixtures.key;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryShapeTableTest {
+    @Test
+    void countAndSerializeTest() throws IOException {
+        var table = new QueryShapeTable();
+        var expected = new HashMap<String, Long>();
+        for (int i = 0; i < 20000; i++) {
+            var key = key(i % 5000);
+            table.increment(key);
+            expected.merge(format(key), 1L, Long::sum);
+        }
+
+        var bytes = new ByteArrayOutputStream();
+        table.write(new DataOutputStream(bytes));
+        var readTable = QueryShapeTable.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        var actual = new HashMap<String, Long>();
+        readTable.forEach((key, count) -> actual.put(format(key), count));
+
+        assertThat(readTable.size()).isEqualTo(expected.size());
+        assertThat(actual).isEqualTo(expected);
+    }
+}
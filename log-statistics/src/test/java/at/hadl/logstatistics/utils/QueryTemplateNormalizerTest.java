@@ -0,0 +1,81 @@
+package at.hadl.logstatistics.utils;
+
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.Syntax;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryTemplateNormalizerTest {
+    private static final String PREFIXES = "PREFIX wd: <http://www.wikidata.org/entity/>\nPREFIX wdt: <http://www.wikidata.org/prop/direct/>\n";
+
+    @Test
+    void queriesOfOneTemplateShareTheirTemplateTest() {
+        var q42 = QueryTemplateNormalizer.normalize(PREFIXES + "SELECT ?p WHERE { wd:Q42 wdt:P31 ?p ; wdt:P735 \"Douglas\"@en . } LIMIT 10");
+        var q64 = QueryTemplateNormalizer.normalize(PREFIXES + "SELECT ?p WHERE { wd:Q64 wdt:P31 ?p ; wdt:P735 \"Berlin\"@de . } LIMIT 100");
+
+        assertThat(q42).isEqualTo(q64);
+        assertThat(q42).isEqualTo(PREFIXES + "SELECT ?p WHERE { <urn:x-template:1> wdt:P31 ?p ; wdt:P735 \"2\" . } LIMIT 3");
+        QueryFactory.create(q42, Syntax.syntaxARQ);
+    }
+
+    @Test
+    void distinctConstantsStayDistinctTest() {
+        var template = QueryTemplateNormalizer.normalize(PREFIXES + "SELECT * WHERE { wd:Q1 wdt:P31 wd:Q5 . wd:Q5 wdt:P279 [ wdt:P31 wd:Q1 ], wd:Q2 }");
+
+        assertThat(template).isEqualTo(PREFIXES + "SELECT * WHERE { <urn:x-template:1> wdt:P31 <urn:x-template:2> . <urn:x-template:2> wdt:P279 [ wdt:P31 <urn:x-template:1> ], <urn:x-template:3> }");
+    }
+
+    @Test
+    void predicatesPathsAndExpressionsAreKeptTest() {
+        var query = PREFIXES + "SELECT ?x WHERE {\n" +
+                "  ?x wdt:P31/wdt:P279* wd:Q5 ; (wdt:P17|^wdt:P150) ?country . # comment with wd:Q1\n" +
+                "  OPTIONAL { ?x wdt:P569 ?born FILTER(?born < \"2000-01-01\"^^<http://www.w3.org/2001/XMLSchema#dateTime>) }\n" +
+                "  FILTER NOT EXISTS { ?x wdt:P570 [] }\n" +
+                "  VALUES ?country { wd:Q183 wd:Q40 }\n" +
+                "  SERVICE wikibase:label { bd:serviceParam wikibase:language \"en\" }\n" +
+                "} OFFSET 5";
+
+        var template = QueryTemplateNormalizer.normalize(query.replace("PREFIX wd:", "PREFIX wikibase: <http://wikiba.se/ontology#>\nPREFIX bd: <http://www.bigdata.com/rdf#>\nPREFIX wd:"));
+
+        assertThat(template)
+                .contains("?x wdt:P31/wdt:P279* <urn:x-template:1> ; (wdt:P17|^wdt:P150) ?country .")
+                .contains("FILTER(?born < \"2000-01-01\"^^<http://www.w3.org/2001/XMLSchema#dateTime>)")
+                .contains("VALUES ?country { wd:Q183 wd:Q40 }")
+                .contains("SERVICE wikibase:label { <urn:x-template:2> wikibase:language \"3\" }")
+                .endsWith("} OFFSET 4");
+        QueryFactory.create(template, Syntax.syntaxARQ);
+    }
+
+    @Test
+    void spellingsOfOneTermShareTheirPlaceholderTest() {
+        var template = QueryTemplateNormalizer.normalize("BASE <http://example.org/a/>\n"
+                + "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>\nPREFIX rel: <b/>\n"
+                + "SELECT * WHERE { ?s <p> 1, \"1\"^^xsd:integer, +1, 1.0, \"x\", 'x', \"x\"^^xsd:string, \"\\u0078\", \"x\"@en, \"x\"@EN, "
+                + "true, \"true\"^^<http://www.w3.org/2001/XMLSchema#boolean> . <c> <p> <http://example.org/a/c>, rel:d, <http://example.org/a/b/d> }");
+
+        assertThat(template).endsWith("SELECT * WHERE { ?s <p> 1, 1, 2, 3, \"4\", \"4\", \"4\", \"4\", \"5\", \"6\", "
+                + "\"7\", \"7\" . <urn:x-template:8> <p> <urn:x-template:8>, <urn:x-template:9>, <urn:x-template:9> }");
+        QueryFactory.create(template, Syntax.syntaxARQ);
+    }
+
+    @Test
+    void unsupportedQueriesAreKeptTest() {
+        var collection = PREFIXES + "SELECT * WHERE { wd:Q1 wdt:P31 (wd:Q2 wd:Q3) }";
+        var undeclaredPrefix = "SELECT * WHERE { wd:Q1 wdt:P31 ?x }";
+        var unbalanced = PREFIXES + "SELECT * WHERE { wd:Q1 wdt:P31 ?x ";
+
+        assertThat(QueryTemplateNormalizer.normalize(collection)).isEqualTo(collection);
+        assertThat(QueryTemplateNormalizer.normalize(undeclaredPrefix)).isEqualTo(undeclaredPrefix);
+        assertThat(QueryTemplateNormalizer.normalize(unbalanced)).isEqualTo(unbalanced);
+    }
+
+    @Test
+    void defaultPrefixesCountAsDeclaredTest() {
+        var defaultPrefixes = DefaultPrefixes.named("wikidata");
+        var template = QueryTemplateNormalizer.normalize("SELECT * WHERE { wd:Q1 wdt:P31 <http://www.wikidata.org/entity/Q1> }", defaultPrefixes);
+
+        assertThat(template).isEqualTo("SELECT * WHERE { <urn:x-template:1> wdt:P31 <urn:x-template:1> }");
+        assertThat(QueryParser.parseQuery(template, defaultPrefixes)).isPresent();
+    }
+}
@@ -8,7 +8,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Optional;
 
+import static at.hadl.logstatistics.utils.RequiredPartitionsExtractor.decodeStarShapes;
+import static at.hadl.logstatistics.utils.RequiredPartitionsExtractor.encodeStarShapes;
 import static at.hadl.logstatistics.utils.RequiredPartitionsExtractor.extractStarShapes;
+import static at.hadl.logstatistics.utils.RequiredPartitionsExtractor.formatStarShapes;
 import static org.assertj.core.api.Assertions.assertThat;
 
 class RequiredPartitionsExtractorTest {
@@ -72,4 +75,22 @@ class RequiredPartitionsExtractorTest {
 
         assertThat(partitionsResult.get()).isEqualTo("[\"1\",\"1,2\",\"2,4\",\"3\",\"3,7\"]");
     }
+
+    @Test
+    void formatStarShapesTest() {
+        var starShapes = Arrays.asList(new int[]{2}, new int[]{12}, new int[]{1, 10}, new int[]{1}, new int[]{10}, new int[]{2}, new int[]{1, 9});
+
+        assertThat(formatStarShapes(starShapes)).isEqualTo("[\"1\",\"1,10\",\"1,9\",\"10\",\"12\",\"2\"]");
+    }
+
+    @Test
+    void encodeStarShapesTest() {
+        var starShapes = Arrays.asList(new int[]{300, 70000}, new int[]{2}, new int[]{1, 10}, new int[]{2});
+        var reorderedStarShapes = Arrays.asList(new int[]{2}, new int[]{1, 10}, new int[]{300, 70000});
+
+        var key = encodeStarShapes(starShapes);
+
+        assertThat(key).isEqualTo(encodeStarShapes(reorderedStarShapes));
+        assertThat(formatStarShapes(decodeStarShapes(key))).isEqualTo("[\"1,10\",\"2\",\"300,70000\"]");
+    }
 }
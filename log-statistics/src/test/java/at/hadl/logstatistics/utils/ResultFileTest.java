@@ -0,0 +1,57 @@
+package at.hadl.logstatistics.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResultFileTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void resultsAreReadAsTheyWereWrittenTest() throws IOException {
+        var path = ResultFile.resultPathFor(tempDir.resolve("out").toString());
+        var featureCombinationCounts = new LongCountMap();
+        featureCombinationCounts.add(0, 3);
+        featureCombinationCounts.add(5, 2);
+        var expectedShapes = new HashMap<String, Long>();
+        for (int i = 0; i < 1000; i++) {
+            expectedShapes.put(RequiredPartitionsExtractor.formatStarShapes(List.of(new int[]{1, 2 + i})), (long) i + 1);
+        }
+
+        try (var writer = ResultFile.writer(path, Map.of("VALID_QUERIES", 5L), featureCombinationCounts, Map.of("http://example.org/p", 1))) {
+            for (int i = 0; i < 1000; i++) {
+                writer.addShape(RequiredPartitionsExtractor.encodeStarShapes(List.of(new int[]{1, 2 + i})), i + 1);
+            }
+            writer.finish();
+        }
+
+        var actualShapes = new HashMap<String, Long>();
+        try (var reader = ResultFile.reader(path)) {
+            assertThat(reader.getMetaInformationCounts()).isEqualTo(Map.of("VALID_QUERIES", 5L));
+            assertThat(reader.getFeatureCombinationCounts().size()).isEqualTo(2);
+            assertThat(reader.getFeatureCombinationCounts().get(5)).isEqualTo(2);
+            assertThat(reader.getPredicateMap()).isEqualTo(Map.of("http://example.org/p", 1));
+            reader.forEachShape((key, count) -> actualShapes.put(RequiredPartitionsExtractor.formatStarShapes(RequiredPartitionsExtractor.decodeStarShapes(key)), count));
+        }
+        assertThat(actualShapes).isEqualTo(expectedShapes);
+    }
+
+    @Test
+    void unfinishedResultFilesAreDiscardedTest() throws IOException {
+        var path = ResultFile.resultPathFor(tempDir.resolve("out").toString());
+        try (var writer = ResultFile.writer(path, Map.of(), new LongCountMap(), Map.of())) {
+            writer.addShape(new byte[]{0}, 1);
+        }
+
+        assertThat(Files.list(tempDir)).isEmpty();
+    }
+}
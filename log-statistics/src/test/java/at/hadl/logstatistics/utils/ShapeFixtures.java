@@ -0,0 +1,20 @@
+package at.hadl.logstatistics.utils;
+
+import java.util.List;
+
+/*
+The query shape keys that the tests of the query shape tables share.
+ */
+final class ShapeFixtures {
+    private ShapeFixtures() {
+    }
+
+    // A query shape of two stars, distinct for every shape number
+    static byte[] key(int shape) {
+        return RequiredPartitionsExtractor.encodeStarShapes(List.of(new int[]{shape}, new int[]{1, 2 + shape % 7}));
+    }
+
+    static String format(byte[] key) {
+        return RequiredPartitionsExtractor.formatStarShapes(RequiredPartitionsExtractor.decodeStarShapes(key));
+    }
+}
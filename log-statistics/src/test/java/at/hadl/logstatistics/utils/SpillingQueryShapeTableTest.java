@@ -0,0 +1,114 @@
+package at.hadl.logstatistics.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static at.hadl.logstatistics.utils.ShapeFixtures.format;
+import static at.hadl.logstatistics.utils.ShapeFixtures.key;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpillingQueryShapeTableTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void spilledCountsAreMergedAndSortedByCountTest() throws IOException, InterruptedException {
+        var spillDirectory = tempDir.resolve("out.spill");
+        var table = new SpillingQueryShapeTable(spillDirectory, 100);
+        var expected = new HashMap<String, Long>();
+        for (int i = 0; i < 5000; i++) {
+            expected.merge(format(key(i)), 4L * (1 + i / 700), Long::sum);
+        }
+
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            var thread = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    table.add(key(i), 1 + i / 700);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertThat(table.getRuns().size()).isGreaterThan(1);
+
+        var actual = new HashMap<String, Long>();
+        var counts = new ArrayList<Long>();
+        table.forEachByCountDescending((key, count) -> {
+            assertThat(actual.put(format(key), count)).isNull();
+            counts.add(count);
+        });
+
+        assertThat(actual).isEqualTo(expected);
+        assertThat(counts).isSortedAccordingTo((first, second) -> Long.compare(second, first));
+
+        table.deleteRuns();
+        assertThat(Files.exists(spillDirectory)).isFalse();
+    }
+
+    @Test
+    void resumedRunsKeepTheirCountsTest() throws IOException {
+        var spillDirectory = tempDir.resolve("out.spill");
+        var table = new SpillingQueryShapeTable(spillDirectory, 10);
+        for (int i = 0; i < 50; i++) {
+            table.add(key(i), 1);
+        }
+        table.spill();
+        var checkpointRuns = table.getRuns();
+        // Counted after the checkpoint, so it must not count after resuming
+        for (int i = 0; i < 50; i++) {
+            table.add(key(i), 100);
+        }
+
+        var resumedTable = new SpillingQueryShapeTable(spillDirectory, 10);
+        resumedTable.resumeRuns(checkpointRuns);
+        resumedTable.add(key(0), 1);
+
+        var actual = new HashMap<String, Long>();
+        resumedTable.forEachByCountDescending((key, count) -> actual.put(format(key), count));
+
+        assertThat(actual).hasSize(50);
+        assertThat(actual.get(format(key(0)))).isEqualTo(2);
+        assertThat(actual.get(format(key(49)))).isEqualTo(1);
+    }
+
+    @Test
+    void moreRunsThanTheMergeWidthAreMergedInPassesTest() throws IOException {
+        var spillDirectory = tempDir.resolve("out.spill");
+        var table = new SpillingQueryShapeTable(spillDirectory, 2);
+        var expected = new HashMap<String, Long>();
+        // Every shape is counted in two different runs
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 400; i++) {
+                table.add(key(i), 1 + i % 13);
+                expected.merge(format(key(i)), 1L + i % 13, Long::sum);
+            }
+        }
+        table.spill();
+        assertThat(table.getRuns().size()).isGreaterThan(2 * SpillingQueryShapeTable.MAX_MERGE_WIDTH);
+
+        var actual = new HashMap<String, Long>();
+        var counts = new ArrayList<Long>();
+        table.forEachByCountDescending((key, count) -> {
+            assertThat(actual.put(format(key), count)).isNull();
+            counts.add(count);
+        });
+
+        assertThat(actual).isEqualTo(expected);
+        assertThat(counts).isSortedAccordingTo((first, second) -> Long.compare(second, first));
+        // The intermediate runs are deleted, the spilled runs are kept for the checkpoints
+        try (var files = Files.list(spillDirectory)) {
+            assertThat(files.count()).isEqualTo(table.getRuns().size());
+        }
+    }
+}
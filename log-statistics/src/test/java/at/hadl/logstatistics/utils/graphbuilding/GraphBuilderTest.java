@@ -1,6 +1,7 @@
 package at.hadl.logstatistics.utils.graphbuilding;
 
 import at.hadl.logstatistics.utils.PredicateMap;
+import at.hadl.logstatistics.utils.RequiredPartitionsExtractor;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.Syntax;
 import org.jgrapht.graph.DefaultDirectedGraph;
@@ -13,6 +14,7 @@ import java.util.Collections;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.BDDMockito.given;
 
 class GraphBuilderTest {
@@ -787,4 +789,50 @@ class GraphBuilderTest {
         assertThat(graphBuildingResult.getConstructedGraphs()).isEmpty();
         assertThat(graphBuildingResult.getEncounteredFeatures()).containsOnly(QueryFeature.UNSUPPORTED_FEATURE.name(), QueryFeature.VARIABLE_PREDICATE.name(), QueryFeature.OPTIONAL.name());
     }
+
+    @Test
+    public void expansionLimitTest() {
+        var uUIDGenerator = Mockito.mock(UUIDGenerator.class);
+        var limitedGraphBuilder = new GraphBuilder(new TriplesElementWalkerFactory(uUIDGenerator, 100, 5000));
+
+        var queryString = new StringBuilder(PREFIX + "SELECT ?a WHERE { ?a :knows ?b . ");
+        for (int i = 0; i < 12; i++) {
+            queryString.append("{ ?a :name ?n").append(i).append(" } UNION { ?a :foaf ?n").append(i).append(" } ");
+        }
+        queryString.append(" }");
+
+        var query = QueryFactory.create(queryString.toString(), Syntax.syntaxSPARQL_11);
+        var graphBuildingResult = limitedGraphBuilder.constructGraphsFromQuery(query, PREDICATE_MAP);
+
+        assertThat(graphBuildingResult.getConstructedGraphs()).isEmpty();
+        assertThat(graphBuildingResult.getEncounteredFeatures()).containsOnly(QueryFeature.EXPANSION_LIMIT.name(), QueryFeature.UNION.name());
+        assertThat(graphBuildingResult.isTimeLimited()).isFalse();
+    }
+
+    @Test
+    public void timeLimitIsReportedTest() throws InterruptedException {
+        var budget = new ExpansionBudget(Long.MAX_VALUE, 1);
+        Thread.sleep(10);
+
+        assertThatThrownBy(() -> budget.charge(1))
+                .isInstanceOfSatisfying(ExpansionBudget.ExpansionLimitExceededException.class, e -> assertThat(e.isTimeLimit()).isTrue());
+    }
+
+    @Test
+    public void manyAlternativesTest() {
+        var uUIDGenerator = Mockito.mock(UUIDGenerator.class);
+        var limitedGraphBuilder = new GraphBuilder(new TriplesElementWalkerFactory(uUIDGenerator, 1000, 5000));
+
+        var queryString = new StringBuilder(PREFIX + "SELECT ?a WHERE { ?a :knows ?b0 . ");
+        for (int i = 0; i < 30; i++) {
+            queryString.append("{ ?b").append(i).append(" :name ?c } UNION { ?b").append(i).append(" :foaf ?b").append(i + 1).append(" } ");
+        }
+        queryString.append(" }");
+
+        var query = QueryFactory.create(queryString.toString(), Syntax.syntaxSPARQL_11);
+        var graphBuildingResult = limitedGraphBuilder.constructGraphsFromQuery(query, PREDICATE_MAP);
+
+        assertThat(graphBuildingResult.getStarShapes().map(RequiredPartitionsExtractor::formatStarShapes)).hasValue("[\"1\",\"2\",\"3\"]");
+        assertThat(graphBuildingResult.getEncounteredFeatures()).containsOnly(QueryFeature.UNION.name());
+    }
 }
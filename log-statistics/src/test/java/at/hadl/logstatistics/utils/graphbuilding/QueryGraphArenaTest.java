@@ -0,0 +1,74 @@
+package at.hadl.logstatistics.utils.graphbuilding;
+
+import at.hadl.logstatistics.utils.PredicateMap;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Var;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryGraphArenaTest {
+    @Test
+    void buildTest() {
+        var predicateMap = new PredicateMap();
+        var nodes = new QueryNodes(predicateMap);
+        var arena = QueryGraphArena.forCurrentThread();
+        arena.reset();
+
+        var queryGraph = arena.build(triples(
+                triple(nodes, "?b", "http://xmlns.com/foaf/0.1/name", "?c"),
+                triple(nodes, "?a", "http://xmlns.com/foaf/0.1/knows", "?b"),
+                triple(nodes, "?b", "http://xmlns.com/foaf/0.1/knows", "?a"),
+                triple(nodes, "?b", "http://xmlns.com/foaf/0.1/foaf", "?c")
+        ));
+
+        int name = predicateMap.getIntForPredicate("http://xmlns.com/foaf/0.1/name");
+        int knows = predicateMap.getIntForPredicate("http://xmlns.com/foaf/0.1/knows");
+        int b = nodes.vertex(Var.alloc("b"));
+        int c = nodes.vertex(Var.alloc("c"));
+        int a = nodes.vertex(Var.alloc("a"));
+
+        // The second edge from ?b to ?c is dropped, like in a DefaultDirectedGraph
+        assertThat(queryGraph.getSubjectCount()).isEqualTo(2);
+        assertThat(queryGraph.getSubject(0)).isEqualTo(b);
+        assertThat(queryGraph.edgeEnd(0) - queryGraph.edgeStart(0)).isEqualTo(2);
+        assertThat(queryGraph.getTarget(queryGraph.edgeStart(0))).isEqualTo(c);
+        assertThat(queryGraph.getPredicate(queryGraph.edgeStart(0))).isEqualTo(name);
+        assertThat(queryGraph.getTarget(queryGraph.edgeStart(0) + 1)).isEqualTo(a);
+        assertThat(queryGraph.getPredicate(queryGraph.edgeStart(0) + 1)).isEqualTo(knows);
+        assertThat(queryGraph.getSubject(1)).isEqualTo(a);
+        assertThat(queryGraph.getTarget(queryGraph.edgeStart(1))).isEqualTo(b);
+        assertThat(queryGraph.getPredicate(queryGraph.edgeStart(1))).isEqualTo(knows);
+        assertThat(queryGraph.edgeEnd(1)).isEqualTo(3);
+        assertThat(predicateMap.size()).isEqualTo(3);
+    }
+
+    @Test
+    void queryNodesTest() {
+        var nodes = new QueryNodes(new PredicateMap());
+
+        // Jena does not consider a Var equal to a Node_Variable with the same name, the vertex ids do
+        assertThat(nodes.vertex(NodeFactory.createVariable("a"))).isEqualTo(0);
+        assertThat(nodes.vertex(Var.alloc("a"))).isEqualTo(0);
+        assertThat(nodes.vertex(NodeFactory.createURI("http://xmlns.com/foaf/0.1/a"))).isEqualTo(1);
+        assertThat(nodes.vertex(NodeFactory.createLiteral("a"))).isEqualTo(2);
+        assertThat(nodes.vertex(NodeFactory.createLiteral("a", "en"))).isEqualTo(3);
+        assertThat(nodes.vertex(NodeFactory.createURI("http://xmlns.com/foaf/0.1/a"))).isEqualTo(1);
+        assertThat(IntStream.range(0, 4).mapToObj(nodes::vertexName))
+                .containsExactly("?a", "http://xmlns.com/foaf/0.1/a", "\"a\"", "\"a\"@en");
+    }
+
+    private static int[] triple(QueryNodes nodes, String subject, String predicate, String object) {
+        return new int[]{
+                nodes.vertex(NodeFactory.createVariable(subject.substring(1))),
+                nodes.predicate(NodeFactory.createURI(predicate)),
+                nodes.vertex(NodeFactory.createVariable(object.substring(1)))};
+    }
+
+    private static int[] triples(int[]... triples) {
+        return Arrays.stream(triples).flatMapToInt(Arrays::stream).toArray();
+    }
+}
@@ -0,0 +1,160 @@
+package at.hadl.logstatistics.utils.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.Deflater;
+
+import static at.hadl.logstatistics.utils.io.LogFixtures.compressGzip;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchLogIteratorTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void resumeSequentialTest() throws Exception {
+        resumeTest(1);
+    }
+
+    @Test
+    void resumeParallelTest() throws Exception {
+        resumeTest(3);
+    }
+
+    @Test
+    void parallelReadersReturnTheBatchesOfOneReaderTest() throws Exception {
+        var expected = writeLogFiles(5);
+        // Leftovers of a gzip index are no logs
+        Files.write(tempDir.resolve("log0.gz.gzi"), "not gzip compressed".getBytes(StandardCharsets.UTF_8));
+        Files.write(tempDir.resolve("log1.gz.gzi.tmp"), "not gzip compressed".getBytes(StandardCharsets.UTF_8));
+
+        var sequentialBatches = readBatchesByFile(1);
+        var parallelBatches = readBatchesByFile(3);
+
+        assertThat(parallelBatches).isEqualTo(sequentialBatches);
+        for (int file = 0; file < expected.size(); file++) {
+            var linesOfFile = new ArrayList<String>();
+            sequentialBatches.get(logFile(file)).forEach(linesOfFile::addAll);
+            assertThat(linesOfFile).isEqualTo(expected.get(file));
+        }
+    }
+
+    @Test
+    void sequentialReaderFailureTest() throws Exception {
+        readerFailureTest(1);
+    }
+
+    @Test
+    void parallelReaderFailureTest() throws Exception {
+        readerFailureTest(3);
+    }
+
+    private void readerFailureTest(int readerThreads) throws Exception {
+        writeLogFiles(2);
+        Files.write(tempDir.resolve("corrupt.gz"), "not gzip compressed".getBytes(StandardCharsets.UTF_8));
+
+        try (var logBatches = new BatchLogIterator(tempDir, BatchLogIterator.Compression.GZIP, 300, 1).withReaderThreads(readerThreads)) {
+            assertThatThrownBy(() -> logBatches.forEachRemaining(LogBatch::release))
+                    .isInstanceOf(RuntimeException.class)
+                    .hasCauseInstanceOf(IOException.class);
+        }
+    }
+
+    // The batches of each file in their order; batches must not span files, and the end of the logs must stay the end
+    private Map<Path, List<List<String>>> readBatchesByFile(int readerThreads) throws Exception {
+        var batchesByFile = new HashMap<Path, List<List<String>>>();
+        try (var logBatches = new BatchLogIterator(tempDir, BatchLogIterator.Compression.GZIP, 300, 1).withReaderThreads(readerThreads)) {
+            while (logBatches.hasNext()) {
+                var batch = logBatches.next();
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                var fileName = batch.getFile().getFileName().toString();
+                var prefix = "file " + fileName.substring(3, fileName.indexOf('.')) + " ";
+                assertThat(batch).allMatch(line -> line.startsWith(prefix));
+
+                batchesByFile.computeIfAbsent(batch.getFile(), file -> new ArrayList<>()).add(new ArrayList<>(batch));
+                batch.release();
+            }
+
+            assertThat(logBatches.hasNext()).isFalse();
+            assertThatThrownBy(logBatches::next).isInstanceOf(NoSuchElementException.class);
+            for (var file : batchesByFile.keySet()) {
+                assertThat(logBatches.getPosition().isFinished(file)).isTrue();
+            }
+        }
+        return batchesByFile;
+    }
+
+    private void resumeTest(int readerThreads) throws Exception {
+        var expected = new ArrayList<String>();
+        writeLogFiles(3).forEach(expected::addAll);
+
+        var firstRun = new ArrayList<String>();
+        LogPosition position;
+        try (var logBatches = new BatchLogIterator(tempDir, BatchLogIterator.Compression.GZIP, 300, 1).withReaderThreads(readerThreads)) {
+            for (int i = 0; i < 6; i++) {
+                firstRun.addAll(logBatches.next());
+            }
+            position = logBatches.getPosition();
+        }
+
+        // The position survives serialization
+        var serializedPosition = new ByteArrayOutputStream();
+        position.write(new DataOutputStream(serializedPosition));
+        position = LogPosition.read(new DataInputStream(new ByteArrayInputStream(serializedPosition.toByteArray())));
+
+        var secondRun = new ArrayList<String>();
+        try (var logBatches = new BatchLogIterator(tempDir, BatchLogIterator.Compression.GZIP, 300, 1)
+                .withReaderThreads(readerThreads)
+                .withResumePosition(position)) {
+            logBatches.forEachRemaining(secondRun::addAll);
+        }
+
+        var allLines = new ArrayList<String>(firstRun);
+        allLines.addAll(secondRun);
+        assertThat(allLines).containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(linesOfFile(allLines, 1)).isEqualTo(linesOfFile(expected, 1));
+    }
+
+    private static List<String> linesOfFile(List<String> lines, int file) {
+        var linesOfFile = new ArrayList<String>();
+        lines.stream().filter(line -> line.startsWith("file " + file + " ")).forEach(linesOfFile::add);
+        return linesOfFile;
+    }
+
+    // The lines of each file without its header line
+    private List<List<String>> writeLogFiles(int files) throws IOException {
+        var expected = new ArrayList<List<String>>();
+        for (int file = 0; file < files; file++) {
+            var lines = new ArrayList<String>();
+            lines.add("header");
+            for (int i = 0; i < 1000 + file * 250; i++) {
+                lines.add("file " + file + " line " + i);
+            }
+            expected.add(lines.subList(1, lines.size()));
+
+            Files.write(logFile(file), compressGzip(String.join("\n", lines).getBytes(StandardCharsets.UTF_8), Deflater.DEFAULT_COMPRESSION));
+        }
+        return expected;
+    }
+
+    private Path logFile(int file) {
+        return tempDir.resolve("log" + file + ".gz");
+    }
+}
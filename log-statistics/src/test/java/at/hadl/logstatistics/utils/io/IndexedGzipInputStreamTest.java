@@ -0,0 +1,94 @@
+package at.hadl.logstatistics.utils.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+import static at.hadl.logstatistics.utils.io.LogFixtures.POOL;
+import static at.hadl.logstatistics.utils.io.LogFixtures.compressGzip;
+import static at.hadl.logstatistics.utils.io.LogFixtures.generateLogLines;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndexedGzipInputStreamTest {
+    private static final long SPAN_SIZE = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void singleMemberTest() throws IOException {
+        var content = generateLogLines(40000, 1);
+        var gzipFile = tempDir.resolve("single.log.gz");
+        Files.write(gzipFile, compressGzip(content, Deflater.DEFAULT_COMPRESSION));
+
+        var index = GzipIndex.loadOrBuild(gzipFile, SPAN_SIZE);
+
+        assertThat(index.getCheckpoints().size()).isGreaterThan(1);
+        assertThat(index.getUncompressedSize()).isEqualTo(content.length);
+        assertThat(decompressGzip(gzipFile, index)).isEqualTo(content);
+    }
+
+    @Test
+    void multipleMembersTest() throws IOException {
+        var content1 = generateLogLines(20000, 2);
+        var content2 = generateLogLines(30, 3);
+        var content3 = generateLogLines(20000, 4);
+        var compressed = new ByteArrayOutputStream();
+        compressed.write(compressGzip(content1, Deflater.BEST_SPEED));
+        compressed.write(compressGzip(content2, Deflater.NO_COMPRESSION));
+        compressed.write(compressGzip(content3, Deflater.BEST_COMPRESSION));
+        var gzipFile = tempDir.resolve("multiple.log.gz");
+        Files.write(gzipFile, compressed.toByteArray());
+
+        var expected = new ByteArrayOutputStream();
+        expected.write(content1);
+        expected.write(content2);
+        expected.write(content3);
+
+        var index = GzipIndex.loadOrBuild(gzipFile, SPAN_SIZE);
+
+        assertThat(decompressGzip(gzipFile, index)).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    void persistedIndexTest() throws IOException {
+        var content = generateLogLines(10000, 5);
+        var gzipFile = tempDir.resolve("persisted.log.gz");
+        Files.write(gzipFile, compressGzip(content, Deflater.DEFAULT_COMPRESSION));
+
+        var builtIndex = GzipIndex.loadOrBuild(gzipFile, SPAN_SIZE);
+        var loadedIndex = GzipIndex.loadOrBuild(gzipFile, SPAN_SIZE);
+
+        assertThat(Files.exists(GzipIndex.indexPathFor(gzipFile))).isTrue();
+        assertThat(loadedIndex.getCheckpoints()).hasSameSizeAs(builtIndex.getCheckpoints());
+        assertThat(decompressGzip(gzipFile, loadedIndex)).isEqualTo(content);
+    }
+
+    @Test
+    void unwritableIndexIsKeptInMemoryTest() throws IOException {
+        var content = generateLogLines(10000, 6);
+        var gzipFile = tempDir.resolve("unwritable.log.gz");
+        Files.write(gzipFile, compressGzip(content, Deflater.DEFAULT_COMPRESSION));
+        // A non-empty directory in place of the index file cannot be replaced
+        var indexFile = GzipIndex.indexPathFor(gzipFile);
+        Files.createDirectories(indexFile.resolve("blocked"));
+
+        var index = GzipIndex.loadOrBuild(gzipFile, SPAN_SIZE);
+
+        assertThat(decompressGzip(gzipFile, index)).isEqualTo(content);
+        assertThat(Files.isDirectory(indexFile)).isTrue();
+        assertThat(Files.exists(GzipIndex.temporaryPathFor(indexFile))).isFalse();
+    }
+
+    private static byte[] decompressGzip(Path gzipFile, GzipIndex index) throws IOException {
+        try (var input = new IndexedGzipInputStream(gzipFile, index, POOL)) {
+            return input.readAllBytes();
+        }
+    }
+
+}
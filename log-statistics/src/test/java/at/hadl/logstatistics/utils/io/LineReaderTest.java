@@ -0,0 +1,72 @@
+package at.hadl.logstatistics.utils.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static at.hadl.logstatistics.utils.io.LogFixtures.generateLogLines;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LineReaderTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void mappedLogReaderTest() throws IOException {
+        var expected = new ArrayList<String>();
+        var logFile = tempDir.resolve("log.txt");
+        Files.write(logFile, withHeader(generateLogLines(60000, 1, expected)));
+
+        try (var reader = new MappedLogReader(logFile, 1)) {
+            assertThat(readAll(reader, 7000)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void streamLineReaderTest() throws IOException {
+        var expected = new ArrayList<String>();
+        var bufferPool = new ConcurrentLinkedQueue<byte[]>();
+
+        try (var reader = new StreamLineReader(new ByteArrayInputStream(withHeader(generateLogLines(60000, 2, expected))), 1, bufferPool)) {
+            assertThat(readAll(reader, 7000)).isEqualTo(expected);
+        }
+        assertThat(bufferPool).isNotEmpty();
+    }
+
+    @Test
+    void lastLineWithoutLineBreakTest() throws IOException {
+        var content = "first\n\nlast".getBytes(StandardCharsets.UTF_8);
+
+        try (var reader = new StreamLineReader(new ByteArrayInputStream(content), 0, new ConcurrentLinkedQueue<>())) {
+            assertThat(readAll(reader, 2)).containsExactly("first", "", "last");
+        }
+    }
+
+    private static List<String> readAll(LineReader reader, int batchSize) throws IOException {
+        var lines = new ArrayList<String>();
+        LogBatch batch;
+        while ((batch = reader.readBatch(batchSize)) != null) {
+            assertThat(batch.size()).isLessThanOrEqualTo(batchSize);
+            lines.addAll(batch);
+            batch.release();
+        }
+        return lines;
+    }
+
+    // The readers skip the first line
+    private static byte[] withHeader(byte[] logLines) {
+        var header = "header line\r\n".getBytes(StandardCharsets.UTF_8);
+        var content = Arrays.copyOf(header, header.length + logLines.length);
+        System.arraycopy(logLines, 0, content, header.length, logLines.length);
+        return content;
+    }
+}
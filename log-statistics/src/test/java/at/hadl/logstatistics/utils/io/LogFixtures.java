@@ -0,0 +1,61 @@
+package at.hadl.logstatistics.utils.io;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+/*
+The log files and the decompression pool that the tests of the readers and input streams share.
+ */
+final class LogFixtures {
+    static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    private LogFixtures() {
+    }
+
+    static byte[] generateLogLines(int lineCount, long seed) {
+        return generateLogLines(lineCount, seed, new ArrayList<>());
+    }
+
+    /*
+    Query log lines with non-ASCII characters and alternating LF and CRLF line breaks. The lines are also added to the given
+    list, without their line breaks.
+     */
+    static byte[] generateLogLines(int lineCount, long seed, List<String> lines) {
+        var random = new Random(seed);
+        var content = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            var line = "SELECT ?a WHERE { ?a <http://example.org/p" + random.nextInt(1000) + "> ?b . ?b <http://example.org/q"
+                    + random.nextInt(50) + "> \"äöü " + Long.toHexString(random.nextLong()) + "\" }\t" + i;
+            lines.add(line);
+            content.append(line).append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] compressBZip2(byte[] content) throws IOException {
+        var output = new ByteArrayOutputStream();
+        try (var bzip2Output = new BZip2CompressorOutputStream(output, 1)) {
+            bzip2Output.write(content);
+        }
+        return output.toByteArray();
+    }
+
+    static byte[] compressGzip(byte[] content, int level) throws IOException {
+        var output = new ByteArrayOutputStream();
+        try (var gzipOutput = new GZIPOutputStream(output) {{
+            def.setLevel(level);
+        }}) {
+            new ByteArrayInputStream(content).transferTo(gzipOutput);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,89 @@
+package at.hadl.logstatistics.utils.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static at.hadl.logstatistics.utils.io.LogFixtures.POOL;
+import static at.hadl.logstatistics.utils.io.LogFixtures.compressBZip2;
+import static at.hadl.logstatistics.utils.io.LogFixtures.generateLogLines;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ParallelBZip2InputStreamTest {
+    @Test
+    void multipleBlocksTest() throws IOException {
+        var content = generateLogLines(20000, 1);
+        var compressed = compressBZip2(content);
+
+        assertThat(decompressBZip2(compressed)).isEqualTo(content);
+    }
+
+    @Test
+    void concatenatedStreamsTest() throws IOException {
+        var content1 = generateLogLines(15000, 2);
+        var content2 = generateLogLines(100, 3);
+        var compressed = new ByteArrayOutputStream();
+        compressed.write(compressBZip2(content1));
+        compressed.write(compressBZip2(new byte[0]));
+        compressed.write(compressBZip2(content2));
+
+        var expected = new ByteArrayOutputStream();
+        expected.write(content1);
+        expected.write(content2);
+
+        assertThat(decompressBZip2(compressed.toByteArray())).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    void falseBlockMagicTest() throws IOException {
+        var content = generateFalseBlockMagicContent(250000, 4);
+        var compressed = compressBZip2(content);
+
+        assertThat(countBlockMagics(compressed)).isGreaterThan(3);
+        assertThat(decompressBZip2(compressed)).isEqualTo(content);
+    }
+
+    @Test
+    void emptyFileTest() throws IOException {
+        assertThat(decompressBZip2(new byte[0])).isEmpty();
+    }
+
+    private static byte[] decompressBZip2(byte[] compressed) throws IOException {
+        try (var input = new ParallelBZip2InputStream(new ByteArrayInputStream(compressed), POOL)) {
+            return input.readAllBytes();
+        }
+    }
+
+    /*
+    The mapping table behind the header of a block consists of 16 bits for the used 16 byte ranges and 16 bits for the used
+    bytes of each used range. With exactly the bytes below, it spells the block magic number 0x3141 5926 5359, so each
+    block contains a false block magic number. No byte is repeated, as runs would add their lengths as bytes.
+     */
+    private static byte[] generateFalseBlockMagicContent(int length, long seed) {
+        var bytes = new byte[]{0x21, 0x23, 0x24, 0x27, 0x2a, 0x2d, 0x2e, 0x31, 0x33, 0x36, 0x37, 0x39, 0x3b, 0x3c, 0x3f, 0x70, (byte) 0x90, (byte) 0xf0};
+        var random = new Random(seed);
+        var content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            do {
+                content[i] = bytes[random.nextInt(bytes.length)];
+            } while (i > 0 && content[i] == content[i - 1]);
+        }
+        return content;
+    }
+
+    private static int countBlockMagics(byte[] compressed) {
+        int count = 0;
+        long window = 0;
+        for (int i = 0; i < compressed.length * 8; i++) {
+            window = ((window << 1) | ((compressed[i >>> 3] >>> (7 - (i & 7))) & 1)) & ((1L << 48) - 1);
+            if (i >= 47 && window == 0x314159265359L) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
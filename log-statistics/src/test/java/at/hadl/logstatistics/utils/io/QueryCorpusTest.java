@@ -0,0 +1,87 @@
+package at.hadl.logstatistics.utils.io;
+
+import at.hadl.logstatistics.analysis.QueryDeduplicator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryCorpusTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void resumedReaderSkipsConsumedRecordsTest() throws IOException {
+        var corpusFile = tempDir.resolve("corpus");
+        try (var writer = QueryCorpus.writer(corpusFile)) {
+            for (int i = 0; i < 10000; i++) {
+                writer.write(String.format("query %05d", i), i + 1);
+            }
+            writer.finish(60000);
+        }
+        assertThat(QueryCorpus.isCorpus(corpusFile)).isTrue();
+
+        var position = new LogPosition();
+        position.advance(corpusFile, 5000);
+        try (var reader = QueryCorpus.reader(corpusFile, 3000).withResumePosition(position)) {
+            assertThat(reader.getTotalQueries()).isEqualTo(10000L * 10001 / 2);
+
+            var first = reader.next();
+            assertThat(first.getQuery(0)).isEqualTo("query 05000");
+            assertThat(first.getCount(0)).isEqualTo(5001);
+            assertThat(first.getLinesWithoutQuery()).isZero();
+
+            var last = reader.next();
+            assertThat(last.size()).isEqualTo(2000);
+            assertThat(last.getQuery(1999)).isEqualTo("query 09999");
+            assertThat(last.getLinesWithoutQuery()).isEqualTo(60000 - 10000L * 10001 / 2);
+            assertThat(reader.hasNext()).isFalse();
+            assertThat(reader.getPosition().isFinished(corpusFile)).isTrue();
+        }
+    }
+
+    @Test
+    void deduplicatorMergesSpilledRunsTest() throws IOException {
+        var batches = new ArrayList<LogBatch>();
+        var expected = new HashMap<String, Long>();
+        for (int batch = 0; batch < 5; batch++) {
+            var lines = new ArrayList<String>();
+            for (int line = 0; line < 100; line++) {
+                var query = "query " + (batch * 100 + line) % 170;
+                lines.add(query);
+                expected.merge(query, 1L, Long::sum);
+            }
+            batches.add(LogBatch.fromLines(lines));
+        }
+
+        var corpusFile = tempDir.resolve("corpus");
+        new QueryDeduplicator(batches.iterator(), corpusFile)
+                .withSpillThreshold(1)
+                .deduplicate();
+
+        var actual = new HashMap<String, Long>();
+        var queries = new ArrayList<String>();
+        try (var reader = QueryCorpus.reader(corpusFile, 64)) {
+            while (reader.hasNext()) {
+                var batch = reader.next();
+                for (int i = 0; i < batch.size(); i++) {
+                    queries.add(batch.getQuery(i));
+                    actual.put(batch.getQuery(i), batch.getCount(i));
+                }
+            }
+            assertThat(reader.getTotalLines()).isEqualTo(500);
+        }
+
+        assertThat(actual).isEqualTo(expected);
+        assertThat(queries).isSorted();
+        try (var files = Files.list(tempDir)) {
+            assertThat(files.map(Path::getFileName).map(Path::toString)).containsExactly("corpus");
+        }
+    }
+}
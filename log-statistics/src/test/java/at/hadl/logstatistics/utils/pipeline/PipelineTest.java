@@ -0,0 +1,115 @@
+package at.hadl.logstatistics.utils.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PipelineTest {
+    @Test
+    void processesAllItemsTest() {
+        var sum = new AtomicLong();
+        var count = new AtomicLong();
+
+        var pipeline = Pipeline.<Integer>builder(16)
+                .then("square", 3, (Integer item, Consumer<Long> emitter) -> emitter.accept((long) item * item))
+                .then("duplicate", 2, (Long item, Consumer<Long> emitter) -> {
+                    emitter.accept(item);
+                    emitter.accept(item);
+                })
+                .sink("sum", 2, item -> {
+                    sum.addAndGet(item);
+                    count.incrementAndGet();
+                });
+
+        for (int i = 1; i <= 1000; i++) {
+            pipeline.submit(i);
+            if (i % 250 == 0) {
+                pipeline.awaitQuiescence();
+                assertThat(count.get()).isEqualTo(2L * i);
+            }
+        }
+        pipeline.finish();
+
+        assertThat(sum.get()).isEqualTo(2L * 1000 * 1001 * 2001 / 6);
+    }
+
+    @Test
+    void tunedPipelineTest() {
+        var count = new AtomicLong();
+
+        // The fast stage waits for the slow stage in front of it, so it can give threads to the slow stage
+        var pipeline = Pipeline.<Integer>builder(4)
+                .then("slow", 1, (Integer item, Consumer<Integer> emitter) -> {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    emitter.accept(item);
+                })
+                .then("fast", 4, (Integer item, Consumer<Integer> emitter) -> emitter.accept(item))
+                .sink("count", 1, item -> count.incrementAndGet());
+
+        try (var tuner = pipeline.startTuner(10)) {
+            for (int i = 0; i < 2000; i++) {
+                pipeline.submit(i);
+            }
+            pipeline.finish();
+        }
+
+        assertThat(count.get()).isEqualTo(2000);
+        assertThat(pipeline.getStage("slow").getThreads()).isGreaterThan(1);
+        assertThat(pipeline.getStage("fast").getThreads()).isLessThan(4);
+    }
+
+    @Test
+    void offerDoesNotWaitForAFullStageTest() throws InterruptedException {
+        var count = new AtomicLong();
+        var release = new CountDownLatch(1);
+
+        var pipeline = Pipeline.<Integer>builder(1)
+                .sink("blocked", 1, item -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    count.incrementAndGet();
+                });
+
+        int offered = 0;
+        while (offered < 1000 && pipeline.offer(offered)) {
+            offered++;
+        }
+        assertThat(offered).isLessThan(1000);
+
+        release.countDown();
+        pipeline.finish();
+        assertThat(count.get()).isEqualTo(offered);
+    }
+
+    @Test
+    void failureTest() {
+        var pipeline = Pipeline.<Integer>builder(4)
+                .then("fail", 2, (Integer item, Consumer<Integer> emitter) -> {
+                    if (item == 500) {
+                        throw new IllegalStateException("item 500");
+                    }
+                    emitter.accept(item);
+                })
+                .sink("ignore", 1, item -> {
+                });
+
+        assertThatThrownBy(() -> {
+            for (int i = 0; i < 1000; i++) {
+                pipeline.submit(i);
+            }
+            pipeline.finish();
+        }).hasRootCauseInstanceOf(IllegalStateException.class);
+    }
+}
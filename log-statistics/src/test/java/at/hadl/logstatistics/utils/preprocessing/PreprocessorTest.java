@@ -0,0 +1,45 @@
+package at.hadl.logstatistics.utils.preprocessing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PreprocessorTest {
+    private static final List<String> DBPEDIA_LINES = List.of(
+            "127.0.0.1 - - [01/Jan/2014:00:00:00 +0000] \"GET /sparql?default-graph-uri=x&query=SELECT+%3Fs+WHERE+%7B+%3Fs+%3Fp+%3Fo+%7D&format=json HTTP/1.1\" 200 1234 \"-\" \"curl\"",
+            "127.0.0.1 - - [01/Jan/2014:00:00:00 +0000] \"GET /sparql?query=ASK+%7B%7D HTTP/1.1\" 200 1234 \"-\" \"curl\"",
+            "127.0.0.1 - - [01/Jan/2014:00:00:00 +0000] \"GET /sparql?query=SELECT+*+%7B%7D\" 200",
+            "127.0.0.1 - - [01/Jan/2014:00:00:00 +0000] \"GET /index.html HTTP/1.1\" 200 1234 \"-\" \"curl\"",
+            "127.0.0.1 - - \"GET /sparql?query=SELECT+%3Fx+HTTPS",
+            "");
+
+    private static final List<String> WIKIDATA_LINES = List.of(
+            "SELECT+%3Fs+WHERE+%7B+%3Fs+wdt%3AP31+wd%3AQ5+%7D\t2017-06-12 00:00:00\torganic\tother",
+            "ASK+%7B%7D",
+            "\tno query",
+            "");
+
+    @Test
+    void dbpediaByteExtractionTest() {
+        var preprocessor = new DBPediaPreprocessor();
+        DBPEDIA_LINES.forEach(line -> assertThat(extractFromBytes(preprocessor, line)).isEqualTo(preprocessor.extractQueryString(line)));
+    }
+
+    @Test
+    void wikidataByteExtractionTest() {
+        var preprocessor = new WikidataPreprocessor();
+        WIKIDATA_LINES.forEach(line -> assertThat(extractFromBytes(preprocessor, line)).isEqualTo(preprocessor.extractQueryString(line)));
+    }
+
+    private static Object extractFromBytes(Preprocessor preprocessor, String line) {
+        // Surround the line with other bytes to make sure that the offsets are respected
+        var bytes = ("x\"&query=\n" + line + "\n&\"").getBytes(StandardCharsets.UTF_8);
+        int lineStart = "x\"&query=\n".length();
+        int lineEnd = lineStart + line.getBytes(StandardCharsets.UTF_8).length;
+        return preprocessor.extractQueryString(ByteBuffer.wrap(bytes), lineStart, lineEnd);
+    }
+}